@@ -1,5 +1,6 @@
 package com.jakewharton.utilities;
 
+import cxa.lineswallpaper.LiveSettings;
 import cxa.lineswallpaper.R;
 import android.content.Context;
 import android.content.res.TypedArray;
@@ -65,6 +66,11 @@ public class ColorPreference extends DialogPreference {
 	 */
 	private int mColor;
 	
+	/**
+	 * Persisted color, restored when the dialog is cancelled.
+	 */
+	private int mSavedColor;
+	
 	/**
 	 * Temporary color storage used for callback.
 	 */
@@ -87,6 +93,7 @@ public class ColorPreference extends DialogPreference {
 			ColorPreference.this.mBValue.setText(Integer.toString(blue));
 			
 			ColorPreference.this.setValue(color);
+			LiveSettings.getInstance().preview(ColorPreference.this.getKey(), color);
 		}
 	};
 
@@ -111,6 +118,7 @@ public class ColorPreference extends DialogPreference {
 	protected void onBindDialogView(final View view) {
 		super.onBindDialogView(view);
 		
+		this.mSavedColor = this.mColor;
 		this.mPreview = (SurfaceView)view.findViewById(R.id.preview);
 		this.mPreview.setBackgroundColor(this.mColor);
 		
@@ -147,11 +155,13 @@ public class ColorPreference extends DialogPreference {
 	protected void onDialogClosed(final boolean positiveResult) {
 		super.onDialogClosed(positiveResult);
 
-		if (positiveResult) {
-			this.mTempColor = this.mColor;
-			if (this.callChangeListener(this.mTempColor)) {
-				this.saveValue(this.mTempColor);
-			}
+		this.mTempColor = this.mColor;
+		if (positiveResult && this.callChangeListener(this.mTempColor)) {
+			this.setValue(this.mTempColor);
+			LiveSettings.getInstance().commit(this.getSharedPreferences(), this.getKey(), this.mTempColor);
+		} else {
+			this.mColor = this.mSavedColor;
+			LiveSettings.getInstance().cancel(this.getKey());
 		}
 	}
 
@@ -0,0 +1,115 @@
+package cxa.lineswallpaper;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
+import android.util.Log;
+
+/**
+ * Power signals of the device: battery level and charging state from the
+ * sticky battery broadcast, power save mode on API 21 and newer and the
+ * thermal status on API 29 and newer.
+ */
+public class DevicePowerSignalSource implements PowerSignalSource {
+	private static String TAG = "DevicePowerSignalSource";
+
+	private final Context context_;
+	private PowerManager powerManager_;
+	private Listener listener_;
+	private PowerState state_ = PowerState.unknown();
+	private Object thermalListener_;
+
+	private final BroadcastReceiver receiver_ = new BroadcastReceiver() {
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			if (Intent.ACTION_BATTERY_CHANGED.equals(intent.getAction())) {
+				updateBattery(intent);
+			} else {
+				updatePowerSaveMode();
+			}
+		}
+	};
+
+	public DevicePowerSignalSource(Context context) {
+		context_ = context;
+	}
+
+	public void start(Listener listener) {
+		listener_ = listener;
+		powerManager_ = (PowerManager) context_
+				.getSystemService(Context.POWER_SERVICE);
+
+		IntentFilter filter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+			filter.addAction(PowerManager.ACTION_POWER_SAVE_MODE_CHANGED);
+			state_ = state_.withPowerSaveMode(powerManager_.isPowerSaveMode());
+		}
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+			state_ = state_.withThermalStatus(powerManager_
+					.getCurrentThermalStatus());
+			PowerManager.OnThermalStatusChangedListener thermalListener = new PowerManager.OnThermalStatusChangedListener() {
+				public void onThermalStatusChanged(int status) {
+					update(state_.withThermalStatus(status));
+				}
+			};
+			powerManager_.addThermalStatusListener(thermalListener);
+			thermalListener_ = thermalListener;
+		}
+
+		// The battery broadcast is sticky, the current value is returned
+		// right away.
+		Intent battery = context_.registerReceiver(receiver_, filter);
+		if (battery != null) {
+			state_ = batteryState(battery);
+		}
+		listener_.onPowerStateChanged(state_);
+	}
+
+	public void stop() {
+		try {
+			context_.unregisterReceiver(receiver_);
+		} catch (IllegalArgumentException e) {
+			Log.w(TAG, "receiver was not registered");
+		}
+		if (thermalListener_ != null
+				&& Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+			powerManager_
+					.removeThermalStatusListener((PowerManager.OnThermalStatusChangedListener) thermalListener_);
+			thermalListener_ = null;
+		}
+		listener_ = null;
+	}
+
+	private PowerState batteryState(Intent intent) {
+		int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+		int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+		int status = intent.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+		boolean charging = status == BatteryManager.BATTERY_STATUS_CHARGING
+				|| status == BatteryManager.BATTERY_STATUS_FULL;
+		if (level < 0 || scale <= 0) {
+			return state_.withBattery(100, charging);
+		}
+		return state_.withBattery(level * 100 / scale, charging);
+	}
+
+	private void updateBattery(Intent intent) {
+		update(batteryState(intent));
+	}
+
+	private void updatePowerSaveMode() {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+			update(state_.withPowerSaveMode(powerManager_.isPowerSaveMode()));
+		}
+	}
+
+	private void update(PowerState state) {
+		state_ = state;
+		if (listener_ != null) {
+			listener_.onPowerStateChanged(state);
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package cxa.lineswallpaper;
+
+import android.opengl.GLES20;
+
+/**
+ * Pixel formats for the feedback textures the trails are accumulated in.
+ * The feedback textures are read and written in full every frame, so
+ * smaller formats directly cut the memory traffic of the biggest passes.
+ */
+class FeedbackFormat {
+	public static final int RGBA8888 = 0;
+	public static final int RGB888 = 1;
+	public static final int RGB565 = 2;
+	public static final int RGBA4444 = 3;
+	public static final int HALF_FLOAT = 4;
+
+	// OES_texture_half_float
+	private static final int GL_HALF_FLOAT_OES = 0x8D61;
+
+	private static final String[] NAMES = { "rgba8888", "rgb888", "rgb565",
+			"rgba4444", "half_float" };
+
+	/**
+	 * @return the format with the given preference value, RGBA8888 if
+	 *         unknown.
+	 */
+	public static int fromString(String name) {
+		for (int i = 0; i < NAMES.length; ++i) {
+			if (NAMES[i].equals(name)) {
+				return i;
+			}
+		}
+		return RGBA8888;
+	}
+
+	public static String toString(int format) {
+		return NAMES[format];
+	}
+
+	public static int getGLFormat(int format) {
+		switch (format) {
+		case RGB888:
+		case RGB565:
+			return GLES20.GL_RGB;
+		default:
+			return GLES20.GL_RGBA;
+		}
+	}
+
+	public static int getGLType(int format) {
+		switch (format) {
+		case RGB565:
+			return GLES20.GL_UNSIGNED_SHORT_5_6_5;
+		case RGBA4444:
+			return GLES20.GL_UNSIGNED_SHORT_4_4_4_4;
+		case HALF_FLOAT:
+			return GL_HALF_FLOAT_OES;
+		default:
+			return GLES20.GL_UNSIGNED_BYTE;
+		}
+	}
+
+	/**
+	 * @return bits of the least precise color channel.
+	 */
+	public static int getColorBits(int format) {
+		switch (format) {
+		case RGB565:
+			return 5;
+		case RGBA4444:
+			return 4;
+		case HALF_FLOAT:
+			return 10;
+		default:
+			return 8;
+		}
+	}
+
+	/**
+	 * Checks the extensions a format needs. Whether the driver can actually
+	 * render to it is only known after trying, see
+	 * glCheckFramebufferStatus.
+	 */
+	public static boolean hasExtensions(int format, String extensions) {
+		if (format != HALF_FLOAT) {
+			return true;
+		}
+		return extensions != null
+				&& extensions.contains("GL_OES_texture_half_float")
+				&& extensions.contains("GL_OES_texture_half_float_linear")
+				&& extensions.contains("GL_EXT_color_buffer_half_float");
+	}
+}
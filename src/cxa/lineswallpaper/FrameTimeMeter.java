@@ -0,0 +1,64 @@
+package cxa.lineswallpaper;
+
+/**
+ * Measures the time between consecutive frames and keeps an exponentially
+ * smoothed average of it.
+ */
+class FrameTimeMeter {
+	// Longer gaps mean the renderer was paused, not that the frame was slow.
+	private static final float MAX_FRAME_TIME_MS = 250.0f;
+	private static final float SMOOTHING = 0.1f;
+
+	private long lastFrameNanos_ = 0;
+	private float lastFrameTime_ = 0.0f;
+	private float averageFrameTime_ = 0.0f;
+	private int sampleCount_ = 0;
+
+	/**
+	 * Called once at the start of every frame.
+	 *
+	 * @return true if a valid frame time was measured.
+	 */
+	public boolean tick() {
+		long now = System.nanoTime();
+		long last = lastFrameNanos_;
+		lastFrameNanos_ = now;
+		if (last == 0) {
+			return false;
+		}
+
+		float frameTime = (now - last) / 1000000.0f;
+		if (frameTime > MAX_FRAME_TIME_MS) {
+			return false;
+		}
+
+		lastFrameTime_ = frameTime;
+		if (sampleCount_ == 0) {
+			averageFrameTime_ = frameTime;
+		} else {
+			averageFrameTime_ += (frameTime - averageFrameTime_) * SMOOTHING;
+		}
+		++sampleCount_;
+		return true;
+	}
+
+	/**
+	 * Forgets the previous frame, e.g. after the renderer was paused.
+	 */
+	public void reset() {
+		lastFrameNanos_ = 0;
+		sampleCount_ = 0;
+	}
+
+	public float getLastFrameTime() {
+		return lastFrameTime_;
+	}
+
+	public float getAverageFrameTime() {
+		return averageFrameTime_;
+	}
+
+	public int getSampleCount() {
+		return sampleCount_;
+	}
+}
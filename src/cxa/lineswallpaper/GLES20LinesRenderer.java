@@ -1,9 +1,12 @@
 package cxa.lineswallpaper;
 
+import java.io.File;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -12,6 +15,7 @@ import android.content.SharedPreferences;
 import android.graphics.Color;
 import android.opengl.GLES20;
 import android.opengl.Matrix;
+import android.os.Build;
 import android.os.SystemClock;
 import android.util.Log;
 import net.rbgrn.android.glwallpaperservice.GLWallpaperService;
@@ -31,42 +35,111 @@ public class GLES20LinesRenderer implements GLWallpaperService.Renderer {
 			1.0f, 0.0f, 0, 1.0f, 0.0f, 0.0f, 0.0f, 0, 0.0f, 0.0f, 1.0f, 1.0f,
 			0, 1.0f, 1.0f, 0.0f, 1.0f, 0, 0.0f, 1.0f };
 
-	private static final int LINE_COUNT = 1500;
+	// Geometry is allocated for the largest line count, the adaptive line
+	// count only changes how much of it is drawn.
+	private static final int MAX_LINE_COUNT = 3000;
+	// Normalized shorts, half the vertex fetch of floats
+	private static final int LINE_VERTEX_FORMAT = LineGeometry.FORMAT_SHORT;
 
 	private FloatBuffer triangle_vertices_;
 
-	private FloatBuffer line_vertices_;
+	// Seed of the line geometry, kept in the preferences so the lines stay
+	// the same across engines and restarts
+	private long lineSeed_ = 0;
+	private LineGeometry line_geometry_;
+	// Client side copy of the geometry, null while a vertex buffer holds it
+	private ByteBuffer line_vertices_;
+
+	private int quad_buffer_;
+	private int line_buffer_;
+	private boolean vertexBuffersActive_ = false;
+	private boolean appliedUseClientArrays_ = false;
 
 	private final String vertex_shader_ = "uniform mat4 uMVPMatrix;\n"
+			+ "uniform vec2 uTexScale;\n"
 			+ "attribute vec4 aPosition;\n" + "attribute vec2 aTextureCoord;\n"
 			+ "varying vec2 vTextureCoord;\n" + "void main() {\n"
 			+ "  gl_Position = uMVPMatrix * aPosition;\n"
-			+ "  vTextureCoord = aTextureCoord;\n" + "}\n";
+			+ "  vTextureCoord = aTextureCoord * uTexScale;\n" + "}\n";
 
+	// COLOR_PRECISION is defined by the variant, see buildShaderVariant()
 	private final String fragment_shader_ = "precision mediump float;\n"
+			+ "#ifdef GL_FRAGMENT_PRECISION_HIGH\n"
+			+ "#define COORD_PRECISION highp\n"
+			+ "#else\n"
+			+ "#define COORD_PRECISION mediump\n"
+			+ "#endif\n"
 			+ "uniform float blur;\n"
+			+ "uniform float uDither;\n"
+			+ "uniform vec3 uBackground;\n"
+			+ "varying vec2 vTextureCoord;\n"
+			+ "uniform sampler2D sTexture;\n"
+			// 2x2 Bayer matrix without integer ops or arrays
+			+ "float bayer2(COORD_PRECISION vec2 a) {\n"
+			+ "  a = mod(floor(a), 2.0);\n"
+			+ "  return fract(a.x * 0.5 + a.y * 0.75);\n"
+			+ "}\n"
+			+ "void main() {\n"
+			+ "  COLOR_PRECISION vec4 color = texture2D(sTexture, vTextureCoord);\n"
+			+ "  COORD_PRECISION vec2 p = gl_FragCoord.xy;\n"
+			+ "  float bayer = bayer2(p) + bayer2(0.5 * p) * 0.25;\n"
+			+ "  color.rgb += (bayer - 0.46875) * uDither;\n"
+			+ "  gl_FragColor = vec4(color.rgb * (color.a * blur) + uBackground, 1.0);\n"
+			+ "}\n";
+
+	// Dual filter (Kawase) blur, uHalfPixel is half a texel of the source
+	private final String blur_down_fragment_shader_ = "precision mediump float;\n"
+			+ "uniform vec2 uHalfPixel;\n"
+			+ "varying vec2 vTextureCoord;\n"
+			+ "uniform sampler2D sTexture;\n"
+			+ "void main() {\n"
+			+ "  vec2 o = 2.0 * uHalfPixel;\n"
+			+ "  vec4 sum = texture2D(sTexture, vTextureCoord) * 4.0;\n"
+			+ "  sum += texture2D(sTexture, vTextureCoord - o);\n"
+			+ "  sum += texture2D(sTexture, vTextureCoord + o);\n"
+			+ "  sum += texture2D(sTexture, vTextureCoord + vec2(o.x, -o.y));\n"
+			+ "  sum += texture2D(sTexture, vTextureCoord - vec2(o.x, -o.y));\n"
+			+ "  gl_FragColor = sum * 0.125;\n"
+			+ "}\n";
+
+	private final String blur_up_fragment_shader_ = "precision mediump float;\n"
+			+ "uniform vec2 uHalfPixel;\n"
 			+ "varying vec2 vTextureCoord;\n"
 			+ "uniform sampler2D sTexture;\n"
 			+ "void main() {\n"
-			+ "  gl_FragColor = texture2D(sTexture, vTextureCoord) * vec4(1,1,1,blur);\n"
+			+ "  vec2 o = uHalfPixel;\n"
+			+ "  vec4 sum = texture2D(sTexture, vTextureCoord + vec2(-2.0 * o.x, 0.0));\n"
+			+ "  sum += texture2D(sTexture, vTextureCoord + vec2(2.0 * o.x, 0.0));\n"
+			+ "  sum += texture2D(sTexture, vTextureCoord + vec2(0.0, -2.0 * o.y));\n"
+			+ "  sum += texture2D(sTexture, vTextureCoord + vec2(0.0, 2.0 * o.y));\n"
+			+ "  sum += texture2D(sTexture, vTextureCoord + o) * 2.0;\n"
+			+ "  sum += texture2D(sTexture, vTextureCoord - o) * 2.0;\n"
+			+ "  sum += texture2D(sTexture, vTextureCoord + vec2(o.x, -o.y)) * 2.0;\n"
+			+ "  sum += texture2D(sTexture, vTextureCoord + vec2(-o.x, o.y)) * 2.0;\n"
+			+ "  gl_FragColor = sum / 12.0;\n"
 			+ "}\n";
 
 	private final String line_vertex_shader_ = "uniform mat4 uMVPMatrix;\n"
 			+ "uniform float delta;\n"
 			+ "uniform float brightness;\n"
+			+ "uniform vec2 uPositionZ;\n"
 			+ "attribute vec4 aPosition;\n"
-			+ "varying float vColor;\n"
+			+ "varying COLOR_PRECISION float vColor;\n"
 			+ "void main() {\n"
-			+ "  float z = aPosition.z + delta;\n"
+			+ "  float z = aPosition.z * uPositionZ.x + uPositionZ.y + delta;\n"
+			+ "#ifdef BRANCH_FREE_WRAP\n"
+			+ "  z = fract(z);\n"
+			+ "#else\n"
 			+ "  if(z > 1.0)\n"
 			+ "    z = z - 1.0;\n"
+			+ "#endif\n"
 			+ "  vColor = brightness * z;\n"
 			+ "  gl_Position = uMVPMatrix * vec4(aPosition.x, aPosition.y, z, aPosition.w);\n"
 			+ "}\n";
 
 	private final String line_fragment_shader_ = "precision mediump float;\n"
-			+ "uniform vec3 mColor;\n"
-			+ "varying float vColor;\n"
+			+ "uniform COLOR_PRECISION vec3 mColor;\n"
+			+ "varying COLOR_PRECISION float vColor;\n"
 			+ "void main() {\n"
 			+ "  gl_FragColor = vec4(vColor,vColor,vColor,1) * vec4(mColor.x,mColor.y,mColor.z,1);\n"
 			+ "}\n";
@@ -93,12 +166,21 @@ public class GLES20LinesRenderer implements GLWallpaperService.Renderer {
 	private int line_delta_handle_;
 	private int line_mColor_handle_;
 	private int line_brightness_handle_;
+	private int line_position_z_handle_;
 
 	private int blur_handle_;
+	private int tex_scale_handle_;
 
 	private int target_texture_index_ = 0;
-	private int[] target_texture_;
-	private int[] framebuffer_;
+	private RenderTarget[] feedback_targets_ = new RenderTarget[2];
+	// Keeps the targets of other surface sizes for when they come back, as
+	// much as one working set of the current size, enough for the other
+	// orientation
+	private static final float RENDER_TARGET_POOL_IDLE_RATIO = 1.0f;
+	private RenderTargetPool targetPool_ = new RenderTargetPool(
+			RENDER_TARGET_POOL_IDLE_RATIO);
+	// Part of each target texture covered by the last frame rendered into it.
+	private float[] target_scale_ = { 1.0f, 1.0f };
 
 	private int framebuffer_width_ = 256;
 	private int framebuffer_height_ = 256;
@@ -107,6 +189,11 @@ public class GLES20LinesRenderer implements GLWallpaperService.Renderer {
 
 	private SharedPreferences preferences_;
 	private SettingsUpdater settingsUpdater_;
+	// Latest snapshot published by the main thread, and the one the GL
+	// thread is rendering with
+	private final AtomicReference<RendererSettings> settings_ = new AtomicReference<RendererSettings>(
+			RendererSettings.DEFAULTS);
+	private RendererSettings appliedSettings_ = null;
 	private float backgroundColorRed_ = 0.0f;
 	private float backgroundColorGreen_ = 0.0f;
 	private float backgroundColorBlue_ = 0.0f;
@@ -128,10 +215,90 @@ public class GLES20LinesRenderer implements GLWallpaperService.Renderer {
 	private boolean useNonPowerOfTwoTextures_ = false;
 	private boolean useNonSquareTextures_ = false;
 	private boolean useOneFramebuffer_ = false;
+	private boolean useClientArrays_ = false;
+
+	private boolean adaptiveLineCount_ = true;
+	private int lineCount_ = 1494;
+	private int minLineCount_ = 376;
+	private int maxLineCount_ = 1494;
+	private boolean dynamicResolution_ = false;
+	private ResolutionController resolutionController_ = new ResolutionController();
+	private float renderScale_ = 1.0f;
+	private float lineCountScale_ = 1.0f;
+	private float maxRenderScale_ = 1.0f;
+	private FrameTimeMeter frameTimeMeter_ = new FrameTimeMeter();
+	// false while frames are only drawn on request, their spacing is no
+	// frame time
+	private boolean continuous_ = true;
+	private LineCountController lineCountController_ = new LineCountController(
+			minLineCount_, maxLineCount_);
 
 	private boolean resetFramebuffers_ = false;
 
+	private GLStateCache stateCache_ = new GLStateCache();
+	private int frameCount_ = 0;
+	private GpuProfiler profiler_ = new GpuProfiler();
+	// Frames between two profile log lines
+	private static final int PROFILE_LOG_INTERVAL = 600;
+
 	private static String TAG = "GLES20LinesRenderer";
+	private static final boolean DEBUG = false;
+	// Use GLErrorChecker.MODE_PER_CALL to find out which call failed.
+	private static final int GL_ERROR_CHECK_MODE = GLErrorChecker.MODE_PER_FRAME;
+
+	private GLErrorChecker errorChecker_ = new GLErrorChecker(TAG,
+			GL_ERROR_CHECK_MODE);
+
+	private ProgramCache programCache_ = null;
+
+	// Requested feedback texture format and the one the driver accepted
+	private int feedbackFormat_ = FeedbackFormat.RGBA8888;
+	private int appliedFeedbackFormat_ = -1;
+	private int activeFeedbackFormat_ = FeedbackFormat.RGBA8888;
+	// Amplitude of the ordered dither in the final blit
+	private float dither_ = 0.0f;
+	private int dither_handle_;
+	private int background_handle_;
+
+	// Blur levels: level i is 1/2^(i+1) of the framebuffer size. The
+	// profiler times the down and up pass of each level separately.
+	private static final int MAX_BLUR_LEVELS = GpuProfiler.BLUR_LEVELS;
+	private int blurLevels_ = 0;
+	private RenderTarget[] blur_targets_ = new RenderTarget[MAX_BLUR_LEVELS];
+	private BlurProgram blur_down_program_;
+	private BlurProgram blur_up_program_;
+	private RenderPass blurPass_;
+
+	private static class BlurProgram {
+		int program_;
+		int position_handle_;
+		int texture_handle_;
+		int MVP_matrix_handle_;
+		int tex_scale_handle_;
+		int half_pixel_handle_;
+		int texture_loc_;
+	}
+
+	private RenderPass resetPass_;
+	private RenderPass feedbackPass_;
+	private RenderPass screenPass_;
+
+	// Shader variant flags
+	private static final int SHADER_LOWP_COLOR = 1;
+	private static final int SHADER_BRANCH_FREE_WRAP = 2;
+	// Branch-free wins ties within this fraction of the branching time.
+	private static final float SHADER_TIMING_TOLERANCE = 0.05f;
+	private static final int SHADER_TIMING_DRAWS = 8;
+
+	// Programs and vertex buffers come from the process wide cache when the
+	// context is part of the wallpaper's share group
+	private SharedResources shared_ = SharedResources.getInstance();
+	private boolean useShared_ = false;
+	private int sharedGeneration_ = 0;
+
+	private int shaderVariant_ = 0;
+	private int quadShaderVariant_ = 0;
+	private String shaderVariantRenderer_ = null;
 
 	public GLES20LinesRenderer(Context context) {
 		triangle_vertices_ = ByteBuffer
@@ -140,29 +307,100 @@ public class GLES20LinesRenderer implements GLWallpaperService.Renderer {
 				.order(ByteOrder.nativeOrder()).asFloatBuffer();
 		triangle_vertices_.put(triangle_vertices_data_).position(0);
 
-		Random rnd = new Random();
+		shared_.addRenderer();
 
-		float[] line_data = new float[LINE_COUNT * 3];
-		for (int i = 0; i < LINE_COUNT; ++i) {
-			line_data[i * 3 + 0] = rnd.nextFloat() * 2 - 1;
-			line_data[i * 3 + 1] = rnd.nextFloat() * 2 - 1;
-			line_data[i * 3 + 2] = rnd.nextFloat();
+		if (context != null) {
+			programCache_ = new ProgramCache(new File(context.getCacheDir(),
+					"programs"));
 		}
-
-		line_vertices_ = ByteBuffer
-				.allocateDirect(line_data.length * FLOAT_SIZE_BYTES)
-				.order(ByteOrder.nativeOrder()).asFloatBuffer();
-		line_vertices_.put(line_data).position(0);
-
 	}
 
 	public void setSharedPreferences(SharedPreferences preferences) {
+		if (!preferences.contains("line_seed")) {
+			SharedPreferences.Editor editor = preferences.edit();
+			editor.putLong("line_seed", new Random().nextLong());
+			if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD) {
+				editor.apply();
+			} else {
+				editor.commit();
+			}
+		}
+		lineSeed_ = preferences.getLong("line_seed", 0);
 		settingsUpdater_ = new SettingsUpdater(this);
 		preferences_ = preferences;
 		preferences_.registerOnSharedPreferenceChangeListener(settingsUpdater_);
 		settingsUpdater_.onSharedPreferenceChanged(preferences_, null);
 	}
 
+	/**
+	 * Shows an integer setting with a value which is not persisted, until
+	 * {@link #endPreview(String)}. Main thread only.
+	 */
+	public void previewSetting(String key, int value) {
+		settings_.set(settings_.get().preview(key, value));
+	}
+
+	/**
+	 * Goes back to the persisted value of the setting. Main thread only.
+	 */
+	public void endPreview(String key) {
+		if (preferences_ != null) {
+			settingsUpdater_.onSharedPreferenceChanged(preferences_, key);
+		}
+	}
+
+	/**
+	 * Deletes the render targets, the pooled ones included, and the profiler
+	 * queries, and gives up the programs and buffers. The context is shared
+	 * by all engines and outlives this renderer.
+	 */
+	@Override
+	public void onRelease(GL10 gl) {
+		int[] programs = { program_, line_program_,
+				blur_down_program_ != null ? blur_down_program_.program_ : 0,
+				blur_up_program_ != null ? blur_up_program_.program_ : 0 };
+		for (int i = 0; i < programs.length; ++i) {
+			if (programs[i] != 0) {
+				releaseProgram(programs[i]);
+			}
+		}
+		if (quad_buffer_ != 0) {
+			releaseVertexBuffer(quad_buffer_);
+		}
+		if (line_buffer_ != 0) {
+			releaseVertexBuffer(line_buffer_);
+		}
+		// the references are given up, forgetGLObjects() must not again
+		useShared_ = false;
+
+		for (int i = 0; i < feedback_targets_.length; ++i) {
+			targetPool_.recycle(feedback_targets_[i]);
+		}
+		for (int i = 0; i < blur_targets_.length; ++i) {
+			targetPool_.recycle(blur_targets_[i]);
+		}
+		targetPool_.clear();
+		profiler_.deleteQueries();
+		forgetGLObjects();
+		checkGlError("onRelease");
+	}
+
+	/**
+	 * Gives up the shared resources. Must be called once the engine is
+	 * removed from the GL thread, after {@link #onRelease(GL10)} if the
+	 * context was still there; shared objects are deleted by the next
+	 * renderer using them, or with the last context.
+	 */
+	public void release() {
+		if (preferences_ != null) {
+			preferences_
+					.unregisterOnSharedPreferenceChangeListener(settingsUpdater_);
+		}
+		releaseSharedObjects();
+		shared_.removeRenderer(this);
+		profiler_.release();
+	}
+
 	private class SettingsUpdater implements
 			SharedPreferences.OnSharedPreferenceChangeListener {
 		private GLES20LinesRenderer renderer_;
@@ -175,44 +413,9 @@ public class GLES20LinesRenderer implements GLWallpaperService.Renderer {
 		public void onSharedPreferenceChanged(
 				SharedPreferences sharedPreferences, String key) {
 			try {
-				int backgroundInt = sharedPreferences.getInt("backgroundColor",
-						0);
-				int linesInt = sharedPreferences.getInt("linesColor", -1);
-
-				int blurInt = sharedPreferences.getInt("blur", 127);
-				int brightnessInt = sharedPreferences.getInt("brightness", 127);
-				int lineWidthInt = sharedPreferences.getInt("linewidth", 127);
-				int rotationSpeedInt = sharedPreferences.getInt(
-						"rotationspeed", 127);
-				int speedInt = sharedPreferences.getInt("speed", 127);
-
-				boolean useSmallerTextures = sharedPreferences.getBoolean(
-						"use_smaller_textures", false);
-				boolean useNonPowerOfTwoTextures = sharedPreferences
-						.getBoolean("use_non_power_of_two_textures", false);
-				boolean useNonSquareTextures = sharedPreferences.getBoolean(
-						"use_non_square_textures", false);
-				boolean useOneFramebuffer = sharedPreferences.getBoolean(
-						"use_one_framebuffer", false);
-
-				/*
-				 * Log.i(TAG, "PREF back = " + backgroundInt + " lines = " +
-				 * linesInt + " blur = " + blurInt + " brightness = " +
-				 * brightnessInt + " linewidth = " + lineWidthInt +
-				 * " rotation = " + rotationSpeedInt + " speed = " + speedInt);
-				 */
-
-				renderer_.setColors(backgroundInt, linesInt);
-				renderer_.setBlur(blurInt);
-				renderer_.setBrightness(brightnessInt);
-				renderer_.setLineWidth(lineWidthInt);
-				renderer_.setRotationSpeed(rotationSpeedInt);
-				renderer_.setSpeed(speedInt);
-
-				renderer_.setCompatibilitySettings(useSmallerTextures,
-						useNonPowerOfTwoTextures, useNonSquareTextures,
-						useOneFramebuffer);
-
+				// only the main thread publishes, the GL thread just reads
+				renderer_.settings_.set(renderer_.settings_.get().update(
+						sharedPreferences, key));
 			} catch (final Exception e) {
 				Log.e(TAG, "PREF init error: " + e);
 			}
@@ -241,6 +444,8 @@ public class GLES20LinesRenderer implements GLWallpaperService.Renderer {
 
 	public void setBlur(int value) {
 		blurFactor_ = getScaledFactor(value, 0.125f);
+		blurLevels_ = Math.min(MAX_BLUR_LEVELS, value * (MAX_BLUR_LEVELS + 1)
+				/ 256);
 	}
 
 	public void setBrightness(int value) {
@@ -263,44 +468,174 @@ public class GLES20LinesRenderer implements GLWallpaperService.Renderer {
 		speedFactor_ = getScaledFactor(value, 1.0f);
 	}
 
+	private int getScaledLineCount(int value) {
+		int count = (value * MAX_LINE_COUNT / 255) & ~1;
+		return Math.max(2, count);
+	}
+
+	public void setLineCount(boolean adaptive, int minValue, int maxValue) {
+		adaptiveLineCount_ = adaptive;
+		minLineCount_ = getScaledLineCount(minValue);
+		maxLineCount_ = getScaledLineCount(maxValue);
+	}
+
+	/**
+	 * Whether frames are drawn continuously. Frames drawn on request, e.g.
+	 * setting previews while the wallpaper is idle, do not feed the adaptive
+	 * line count and the dynamic resolution. GL thread only.
+	 */
+	public void setContinuous(boolean continuous) {
+		if (continuous != continuous_) {
+			continuous_ = continuous;
+			frameTimeMeter_.reset();
+		}
+	}
+
+	/**
+	 * Frame rate the renderer is paced at, sets the frame budget used by the
+	 * adaptive line count and the dynamic resolution. GL thread only.
+	 */
+	public void setTargetFrameRate(int frameRate) {
+		float frameBudget = 1000.0f / (frameRate > 0 ? frameRate : 60);
+		lineCountController_.setFrameBudget(frameBudget);
+		resolutionController_.setFrameBudget(frameBudget);
+	}
+
+	/**
+	 * Upper limits imposed by the render governor. GL thread only.
+	 *
+	 * @param lineCountScale
+	 *            fraction of the maximum line count which may be drawn.
+	 * @param maxRenderScale
+	 *            largest render scale of the feedback framebuffers.
+	 */
+	public void setQualityLimits(float lineCountScale, float maxRenderScale) {
+		lineCountScale_ = lineCountScale;
+		maxRenderScale_ = maxRenderScale;
+	}
+
+	public void setDynamicResolution(boolean dynamicResolution) {
+		dynamicResolution_ = dynamicResolution;
+	}
+
 	public void setCompatibilitySettings(boolean useSmallerTextures,
 			boolean useNonPowerOfTwoTextures, boolean useNonSquareTextures,
-			boolean useOneFramebuffer) {
+			boolean useOneFramebuffer, boolean useClientArrays) {
 		useSmallerTextures_ = useSmallerTextures;
 		useNonPowerOfTwoTextures_ = useNonPowerOfTwoTextures;
 		useNonSquareTextures_ = useNonSquareTextures;
 		useOneFramebuffer_ = useOneFramebuffer;
+		useClientArrays_ = useClientArrays;
+	}
+
+	public void setFeedbackFormat(int format) {
+		feedbackFormat_ = format;
+	}
+
+	/*
+	 * Takes over a settings snapshot on the GL thread. Values are always
+	 * copied; with rebuild set, the GL objects depending on changed
+	 * compatibility settings are rebuilt right away instead of waiting for
+	 * the next surface change.
+	 */
+	private void applySettings(RendererSettings settings, boolean rebuild) {
+		int changes = settings.diff(appliedSettings_);
+		appliedSettings_ = settings;
+		if (changes == 0) {
+			return;
+		}
+
+		setColors(settings.backgroundColor, settings.linesColor);
+		setBlur(settings.blur);
+		setBrightness(settings.brightness);
+		setLineWidth(settings.lineWidth);
+		setRotationSpeed(settings.rotationSpeed);
+		setSpeed(settings.speed);
+		setLineCount(settings.adaptiveLineCount, settings.minLineCount,
+				settings.maxLineCount);
+		setDynamicResolution(settings.dynamicResolution);
+		setCompatibilitySettings(settings.useSmallerTextures,
+				settings.useNonPowerOfTwoTextures,
+				settings.useNonSquareTextures, settings.useOneFramebuffer,
+				settings.useClientArrays);
+		setFeedbackFormat(settings.feedbackFormat);
+		profiler_.setMode(settings.gpuProfiling);
+
+		if (!rebuild || (changes & ~RendererSettings.CHANGED_VALUES) == 0) {
+			return;
+		}
+		if ((changes & RendererSettings.CHANGED_FEEDBACK_FORMAT) != 0
+				&& feedbackFormat_ != appliedFeedbackFormat_) {
+			// the last pass of a frame leaves the window surface bound
+			chooseFeedbackFormat();
+			setupQuadShader();
+			setupBlurShaders();
+		}
+		if ((changes & RendererSettings.CHANGED_VERTEX_BUFFERS) != 0
+				&& useClientArrays_ != appliedUseClientArrays_) {
+			setupVertexBuffers();
+		}
+		if ((changes & (RendererSettings.CHANGED_TARGET_SIZE
+				| RendererSettings.CHANGED_FRAMEBUFFER_COUNT
+				| RendererSettings.CHANGED_FEEDBACK_FORMAT)) != 0) {
+			updateFramebufferSize();
+			updateRenderTargetsIfNeeded();
+		}
+		stateCache_.invalidate();
 	}
 
 	private void checkGlError(String op) {
-		int error;
-		while ((error = GLES20.glGetError()) != GLES20.GL_NO_ERROR) {
-			Log.e(TAG, op + ": glError " + error);
-			throw new RuntimeException(op + ": glError " + error);
+		errorChecker_.check(op);
+	}
+
+	private void checkGlErrorInFrame(String op) {
+		errorChecker_.checkCall(op);
+	}
+
+	private int createProgram(String vertexSource, String fragmentSource) {
+		if (programCache_ == null) {
+			return compileProgram(vertexSource, fragmentSource);
+		}
+		int program = programCache_.load(vertexSource, fragmentSource);
+		if (program == 0) {
+			long start = System.nanoTime();
+			program = compileProgram(vertexSource, fragmentSource);
+			programCache_.store(vertexSource, fragmentSource, program,
+					System.nanoTime() - start);
 		}
+		return program;
 	}
 
-	private int createFrameBuffer(GL10 gl, int width, int height,
-			int targetTextureId) {
-		int framebuffer;
-		int[] framebuffers = new int[1];
-		GLES20.glGenFramebuffers(1, framebuffers, 0);
-		framebuffer = framebuffers[0];
-		GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebuffer);
+	/*
+	 * Like createProgram(), but shares the program with the other renderers
+	 * when possible. Release with releaseProgram().
+	 */
+	private int acquireProgram(String vertexSource, String fragmentSource) {
+		if (!useShared_) {
+			return createProgram(vertexSource, fragmentSource);
+		}
+		String key = vertexSource + "\0" + fragmentSource;
+		int program = shared_.acquire(key, SharedResources.TYPE_PROGRAM);
+		if (program == 0) {
+			program = createProgram(vertexSource, fragmentSource);
+			if (program != 0) {
+				shared_.add(key, SharedResources.TYPE_PROGRAM, program);
+			}
+		}
+		return program;
+	}
 
-		GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER,
-				GLES20.GL_COLOR_ATTACHMENT0, GL10.GL_TEXTURE_2D,
-				targetTextureId, 0);
-		int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
-		if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
-			throw new RuntimeException("Framebuffer is not complete: "
-					+ Integer.toHexString(status));
+	private void releaseProgram(int program) {
+		if (!useShared_) {
+			GLES20.glDeleteProgram(program);
+			return;
 		}
-		GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
-		return framebuffer;
+		shared_.release(SharedResources.TYPE_PROGRAM, program,
+				sharedGeneration_);
+		shared_.deletePending();
 	}
 
-	private int createProgram(String vertexSource, String fragmentSource) {
+	private int compileProgram(String vertexSource, String fragmentSource) {
 		int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, vertexSource);
 		if (vertexShader == 0) {
 			return 0;
@@ -338,15 +673,6 @@ public class GLES20LinesRenderer implements GLWallpaperService.Renderer {
 		return program;
 	}
 
-	private int createTargetTexture(GL10 gl, int width, int height) {
-		int texture;
-		int[] textures = new int[1];
-		GLES20.glGenTextures(1, textures, 0);
-		texture = textures[0];
-		updateTargetTexture(gl, texture, width, height);
-		return texture;
-	}
-
 	float getTimeDeltaByScale(long scale) {
 		if (scale < 1)
 			return 0.0f;
@@ -375,49 +701,143 @@ public class GLES20LinesRenderer implements GLWallpaperService.Renderer {
 	public void onDrawFrame(GL10 gl) {
 		// Ignore the passed-in GL10 interface, and use the GLES20
 		// class's static methods instead.
-		GLES20.glClearColor(backgroundColorRed_, backgroundColorGreen_,
-				backgroundColorBlue_, 1.0f);
+		if (shared_.beginFrame(this)) {
+			// another renderer may have changed uniforms of shared programs
+			stateCache_.invalidate();
+		}
+		try {
+			if (useShared_) {
+				shared_.deletePending();
+			}
+			RendererSettings settings = settings_.get();
+			if (settings != appliedSettings_) {
+				applySettings(settings, true);
+			}
+			drawFrame();
+			if (shared_.isShared()) {
+				// make the commands visible to the other contexts
+				GLES20.glFlush();
+			}
+		} finally {
+			shared_.endFrame();
+		}
+	}
+
+	private void drawFrame() {
+		stateCache_.beginFrame();
+		profiler_.beginFrame();
+		boolean measured = continuous_ && frameTimeMeter_.tick();
+		updateLineCount(measured);
+		updateRenderScale(measured);
+		int renderWidth = (int) (framebuffer_width_ * renderScale_);
+		int renderHeight = (int) (framebuffer_height_ * renderScale_);
+		++frameCount_;
+		if (profiler_.isActive() && frameCount_ % PROFILE_LOG_INTERVAL == 0) {
+			Log.i(TAG, "GPU profile: " + profiler_);
+		}
+		if (DEBUG && (frameCount_ % 300) == 0) {
+			Log.d(TAG, "GL calls saved by state cache: "
+					+ stateCache_.getLastFrameSavedCalls() + " per frame, "
+					+ stateCache_.getTotalSavedCalls() + " total");
+			Log.d(TAG, feedbackPass_ + ", " + screenPass_);
+		}
 
 		if (resetFramebuffers_) {
 			resetFramebuffers_ = false;
 
-			if (!useOneFramebuffer_) {
-				GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER,
-						framebuffer_[1 - target_texture_index_]);
-				GLES20.glViewport(0, 0, framebuffer_width_, framebuffer_height_);
-				GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
-			}
+			// the first feedback pass reads the background color
+			stateCache_.clearColor(backgroundColorRed_, backgroundColorGreen_,
+					backgroundColorBlue_, 1.0f);
+			resetPass_.begin(stateCache_,
+					feedback_targets_[useOneFramebuffer_ ? target_texture_index_
+							: 1 - target_texture_index_].getFramebuffer(),
+					RenderPass.LOAD_CLEAR, framebuffer_width_,
+					framebuffer_height_);
+			resetPass_.end();
 		}
 
-		GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER,
-				framebuffer_[target_texture_index_]);
-		GLES20.glViewport(0, 0, framebuffer_width_, framebuffer_height_);
-		GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+		int previousIndex = useOneFramebuffer_ ? target_texture_index_
+				: 1 - target_texture_index_;
+		int blurLevels = Math.min(blurLevels_, blur_targets_.length);
+		if (blurLevels > 0) {
+			// timed per level inside
+			renderBlurChain(previousIndex, blurLevels);
+		}
 
-		if (!useOneFramebuffer_) {
-			renderBlurTexture(1 - target_texture_index_);
+		// The quad passes are opaque and cover the whole viewport. With one
+		// framebuffer and no blur the pass reads its own target, so it must
+		// be kept.
+		boolean readsTarget = useOneFramebuffer_ && blurLevels == 0;
+		feedbackPass_.begin(stateCache_,
+				feedback_targets_[target_texture_index_].getFramebuffer(),
+				readsTarget ? RenderPass.LOAD_KEEP : RenderPass.LOAD_DONT_CARE,
+				renderWidth, renderHeight);
+		profiler_.begin(GpuProfiler.SECTION_FEEDBACK);
+		if (blurLevels > 0) {
+			// the chain ends at half resolution, the bilinear upscale here
+			// is its last step
+			renderBlurTexture(blur_targets_[0].getTexture(), 1.0f, 1.0f,
+					false);
 		} else {
-			renderBlurTexture(target_texture_index_);
+			renderBlurTexture(previousIndex, false);
 		}
+		profiler_.end(GpuProfiler.SECTION_FEEDBACK);
+		profiler_.begin(GpuProfiler.SECTION_LINES);
 		renderLines();
+		profiler_.end(GpuProfiler.SECTION_LINES);
+		feedbackPass_.end();
+		target_scale_[target_texture_index_] = renderScale_;
 
-		GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
-		GLES20.glViewport(0, 0, surface_width_, surface_height_);
-
-		GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
-		renderBlurTexture(target_texture_index_);
+		screenPass_.begin(stateCache_, 0, RenderPass.LOAD_DONT_CARE,
+				surface_width_, surface_height_);
+		profiler_.begin(GpuProfiler.SECTION_SCREEN);
+		renderBlurTexture(target_texture_index_, true);
+		profiler_.end(GpuProfiler.SECTION_SCREEN);
+		screenPass_.end();
 
 		if (!useOneFramebuffer_) {
 			target_texture_index_ = 1 - target_texture_index_;
 		}
+
+		checkGlError("onDrawFrame");
+	}
+
+	private void updateLineCount(boolean measured) {
+		int maxLineCount = Math.max(2, (int) (maxLineCount_ * lineCountScale_)
+				& ~1);
+		lineCountController_.setBounds(Math.min(minLineCount_, maxLineCount),
+				maxLineCount);
+		if (!adaptiveLineCount_) {
+			lineCount_ = maxLineCount;
+		} else if (measured) {
+			lineCount_ = lineCountController_.update(frameTimeMeter_
+					.getAverageFrameTime());
+		} else {
+			lineCount_ = lineCountController_.getCount();
+		}
+		if (DEBUG && (frameCount_ % 300) == 0) {
+			Log.d(TAG, "frame time " + frameTimeMeter_.getAverageFrameTime()
+					+ " ms, drawing " + lineCount_ + " line vertices");
+		}
+	}
+
+	private void updateRenderScale(boolean measured) {
+		float renderScale = 1.0f;
+		if (dynamicResolution_) {
+			if (measured
+					&& resolutionController_.update(frameTimeMeter_
+							.getLastFrameTime()) && DEBUG) {
+				Log.d(TAG, "render scale " + resolutionController_.getScale());
+			}
+			renderScale = resolutionController_.getScale();
+		}
+		renderScale_ = Math.min(renderScale, maxRenderScale_);
 	}
 
 	@Override
 	public void onSurfaceChanged(GL10 gl, int width, int height) {
-		// re-read settings
-		if (settingsUpdater_ != null && preferences_ != null) {
-			settingsUpdater_.onSharedPreferenceChanged(preferences_, null);
-		}
+		// everything below is rebuilt as needed anyway
+		applySettings(settings_.get(), false);
 
 		// Ignore the passed-in GL10 interface, and use the GLES20
 		// class's static methods instead.
@@ -429,196 +849,696 @@ public class GLES20LinesRenderer implements GLWallpaperService.Renderer {
 
 		surface_width_ = width;
 		surface_height_ = height;
-
-		if (!useNonPowerOfTwoTextures_) {
-			// lets make framebuffer have power of 2 dimension
-			// and it should be less then display size
-			framebuffer_width_ = 1 << (int) (Math.log(width) / Math.log(2));
-			if (framebuffer_width_ == surface_width_)
-				framebuffer_width_ >>= 1;
-			framebuffer_height_ = 1 << (int) (Math.log(height) / Math.log(2));
-			if (framebuffer_height_ == surface_height_)
-				framebuffer_height_ >>= 1;
-		} else {
-			framebuffer_width_ = surface_width_;
-			framebuffer_height_ = surface_height_;
+		updateFramebufferSize();
+
+		// Settings which are applied on surface creation. With a preserved
+		// context the surface may come back without that.
+		if (feedbackFormat_ != appliedFeedbackFormat_) {
+			chooseFeedbackFormat();
+			setupQuadShader();
+			setupBlurShaders();
 		}
-
-		if (!useNonSquareTextures_) {
-			// http://code.google.com/p/android/issues/detail?id=14835
-			// The size of the FBO should have square size.
-			if (framebuffer_height_ > framebuffer_width_) {
-				framebuffer_width_ = framebuffer_height_;
-			} else if (framebuffer_width_ > framebuffer_height_) {
-				framebuffer_height_ = framebuffer_width_;
-			}
+		if (useClientArrays_ != appliedUseClientArrays_) {
+			setupVertexBuffers();
 		}
 
-		if (useSmallerTextures_) {
-			framebuffer_width_ >>= 1;
-			framebuffer_height_ >>= 1;
-		}
+		frameTimeMeter_.reset();
+		resolutionController_.reset();
+		renderScale_ = 1.0f;
 
-		// Log.i("BL***", "framebuffer_width_=" + framebuffer_width_
-		// + " framebuffer_height_=" + framebuffer_height_);
+		// resuming with a preserved context keeps the targets and the trail
+		updateRenderTargetsIfNeeded();
 
-		updateTargetTexture(gl, target_texture_[0], framebuffer_width_,
-				framebuffer_height_);
-
-		if (!useOneFramebuffer_) {
-			updateTargetTexture(gl, target_texture_[1], framebuffer_width_,
-					framebuffer_height_);
-		}
-
-		target_texture_index_ = 0;
-		resetFramebuffers_ = true;
+		// textures were bound behind the state cache's back
+		stateCache_.invalidate();
 	}
 
 	@Override
 	public void onSurfaceCreated(GL10 gl, EGLConfig config) {
 		// Ignore the passed-in GL10 interface, and use the GLES20
 		// class's static methods instead.
+		forgetGLObjects();
+		useShared_ = shared_.isCurrentContextShared();
+		sharedGeneration_ = shared_.getGeneration();
+		if (programCache_ != null) {
+			programCache_.onContextCreated();
+		}
+		profiler_.onContextCreated();
+		line_geometry_ = shared_.getLineGeometry(lineSeed_, MAX_LINE_COUNT,
+				LINE_VERTEX_FORMAT);
+		chooseShaderVariant();
+		chooseFeedbackFormat();
+		boolean discardSupported = RenderPass.isDiscardSupported();
+		resetPass_ = new RenderPass("reset", discardSupported);
+		feedbackPass_ = new RenderPass("feedback", discardSupported);
+		screenPass_ = new RenderPass("screen", discardSupported);
+		blurPass_ = new RenderPass("blur", discardSupported);
 		setupQuadShader();
+		setupBlurShaders();
 		setupLinesShader();
-		setupFramebuffer(gl);
+		if (programCache_ != null) {
+			Log.i(TAG, "Program cache: " + programCache_);
+		}
+		setupVertexBuffers();
+		// render targets are acquired in onSurfaceChanged
 
 		Matrix.setLookAtM(V_matrix_, 0, 0, 0, 1.0f, 0f, 0f, 0f, 0f, -1.0f, 0.0f);
 		Matrix.orthoM(quad_matrix_, 0, 0, 1, 0, 1, -1, 1);
+
+		stateCache_.invalidate();
+	}
+
+	/*
+	 * Drops the names of all GL objects without deleting them. They belonged
+	 * to a context which is gone, and the same names may be handed out again
+	 * by the new one.
+	 */
+	private void forgetGLObjects() {
+		releaseSharedObjects();
+		program_ = 0;
+		line_program_ = 0;
+		blur_down_program_ = null;
+		blur_up_program_ = null;
+		quad_buffer_ = 0;
+		line_buffer_ = 0;
+		vertexBuffersActive_ = false;
+		for (int i = 0; i < feedback_targets_.length; ++i) {
+			feedback_targets_[i] = null;
+		}
+		for (int i = 0; i < blur_targets_.length; ++i) {
+			blur_targets_[i] = null;
+		}
+		targetPool_.forget();
+		profiler_.forget();
+	}
+
+	/*
+	 * Drops the references to shared objects without any GL calls, the
+	 * current context may not be the one they were acquired in.
+	 */
+	private void releaseSharedObjects() {
+		if (!useShared_) {
+			return;
+		}
+		int[] programs = { program_, line_program_,
+				blur_down_program_ != null ? blur_down_program_.program_ : 0,
+				blur_up_program_ != null ? blur_up_program_.program_ : 0 };
+		for (int i = 0; i < programs.length; ++i) {
+			shared_.release(SharedResources.TYPE_PROGRAM, programs[i],
+					sharedGeneration_);
+		}
+		shared_.release(SharedResources.TYPE_BUFFER, quad_buffer_,
+				sharedGeneration_);
+		shared_.release(SharedResources.TYPE_BUFFER, line_buffer_,
+				sharedGeneration_);
+		useShared_ = false;
+	}
+
+	private void renderBlurTexture(int textureIndex, boolean toScreen) {
+		float scale = target_scale_[textureIndex];
+		renderBlurTexture(feedback_targets_[textureIndex].getTexture(),
+				(int) (framebuffer_width_ * scale) / (float) framebuffer_width_,
+				(int) (framebuffer_height_ * scale)
+						/ (float) framebuffer_height_, toScreen);
+	}
+
+	/*
+	 * Draws the faded texture. texScale is the part of the texture that holds
+	 * the image.
+	 */
+	private void renderBlurTexture(int texture, float texScaleX,
+			float texScaleY, boolean toScreen) {
+		stateCache_.setBlend(false);
+		stateCache_.useProgram(program_);
+		checkGlErrorInFrame("glUseProgram");
+
+		stateCache_.activeTexture(GLES20.GL_TEXTURE0);
+		stateCache_.bindTexture(texture);
+		stateCache_.uniform1i(texture_loc_, 0);
+		stateCache_.uniform1f(blur_handle_, blur_ * blurFactor_);
+		// only the final blit is dithered, the feedback passes would
+		// accumulate the pattern
+		stateCache_.uniform1f(dither_handle_, toScreen ? dither_ : 0.0f);
+		// replaces the clear to the background color the quad used to be
+		// blended onto
+		stateCache_.uniform3f(background_handle_, backgroundColorRed_,
+				backgroundColorGreen_, backgroundColorBlue_);
+		stateCache_.uniform2f(tex_scale_handle_, texScaleX, texScaleY);
+		stateCache_.uniformMatrix4fv(MVP_matrix_handle_, quad_matrix_, 0);
+
+		drawQuad(position_handle_, texture_handle_);
 	}
 
-	private void renderBlurTexture(int textureIndex) {
-		GLES20.glUseProgram(program_);
-		checkGlError("glUseProgram");
+	/*
+	 * Downsamples the previous frame through the blur levels and upsamples it
+	 * back to the first (half resolution) level.
+	 */
+	private void renderBlurChain(int previousIndex, int levels) {
+		float scale = target_scale_[previousIndex];
+		int source = feedback_targets_[previousIndex].getTexture();
+		int sourceWidth = (int) (framebuffer_width_ * scale);
+		int sourceHeight = (int) (framebuffer_height_ * scale);
+		float texScaleX = sourceWidth / (float) framebuffer_width_;
+		float texScaleY = sourceHeight / (float) framebuffer_height_;
+
+		for (int i = 0; i < levels; ++i) {
+			profiler_.begin(GpuProfiler.SECTION_BLUR_DOWN + i);
+			RenderTarget target = blur_targets_[i];
+			blurPass_.begin(stateCache_, target.getFramebuffer(),
+					RenderPass.LOAD_DONT_CARE, target.width, target.height);
+			renderBlurStep(blur_down_program_, source, sourceWidth,
+					sourceHeight, texScaleX, texScaleY);
+			blurPass_.end();
+			source = target.getTexture();
+			sourceWidth = target.width;
+			sourceHeight = target.height;
+			texScaleX = 1.0f;
+			texScaleY = 1.0f;
+			profiler_.end(GpuProfiler.SECTION_BLUR_DOWN + i);
+		}
+		for (int i = levels - 2; i >= 0; --i) {
+			profiler_.begin(GpuProfiler.SECTION_BLUR_UP + i);
+			RenderTarget target = blur_targets_[i];
+			blurPass_.begin(stateCache_, target.getFramebuffer(),
+					RenderPass.LOAD_DONT_CARE, target.width, target.height);
+			renderBlurStep(blur_up_program_, source, sourceWidth,
+					sourceHeight, 1.0f, 1.0f);
+			blurPass_.end();
+			source = target.getTexture();
+			sourceWidth = target.width;
+			sourceHeight = target.height;
+			profiler_.end(GpuProfiler.SECTION_BLUR_UP + i);
+		}
+	}
 
-		GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D,
-				target_texture_[textureIndex]);
-		GLES20.glUniform1i(texture_loc_, 0);
-		GLES20.glUniform1f(blur_handle_, blur_ * blurFactor_);
+	private void renderBlurStep(BlurProgram program, int texture,
+			int textureWidth, int textureHeight, float texScaleX,
+			float texScaleY) {
+		stateCache_.setBlend(false);
+		stateCache_.useProgram(program.program_);
+		checkGlErrorInFrame("glUseProgram blur");
+
+		stateCache_.activeTexture(GLES20.GL_TEXTURE0);
+		stateCache_.bindTexture(texture);
+		stateCache_.uniform1i(program.texture_loc_, 0);
+		stateCache_.uniform2f(program.tex_scale_handle_, texScaleX, texScaleY);
+		// textures may be larger than the part in use, offsets are in texels
+		// of the whole texture
+		stateCache_.uniform2f(program.half_pixel_handle_, 0.5f
+				* texScaleX / textureWidth, 0.5f * texScaleY / textureHeight);
+		stateCache_.uniformMatrix4fv(program.MVP_matrix_handle_, quad_matrix_,
+				0);
+
+		drawQuad(program.position_handle_, program.texture_handle_);
+	}
 
-		triangle_vertices_.position(TRIANGLE_VERTICES_DATA_POS_OFFSET);
-		GLES20.glVertexAttribPointer(position_handle_, 3, GLES20.GL_FLOAT,
-				false, TRIANGLE_VERTICES_DATA_STRIDE_BYTES, triangle_vertices_);
-		checkGlError("glVertexAttribPointer maPosition");
+	private void drawQuad(int positionHandle, int textureHandle) {
+		if (vertexBuffersActive_) {
+			stateCache_.bindArrayBuffer(quad_buffer_);
+			stateCache_.vertexAttribPointer(positionHandle, 3,
+					GLES20.GL_FLOAT, false,
+					TRIANGLE_VERTICES_DATA_STRIDE_BYTES,
+					TRIANGLE_VERTICES_DATA_POS_OFFSET * FLOAT_SIZE_BYTES);
+		} else {
+			triangle_vertices_.position(TRIANGLE_VERTICES_DATA_POS_OFFSET);
+			stateCache_.vertexAttribPointer(positionHandle, 3,
+					GLES20.GL_FLOAT, false,
+					TRIANGLE_VERTICES_DATA_STRIDE_BYTES, triangle_vertices_);
+		}
+		checkGlErrorInFrame("glVertexAttribPointer maPosition");
 
-		GLES20.glEnableVertexAttribArray(position_handle_);
-		checkGlError("glEnableVertexAttribArray position_handle_");
+		stateCache_.enableVertexAttribArray(positionHandle);
+		checkGlErrorInFrame("glEnableVertexAttribArray positionHandle");
 
-		triangle_vertices_.position(TRIANGLE_VERTICES_DATA_UV_OFFSET);
-		GLES20.glVertexAttribPointer(texture_handle_, 2, GLES20.GL_FLOAT,
-				false, TRIANGLE_VERTICES_DATA_STRIDE_BYTES, triangle_vertices_);
-		checkGlError("glVertexAttribPointer texture_handle_");
-		GLES20.glEnableVertexAttribArray(texture_handle_);
-		checkGlError("glEnableVertexAttribArray texture_handle_");
+		if (vertexBuffersActive_) {
+			stateCache_.vertexAttribPointer(textureHandle, 2,
+					GLES20.GL_FLOAT, false,
+					TRIANGLE_VERTICES_DATA_STRIDE_BYTES,
+					TRIANGLE_VERTICES_DATA_UV_OFFSET * FLOAT_SIZE_BYTES);
+		} else {
+			triangle_vertices_.position(TRIANGLE_VERTICES_DATA_UV_OFFSET);
+			stateCache_.vertexAttribPointer(textureHandle, 2,
+					GLES20.GL_FLOAT, false,
+					TRIANGLE_VERTICES_DATA_STRIDE_BYTES, triangle_vertices_);
+		}
+		checkGlErrorInFrame("glVertexAttribPointer textureHandle");
+		stateCache_.enableVertexAttribArray(textureHandle);
+		checkGlErrorInFrame("glEnableVertexAttribArray textureHandle");
 
-		GLES20.glUniformMatrix4fv(MVP_matrix_handle_, 1, false, quad_matrix_, 0);
 		GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
-		checkGlError("glDrawArrays");
+		checkGlErrorInFrame("glDrawArrays");
 	}
 
 	private void renderLines() {
-		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
-		GLES20.glEnable(GLES20.GL_BLEND);
-		GLES20.glBlendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE);
+		stateCache_.bindTexture(0);
+		stateCache_.setBlend(true);
+		stateCache_.blendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE);
+
+		stateCache_.lineWidth(lineWidth_ * lineWidthFactor_);
+
+		stateCache_.useProgram(line_program_);
+		checkGlErrorInFrame("glUseProgram");
 
-		GLES20.glLineWidth(lineWidth_ * lineWidthFactor_);
+		if (vertexBuffersActive_) {
+			stateCache_.bindArrayBuffer(line_buffer_);
+			stateCache_.vertexAttribPointer(line_position_handle_, 3,
+					line_geometry_.getGLType(), line_geometry_.isNormalized(),
+					line_geometry_.getStride(), 0);
+		} else {
+			line_vertices_.position(0);
+			stateCache_.vertexAttribPointer(line_position_handle_, 3,
+					line_geometry_.getGLType(), line_geometry_.isNormalized(),
+					line_geometry_.getStride(), line_vertices_);
+		}
+		checkGlErrorInFrame("glVertexAttribPointer maPosition");
+		stateCache_.enableVertexAttribArray(line_position_handle_);
+		checkGlErrorInFrame("glEnableVertexAttribArray position_handle_");
 
-		GLES20.glUseProgram(line_program_);
-		checkGlError("glUseProgram");
+		updateLineTransform();
+
+		stateCache_.uniform1f(line_delta_handle_, delta);
+		stateCache_.uniform2f(line_position_z_handle_,
+				line_geometry_.getScaleZ(), line_geometry_.getBiasZ());
+		stateCache_.uniform1f(line_brightness_handle_, brightness_
+				* brightnessFactor_);
+		stateCache_.uniform3f(line_mColor_handle_, linesColorRed_,
+				linesColorGreen_, linesColorBlue_);
+		stateCache_.uniformMatrix4fv(line_MVP_matrix_handle_, MVP_matrix_, 0);
+		GLES20.glDrawArrays(GLES20.GL_LINES, 0, lineCount_);
+		checkGlErrorInFrame("glDrawArrays lines");
+	}
 
-		line_vertices_.position(0);
-		GLES20.glVertexAttribPointer(line_position_handle_, 3, GLES20.GL_FLOAT,
-				false, FLOAT_SIZE_BYTES * 3, line_vertices_);
-		checkGlError("glVertexAttribPointer maPosition");
-		GLES20.glEnableVertexAttribArray(line_position_handle_);
-		checkGlError("glEnableVertexAttribArray position_handle_");
+	GpuProfiler getProfiler() {
+		return profiler_;
+	}
 
+	/*
+	 * Rotates the lines and moves them in depth for the current time.
+	 * Package-private for the CPU benchmarks in tools/benchmark.
+	 */
+	void updateLineTransform() {
 		float angle2 = 360.0f * getTimeDeltaByScale((long) (1 * 50000L / speedFactor_ / rotationSpeedFactor_));
 		Matrix.setRotateM(M_matrix_, 0, angle2, 0, 0, 1.0f);
 		Matrix.multiplyMM(MVP_matrix_, 0, V_matrix_, 0, M_matrix_, 0);
 		Matrix.multiplyMM(MVP_matrix_, 0, proj_matrix_, 0, MVP_matrix_, 0);
 
 		delta = getTimeDeltaByScale((long) (1 * 25000L / speedFactor_));
+	}
 
-		GLES20.glUniform1f(line_delta_handle_, delta);
-		GLES20.glUniform1f(line_brightness_handle_, brightness_
-				* brightnessFactor_);
-		GLES20.glUniform3f(line_mColor_handle_, linesColorRed_,
-				linesColorGreen_, linesColorBlue_);
-		GLES20.glUniformMatrix4fv(line_MVP_matrix_handle_, 1, false,
-				MVP_matrix_, 0);
-		GLES20.glDrawArrays(GLES20.GL_LINES, 0, LINE_COUNT);
-		checkGlError("glDrawArrays lines");
+	private int createVertexBuffer(Buffer data, int size) {
+		int[] buffers = new int[1];
+		GLES20.glGenBuffers(1, buffers, 0);
+		checkGlError("glGenBuffers");
+		if (buffers[0] == 0) {
+			return 0;
+		}
+
+		data.position(0);
+		GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffers[0]);
+		GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, size, data,
+				GLES20.GL_STATIC_DRAW);
+		checkGlError("glBufferData");
+		GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+		return buffers[0];
 	}
 
-	private void setupFramebuffer(GL10 gl) {
-		if (target_texture_ != null) {
-			if (target_texture_[0] != 0) {
-				GLES20.glDeleteTextures(1, target_texture_, 0);
-				checkGlError("glDeleteTextures target_texture_ 0");
-			}
-			if (target_texture_[1] != 0) {
-				GLES20.glDeleteTextures(1, target_texture_, 1);
-				checkGlError("glDeleteTextures target_texture_ 1");
+	private int acquireVertexBuffer(String key, Buffer data, int size) {
+		if (!useShared_) {
+			return createVertexBuffer(data, size);
+		}
+		int buffer = shared_.acquire(key, SharedResources.TYPE_BUFFER);
+		if (buffer == 0) {
+			buffer = createVertexBuffer(data, size);
+			if (buffer != 0) {
+				shared_.add(key, SharedResources.TYPE_BUFFER, buffer);
 			}
 		}
+		return buffer;
+	}
 
-		if (framebuffer_ != null) {
-			if (framebuffer_[0] != 0) {
-				GLES20.glDeleteFramebuffers(1, framebuffer_, 0);
-				checkGlError("glDeleteFramebuffers framebuffer_ 0");
-			}
-			if (framebuffer_[1] != 0) {
-				GLES20.glDeleteFramebuffers(1, framebuffer_, 1);
-				checkGlError("glDeleteFramebuffers framebuffer_ 1");
-			}
+	private void releaseVertexBuffer(int buffer) {
+		if (!useShared_) {
+			GLES20.glDeleteBuffers(1, new int[] { buffer }, 0);
+			return;
 		}
+		shared_.release(SharedResources.TYPE_BUFFER, buffer, sharedGeneration_);
+		shared_.deletePending();
+	}
 
-		target_texture_ = new int[2];
-		target_texture_[0] = createTargetTexture(gl, framebuffer_width_,
-				framebuffer_height_);
-		if (target_texture_[0] == 0) {
-			Log.e(TAG, "Could not create render texture");
-			throw new RuntimeException("Could not create render texture");
+	private void setupVertexBuffers() {
+		// Release resources
+		vertexBuffersActive_ = false;
+		appliedUseClientArrays_ = useClientArrays_;
+		if (quad_buffer_ != 0) {
+			releaseVertexBuffer(quad_buffer_);
+			checkGlError("glDeleteBuffers quad_buffer_");
+			quad_buffer_ = 0;
 		}
-		if (!useOneFramebuffer_) {
-			target_texture_[1] = createTargetTexture(gl, framebuffer_width_,
-					framebuffer_height_);
-			if (target_texture_[1] == 0) {
-				Log.e(TAG, "Could not create second render texture");
-				throw new RuntimeException(
-						"Could not create second render texture");
+		if (line_buffer_ != 0) {
+			releaseVertexBuffer(line_buffer_);
+			checkGlError("glDeleteBuffers line_buffer_");
+			line_buffer_ = 0;
+		}
+
+		// Offset based glVertexAttribPointer is only available since
+		// Gingerbread. Older devices and broken drivers keep using client
+		// side arrays.
+		line_vertices_ = line_geometry_.getData();
+		if (useClientArrays_
+				|| Build.VERSION.SDK_INT < Build.VERSION_CODES.GINGERBREAD) {
+			return;
+		}
+
+		quad_buffer_ = acquireVertexBuffer("quad", triangle_vertices_,
+				triangle_vertices_.capacity() * FLOAT_SIZE_BYTES);
+		// the key names the geometry, so a new seed gets its own buffer
+		line_buffer_ = acquireVertexBuffer("lines:" + line_geometry_.seed
+				+ ":" + line_geometry_.format, line_vertices_,
+				line_geometry_.getByteSize());
+		if (quad_buffer_ == 0 || line_buffer_ == 0) {
+			Log.w(TAG, "Could not create vertex buffers, using client arrays");
+			return;
+		}
+		vertexBuffersActive_ = true;
+		// the seed rebuilds it if client arrays are needed again
+		line_vertices_ = null;
+		line_geometry_.releaseData();
+	}
+
+	private static String buildShaderVariant(String source, int variant) {
+		return new ShaderBuilder(source)
+				.define("COLOR_PRECISION",
+						(variant & SHADER_LOWP_COLOR) != 0 ? "lowp" : "mediump")
+				.define("BRANCH_FREE_WRAP",
+						(variant & SHADER_BRANCH_FREE_WRAP) != 0).build();
+	}
+
+	/*
+	 * Picks the shader variant for the current GPU. The color precision comes
+	 * from the probed precision formats, the line wrap is decided by timing
+	 * both vertex shaders. The result is kept as long as the GL_RENDERER
+	 * string stays the same.
+	 */
+	private void chooseShaderVariant() {
+		GpuCapabilities caps = GpuCapabilities.probe();
+		if (caps.renderer.equals(shaderVariantRenderer_)) {
+			return;
+		}
+
+		int variant = 0;
+		if (caps.isLowpColorExact()) {
+			variant |= SHADER_LOWP_COLOR;
+		}
+		long branchNanos = timeLineShader(variant);
+		long branchFreeNanos = timeLineShader(variant
+				| SHADER_BRANCH_FREE_WRAP);
+		if (branchFreeNanos <= branchNanos * (1 + SHADER_TIMING_TOLERANCE)) {
+			variant |= SHADER_BRANCH_FREE_WRAP;
+		}
+
+		Log.i(TAG, "Shader variant " + variant + " for " + caps
+				+ " (branch " + branchNanos / 1000 + "us, branch-free "
+				+ branchFreeNanos / 1000 + "us)");
+		shaderVariant_ = variant;
+		shaderVariantRenderer_ = caps.renderer;
+	}
+
+	/*
+	 * Draws all lines a few times with the given line shader variant into
+	 * the current framebuffer, which is overwritten by the first frame anyway.
+	 * Returns Long.MAX_VALUE if the variant does not compile.
+	 */
+	private long timeLineShader(int variant) {
+		int program = createProgram(
+				buildShaderVariant(line_vertex_shader_, variant),
+				buildShaderVariant(line_fragment_shader_, variant));
+		if (program == 0) {
+			return Long.MAX_VALUE;
+		}
+		int position = GLES20.glGetAttribLocation(program, "aPosition");
+		float[] identity = new float[16];
+		Matrix.setIdentityM(identity, 0);
+
+		GLES20.glUseProgram(program);
+		GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+		GLES20.glVertexAttribPointer(position, 3, line_geometry_.getGLType(),
+				line_geometry_.isNormalized(), line_geometry_.getStride(),
+				line_geometry_.getData());
+		GLES20.glEnableVertexAttribArray(position);
+		GLES20.glUniformMatrix4fv(
+				GLES20.glGetUniformLocation(program, "uMVPMatrix"), 1, false,
+				identity, 0);
+		GLES20.glUniform1f(GLES20.glGetUniformLocation(program, "delta"),
+				0.5f);
+		GLES20.glUniform2f(GLES20.glGetUniformLocation(program, "uPositionZ"),
+				line_geometry_.getScaleZ(), line_geometry_.getBiasZ());
+
+		// first draw includes the driver's lazy shader setup
+		GLES20.glDrawArrays(GLES20.GL_LINES, 0, MAX_LINE_COUNT);
+		GLES20.glFinish();
+		long start = System.nanoTime();
+		for (int i = 0; i < SHADER_TIMING_DRAWS; ++i) {
+			GLES20.glDrawArrays(GLES20.GL_LINES, 0, MAX_LINE_COUNT);
+		}
+		GLES20.glFinish();
+		long nanos = System.nanoTime() - start;
+
+		GLES20.glDisableVertexAttribArray(position);
+		GLES20.glUseProgram(0);
+		GLES20.glDeleteProgram(program);
+		checkGlError("timeLineShader");
+		return nanos;
+	}
+
+	/*
+	 * Falls back to RGBA8888 if the driver lacks the extensions for the
+	 * requested format or cannot render to it, and sets the dither amplitude
+	 * to one step of the least precise of the feedback and window formats.
+	 * Must run while the window surface is bound.
+	 */
+	private void chooseFeedbackFormat() {
+		int format = feedbackFormat_;
+		appliedFeedbackFormat_ = feedbackFormat_;
+		if (!FeedbackFormat.hasExtensions(format,
+				GLES20.glGetString(GLES20.GL_EXTENSIONS))
+				|| !isRenderableFeedbackFormat(format)) {
+			Log.w(TAG, "Feedback format " + FeedbackFormat.toString(format)
+					+ " not supported, using rgba8888");
+			format = FeedbackFormat.RGBA8888;
+		}
+		activeFeedbackFormat_ = format;
+
+		int[] bits = new int[3];
+		GLES20.glGetIntegerv(GLES20.GL_RED_BITS, bits, 0);
+		GLES20.glGetIntegerv(GLES20.GL_GREEN_BITS, bits, 1);
+		GLES20.glGetIntegerv(GLES20.GL_BLUE_BITS, bits, 2);
+		int ditherBits = FeedbackFormat.getColorBits(format);
+		for (int i = 0; i < 3; ++i) {
+			if (bits[i] > 0) {
+				ditherBits = Math.min(ditherBits, bits[i]);
 			}
 		}
+		dither_ = 1.0f / ((1 << ditherBits) - 1);
 
-		framebuffer_ = new int[2];
-		framebuffer_[0] = createFrameBuffer(gl, framebuffer_width_,
-				framebuffer_height_, target_texture_[0]);
-		if (framebuffer_[0] == 0) {
-			Log.e(TAG, "Could not create frame buffer");
-			throw new RuntimeException("Could not create frame buffer");
+		// lowp would throw away the extra precision of half floats
+		quadShaderVariant_ = shaderVariant_;
+		if (format == FeedbackFormat.HALF_FLOAT) {
+			quadShaderVariant_ &= ~SHADER_LOWP_COLOR;
 		}
+		checkGlError("chooseFeedbackFormat");
+	}
 
-		if (!useOneFramebuffer_) {
-			framebuffer_[1] = createFrameBuffer(gl, framebuffer_width_,
-					framebuffer_height_, target_texture_[1]);
-			if (framebuffer_[0] == 0) {
-				Log.e(TAG, "Could not create second frame buffer");
-				throw new RuntimeException(
-						"Could not create second frame buffer");
+	private boolean isRenderableFeedbackFormat(int format) {
+		if (format == FeedbackFormat.RGBA8888) {
+			return true;
+		}
+		int[] texture = new int[1];
+		int[] framebuffer = new int[1];
+		GLES20.glGenTextures(1, texture, 0);
+		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture[0]);
+		GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0,
+				FeedbackFormat.getGLFormat(format), 4, 4, 0,
+				FeedbackFormat.getGLFormat(format),
+				FeedbackFormat.getGLType(format), null);
+		GLES20.glGenFramebuffers(1, framebuffer, 0);
+		GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebuffer[0]);
+		GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER,
+				GLES20.GL_COLOR_ATTACHMENT0, GLES20.GL_TEXTURE_2D,
+				texture[0], 0);
+		boolean complete = GLES20.glGetError() == GLES20.GL_NO_ERROR
+				&& GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER)
+						== GLES20.GL_FRAMEBUFFER_COMPLETE;
+		GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+		GLES20.glDeleteFramebuffers(1, framebuffer, 0);
+		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+		GLES20.glDeleteTextures(1, texture, 0);
+		return complete;
+	}
+
+	/*
+	 * Derives the feedback framebuffer size from the surface size and the
+	 * texture compatibility settings.
+	 */
+	private void updateFramebufferSize() {
+		if (!useNonPowerOfTwoTextures_) {
+			// lets make framebuffer have power of 2 dimension
+			// and it should be less then display size
+			framebuffer_width_ = 1 << (int) (Math.log(surface_width_)
+					/ Math.log(2));
+			if (framebuffer_width_ == surface_width_)
+				framebuffer_width_ >>= 1;
+			framebuffer_height_ = 1 << (int) (Math.log(surface_height_)
+					/ Math.log(2));
+			if (framebuffer_height_ == surface_height_)
+				framebuffer_height_ >>= 1;
+		} else {
+			framebuffer_width_ = surface_width_;
+			framebuffer_height_ = surface_height_;
+		}
+
+		if (!useNonSquareTextures_) {
+			// http://code.google.com/p/android/issues/detail?id=14835
+			// The size of the FBO should have square size.
+			if (framebuffer_height_ > framebuffer_width_) {
+				framebuffer_width_ = framebuffer_height_;
+			} else if (framebuffer_width_ > framebuffer_height_) {
+				framebuffer_height_ = framebuffer_width_;
 			}
 		}
+
+		if (useSmallerTextures_) {
+			framebuffer_width_ >>= 1;
+			framebuffer_height_ >>= 1;
+		}
+	}
+
+	/*
+	 * Acquires new feedback targets, and starts a new trail, if the current
+	 * ones do not match the framebuffer size, format or count.
+	 */
+	private void updateRenderTargetsIfNeeded() {
+		if (hasRenderTargets()) {
+			return;
+		}
+		updateRenderTargets();
+		target_texture_index_ = 0;
+		resetFramebuffers_ = true;
+		target_scale_[0] = 1.0f;
+		target_scale_[1] = 1.0f;
+	}
+
+	private boolean hasRenderTargets() {
+		RenderTarget target = feedback_targets_[0];
+		if (target == null || target.width != framebuffer_width_
+				|| target.height != framebuffer_height_
+				|| target.format != activeFeedbackFormat_) {
+			return false;
+		}
+		return (feedback_targets_[1] == null) == useOneFramebuffer_;
+	}
+
+	/*
+	 * Swaps the feedback and blur targets for ones of the current framebuffer
+	 * size. All old targets go back to the pool first, so sizes seen before
+	 * are reused. The pool is trimmed only once the new set is acquired, its
+	 * cap is relative to that set.
+	 */
+	private void updateRenderTargets() {
+		for (int i = 0; i < feedback_targets_.length; ++i) {
+			targetPool_.recycle(feedback_targets_[i]);
+			feedback_targets_[i] = null;
+		}
+		for (int i = 0; i < blur_targets_.length; ++i) {
+			targetPool_.recycle(blur_targets_[i]);
+			blur_targets_[i] = null;
+		}
+
+		int count = useOneFramebuffer_ ? 1 : 2;
+		for (int i = 0; i < count; ++i) {
+			feedback_targets_[i] = targetPool_.acquire(framebuffer_width_,
+					framebuffer_height_, activeFeedbackFormat_);
+		}
+		for (int i = 0; i < blur_targets_.length; ++i) {
+			blur_targets_[i] = targetPool_.acquire(
+					Math.max(1, framebuffer_width_ >> (i + 1)),
+					Math.max(1, framebuffer_height_ >> (i + 1)),
+					activeFeedbackFormat_);
+		}
+		targetPool_.trim();
+		checkGlError("updateRenderTargets");
+		if (DEBUG) {
+			Log.d(TAG, "Render target pool: " + targetPool_);
+		}
+	}
+
+	private void setupBlurShaders() {
+		// Release resources
+		if (blur_down_program_ != null) {
+			releaseProgram(blur_down_program_.program_);
+			checkGlError("glDeleteProgram blur_down_program_");
+		}
+		if (blur_up_program_ != null) {
+			releaseProgram(blur_up_program_.program_);
+			checkGlError("glDeleteProgram blur_up_program_");
+		}
+
+		blur_down_program_ = createBlurProgram(blur_down_fragment_shader_);
+		blur_up_program_ = createBlurProgram(blur_up_fragment_shader_);
+	}
+
+	private BlurProgram createBlurProgram(String fragmentSource) {
+		BlurProgram program = new BlurProgram();
+		program.program_ = acquireProgram(
+				buildShaderVariant(vertex_shader_, quadShaderVariant_),
+				buildShaderVariant(fragmentSource, quadShaderVariant_));
+		if (program.program_ == 0) {
+			throw new RuntimeException("Blur shader compilation failed");
+		}
+		program.position_handle_ = getAttribLocation(program.program_,
+				"aPosition");
+		program.texture_handle_ = getAttribLocation(program.program_,
+				"aTextureCoord");
+		program.MVP_matrix_handle_ = getUniformLocation(program.program_,
+				"uMVPMatrix");
+		program.tex_scale_handle_ = getUniformLocation(program.program_,
+				"uTexScale");
+		program.half_pixel_handle_ = getUniformLocation(program.program_,
+				"uHalfPixel");
+		program.texture_loc_ = getUniformLocation(program.program_,
+				"sTexture");
+		return program;
+	}
+
+	private int getAttribLocation(int program, String name) {
+		int location = GLES20.glGetAttribLocation(program, name);
+		checkGlError("glGetAttribLocation " + name);
+		if (location == -1) {
+			throw new RuntimeException("Could not get attrib location for "
+					+ name);
+		}
+		return location;
+	}
+
+	private int getUniformLocation(int program, String name) {
+		int location = GLES20.glGetUniformLocation(program, name);
+		checkGlError("glGetUniformLocation " + name);
+		if (location == -1) {
+			throw new RuntimeException("Could not get attrib location for "
+					+ name);
+		}
+		return location;
 	}
 
 	private void setupLinesShader() {
 		// Release resources
 		if (line_program_ != 0) {
-			GLES20.glDeleteProgram(line_program_);
+			releaseProgram(line_program_);
 			checkGlError("glDeleteProgram line_program_");
 		}
 
-		line_program_ = createProgram(line_vertex_shader_,
-				line_fragment_shader_);
+		line_program_ = acquireProgram(
+				buildShaderVariant(line_vertex_shader_, shaderVariant_),
+				buildShaderVariant(line_fragment_shader_, shaderVariant_));
 		if (line_program_ == 0) {
 			throw new RuntimeException("Line shader compilation failed");
 
@@ -665,16 +1585,26 @@ public class GLES20LinesRenderer implements GLWallpaperService.Renderer {
 			throw new RuntimeException(
 					"Could not get attrib location for uMVPMatrix");
 		}
+
+		line_position_z_handle_ = GLES20.glGetUniformLocation(line_program_,
+				"uPositionZ");
+		checkGlError("glGetUniformLocation uPositionZ");
+		if (line_position_z_handle_ == -1) {
+			throw new RuntimeException(
+					"Could not get attrib location for uPositionZ");
+		}
 	}
 
 	private void setupQuadShader() {
 		// Release resources
 		if (program_ != 0) {
-			GLES20.glDeleteProgram(program_);
+			releaseProgram(program_);
 			checkGlError("glDeleteProgram program_");
 		}
 
-		program_ = createProgram(vertex_shader_, fragment_shader_);
+		program_ = acquireProgram(
+				buildShaderVariant(vertex_shader_, quadShaderVariant_),
+				buildShaderVariant(fragment_shader_, quadShaderVariant_));
 		if (program_ == 0) {
 			throw new RuntimeException("Quad shader compilation failed");
 		}
@@ -704,15 +1634,28 @@ public class GLES20LinesRenderer implements GLWallpaperService.Renderer {
 		if (blur_handle_ == -1) {
 			throw new RuntimeException("Could not get attrib location for blur");
 		}
-	}
 
-	private void updateTargetTexture(GL10 gl, int texture, int width, int height) {
-		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
-		GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, width,
-				height, 0, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
-		GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
-				GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
-		GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
-				GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+		dither_handle_ = GLES20.glGetUniformLocation(program_, "uDither");
+		checkGlError("glGetUniformLocation uDither");
+		if (dither_handle_ == -1) {
+			throw new RuntimeException(
+					"Could not get attrib location for uDither");
+		}
+
+		background_handle_ = GLES20.glGetUniformLocation(program_,
+				"uBackground");
+		checkGlError("glGetUniformLocation uBackground");
+		if (background_handle_ == -1) {
+			throw new RuntimeException(
+					"Could not get attrib location for uBackground");
+		}
+
+		tex_scale_handle_ = GLES20.glGetUniformLocation(program_, "uTexScale");
+		checkGlError("glGetUniformLocation uTexScale");
+		if (tex_scale_handle_ == -1) {
+			throw new RuntimeException(
+					"Could not get attrib location for uTexScale");
+		}
 	}
+
 }
@@ -0,0 +1,65 @@
+package cxa.lineswallpaper;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+/**
+ * glGetError policy. Every glGetError call may stall the pipeline on tiled
+ * GPUs, so the frame loop only checks for errors once per frame unless
+ * per-call checking is switched on to find the failing call.
+ */
+class GLErrorChecker {
+	/** Never check for errors. */
+	public static final int MODE_OFF = 0;
+	/** Check once after each frame and after resource setup calls. */
+	public static final int MODE_PER_FRAME = 1;
+	/** Check after every GL call, including the ones in the frame loop. */
+	public static final int MODE_PER_CALL = 2;
+
+	private final String tag_;
+	private int mode_;
+
+	public GLErrorChecker(String tag, int mode) {
+		tag_ = tag;
+		setMode(mode);
+	}
+
+	public void setMode(int mode) {
+		if (mode < MODE_OFF || mode > MODE_PER_CALL) {
+			throw new IllegalArgumentException("mode");
+		}
+		mode_ = mode;
+	}
+
+	public int getMode() {
+		return mode_;
+	}
+
+	/**
+	 * Checks after a call inside the frame loop. Only does work in
+	 * {@link #MODE_PER_CALL}.
+	 */
+	public void checkCall(String op) {
+		if (mode_ == MODE_PER_CALL) {
+			throwOnError(op);
+		}
+	}
+
+	/**
+	 * Checks at the end of a frame or after a setup call. Does work in every
+	 * mode except {@link #MODE_OFF}.
+	 */
+	public void check(String op) {
+		if (mode_ != MODE_OFF) {
+			throwOnError(op);
+		}
+	}
+
+	private void throwOnError(String op) {
+		int error;
+		while ((error = GLES20.glGetError()) != GLES20.GL_NO_ERROR) {
+			Log.e(tag_, op + ": glError " + error);
+			throw new RuntimeException(op + ": glError " + error);
+		}
+	}
+}
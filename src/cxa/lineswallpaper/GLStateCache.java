@@ -0,0 +1,410 @@
+package cxa.lineswallpaper;
+
+import java.nio.Buffer;
+
+import android.opengl.GLES20;
+
+/**
+ * Shadow copy of the GL state touched by the frame loop. Calls which would
+ * leave the driver state unchanged are dropped and counted instead.
+ *
+ * The cache only knows about calls made through it, so it has to be
+ * invalidated whenever GL state is changed behind its back (resource setup,
+ * new context).
+ */
+class GLStateCache {
+	private static final int MAX_VERTEX_ATTRIBS = 8;
+	private static final int MAX_TEXTURE_UNITS = 2;
+
+	private static final int UNKNOWN = -1;
+
+	private static class ProgramState {
+		int program_;
+		int count_ = 0;
+		int[] locations_ = new int[8];
+		float[][] values_ = new float[8][];
+
+		ProgramState(int program) {
+			program_ = program;
+		}
+
+		float[] values(int location) {
+			for (int i = 0; i < count_; ++i) {
+				if (locations_[i] == location) {
+					return values_[i];
+				}
+			}
+			return null;
+		}
+
+		float[] add(int location, int size) {
+			if (count_ == locations_.length) {
+				int[] locations = new int[count_ * 2];
+				float[][] values = new float[count_ * 2][];
+				System.arraycopy(locations_, 0, locations, 0, count_);
+				System.arraycopy(values_, 0, values, 0, count_);
+				locations_ = locations;
+				values_ = values;
+			}
+			locations_[count_] = location;
+			values_[count_] = new float[size];
+			return values_[count_++];
+		}
+	}
+
+	private int program_;
+	private ProgramState programState_;
+	private ProgramState[] programStates_ = new ProgramState[4];
+	private int programStateCount_ = 0;
+
+	private int framebuffer_;
+	private int arrayBuffer_;
+	private int activeTexture_;
+	private int[] textures_ = new int[MAX_TEXTURE_UNITS];
+
+	private int blend_;
+	private int blendSrc_;
+	private int blendDst_;
+	private float lineWidth_;
+
+	private final float[] clearColor_ = new float[4];
+	private boolean clearColorValid_;
+	private final int[] viewport_ = new int[4];
+	private boolean viewportValid_;
+
+	private final boolean[] attribEnabled_ = new boolean[MAX_VERTEX_ATTRIBS];
+	private final boolean[] attribKnown_ = new boolean[MAX_VERTEX_ATTRIBS];
+	private final int[][] attribPointers_ = new int[MAX_VERTEX_ATTRIBS][6];
+	private final boolean[] attribPointerValid_ = new boolean[MAX_VERTEX_ATTRIBS];
+
+	private int savedCalls_ = 0;
+	private int lastFrameSavedCalls_ = 0;
+	private long totalSavedCalls_ = 0;
+
+	public GLStateCache() {
+		invalidate();
+	}
+
+	/**
+	 * Forgets all cached state. Must be called after a new context is
+	 * created or when GL state was changed without going through the cache.
+	 */
+	public void invalidate() {
+		program_ = UNKNOWN;
+		programState_ = null;
+		for (int i = 0; i < programStateCount_; ++i) {
+			programStates_[i] = null;
+		}
+		programStateCount_ = 0;
+
+		framebuffer_ = UNKNOWN;
+		arrayBuffer_ = UNKNOWN;
+		activeTexture_ = UNKNOWN;
+		for (int i = 0; i < MAX_TEXTURE_UNITS; ++i) {
+			textures_[i] = UNKNOWN;
+		}
+
+		blend_ = UNKNOWN;
+		blendSrc_ = UNKNOWN;
+		blendDst_ = UNKNOWN;
+		lineWidth_ = UNKNOWN;
+
+		clearColorValid_ = false;
+		viewportValid_ = false;
+
+		for (int i = 0; i < MAX_VERTEX_ATTRIBS; ++i) {
+			attribKnown_[i] = false;
+			attribPointerValid_[i] = false;
+		}
+	}
+
+	/**
+	 * Starts counting saved calls for a new frame.
+	 */
+	public void beginFrame() {
+		lastFrameSavedCalls_ = savedCalls_;
+		totalSavedCalls_ += savedCalls_;
+		savedCalls_ = 0;
+	}
+
+	/**
+	 * @return number of GL calls dropped during the last complete frame.
+	 */
+	public int getLastFrameSavedCalls() {
+		return lastFrameSavedCalls_;
+	}
+
+	/**
+	 * @return number of GL calls dropped since the cache was created.
+	 */
+	public long getTotalSavedCalls() {
+		return totalSavedCalls_ + savedCalls_;
+	}
+
+	public void useProgram(int program) {
+		if (program_ == program) {
+			++savedCalls_;
+			return;
+		}
+		GLES20.glUseProgram(program);
+		program_ = program;
+		programState_ = findProgramState(program);
+	}
+
+	public void bindFramebuffer(int framebuffer) {
+		if (framebuffer_ == framebuffer) {
+			++savedCalls_;
+			return;
+		}
+		GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebuffer);
+		framebuffer_ = framebuffer;
+	}
+
+	public void bindArrayBuffer(int buffer) {
+		if (arrayBuffer_ == buffer) {
+			++savedCalls_;
+			return;
+		}
+		GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffer);
+		arrayBuffer_ = buffer;
+	}
+
+	public void activeTexture(int unit) {
+		if (activeTexture_ == unit) {
+			++savedCalls_;
+			return;
+		}
+		GLES20.glActiveTexture(unit);
+		activeTexture_ = unit;
+	}
+
+	public void bindTexture(int texture) {
+		int unit = activeTexture_ - GLES20.GL_TEXTURE0;
+		if (unit >= 0 && unit < MAX_TEXTURE_UNITS) {
+			if (textures_[unit] == texture) {
+				++savedCalls_;
+				return;
+			}
+			textures_[unit] = texture;
+		}
+		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+	}
+
+	public void setBlend(boolean enabled) {
+		int blend = enabled ? 1 : 0;
+		if (blend_ == blend) {
+			++savedCalls_;
+			return;
+		}
+		if (enabled) {
+			GLES20.glEnable(GLES20.GL_BLEND);
+		} else {
+			GLES20.glDisable(GLES20.GL_BLEND);
+		}
+		blend_ = blend;
+	}
+
+	public void blendFunc(int src, int dst) {
+		if (blendSrc_ == src && blendDst_ == dst) {
+			++savedCalls_;
+			return;
+		}
+		GLES20.glBlendFunc(src, dst);
+		blendSrc_ = src;
+		blendDst_ = dst;
+	}
+
+	public void lineWidth(float width) {
+		if (lineWidth_ == width) {
+			++savedCalls_;
+			return;
+		}
+		GLES20.glLineWidth(width);
+		lineWidth_ = width;
+	}
+
+	public void clearColor(float r, float g, float b, float a) {
+		if (clearColorValid_ && clearColor_[0] == r && clearColor_[1] == g
+				&& clearColor_[2] == b && clearColor_[3] == a) {
+			++savedCalls_;
+			return;
+		}
+		GLES20.glClearColor(r, g, b, a);
+		clearColor_[0] = r;
+		clearColor_[1] = g;
+		clearColor_[2] = b;
+		clearColor_[3] = a;
+		clearColorValid_ = true;
+	}
+
+	public void viewport(int x, int y, int width, int height) {
+		if (viewportValid_ && viewport_[0] == x && viewport_[1] == y
+				&& viewport_[2] == width && viewport_[3] == height) {
+			++savedCalls_;
+			return;
+		}
+		GLES20.glViewport(x, y, width, height);
+		viewport_[0] = x;
+		viewport_[1] = y;
+		viewport_[2] = width;
+		viewport_[3] = height;
+		viewportValid_ = true;
+	}
+
+	public void enableVertexAttribArray(int index) {
+		if (index >= 0 && index < MAX_VERTEX_ATTRIBS) {
+			if (attribKnown_[index] && attribEnabled_[index]) {
+				++savedCalls_;
+				return;
+			}
+			attribKnown_[index] = true;
+			attribEnabled_[index] = true;
+		}
+		GLES20.glEnableVertexAttribArray(index);
+	}
+
+	/**
+	 * Buffer object variant of glVertexAttribPointer. The pointer is bound to
+	 * the array buffer selected with {@link #bindArrayBuffer(int)}.
+	 */
+	public void vertexAttribPointer(int index, int size, int type,
+			boolean normalized, int stride, int offset) {
+		if (index >= 0 && index < MAX_VERTEX_ATTRIBS) {
+			int[] pointer = attribPointers_[index];
+			int normalizedInt = normalized ? 1 : 0;
+			if (attribPointerValid_[index] && pointer[0] == arrayBuffer_
+					&& pointer[1] == size && pointer[2] == type
+					&& pointer[3] == normalizedInt && pointer[4] == stride
+					&& pointer[5] == offset) {
+				++savedCalls_;
+				return;
+			}
+			pointer[0] = arrayBuffer_;
+			pointer[1] = size;
+			pointer[2] = type;
+			pointer[3] = normalizedInt;
+			pointer[4] = stride;
+			pointer[5] = offset;
+			attribPointerValid_[index] = arrayBuffer_ != UNKNOWN;
+		}
+		GLES20.glVertexAttribPointer(index, size, type, normalized, stride,
+				offset);
+	}
+
+	/**
+	 * Client array variant of glVertexAttribPointer. Client memory may change
+	 * between calls, so this is never dropped.
+	 */
+	public void vertexAttribPointer(int index, int size, int type,
+			boolean normalized, int stride, Buffer data) {
+		if (index >= 0 && index < MAX_VERTEX_ATTRIBS) {
+			attribPointerValid_[index] = false;
+		}
+		GLES20.glVertexAttribPointer(index, size, type, normalized, stride,
+				data);
+	}
+
+	public void uniform1i(int location, int value) {
+		float[] values = uniformValues(location, 1);
+		if (values != null) {
+			if (values[1] != 0 && values[0] == value) {
+				++savedCalls_;
+				return;
+			}
+			values[0] = value;
+			values[1] = 1;
+		}
+		GLES20.glUniform1i(location, value);
+	}
+
+	public void uniform1f(int location, float value) {
+		float[] values = uniformValues(location, 1);
+		if (values != null) {
+			if (values[1] != 0 && values[0] == value) {
+				++savedCalls_;
+				return;
+			}
+			values[0] = value;
+			values[1] = 1;
+		}
+		GLES20.glUniform1f(location, value);
+	}
+
+	public void uniform2f(int location, float x, float y) {
+		float[] values = uniformValues(location, 2);
+		if (values != null) {
+			if (values[2] != 0 && values[0] == x && values[1] == y) {
+				++savedCalls_;
+				return;
+			}
+			values[0] = x;
+			values[1] = y;
+			values[2] = 1;
+		}
+		GLES20.glUniform2f(location, x, y);
+	}
+
+	public void uniform3f(int location, float x, float y, float z) {
+		float[] values = uniformValues(location, 3);
+		if (values != null) {
+			if (values[3] != 0 && values[0] == x && values[1] == y
+					&& values[2] == z) {
+				++savedCalls_;
+				return;
+			}
+			values[0] = x;
+			values[1] = y;
+			values[2] = z;
+			values[3] = 1;
+		}
+		GLES20.glUniform3f(location, x, y, z);
+	}
+
+	public void uniformMatrix4fv(int location, float[] matrix, int offset) {
+		float[] values = uniformValues(location, 16);
+		if (values != null) {
+			boolean same = values[16] != 0;
+			for (int i = 0; same && i < 16; ++i) {
+				same = values[i] == matrix[offset + i];
+			}
+			if (same) {
+				++savedCalls_;
+				return;
+			}
+			System.arraycopy(matrix, offset, values, 0, 16);
+			values[16] = 1;
+		}
+		GLES20.glUniformMatrix4fv(location, 1, false, matrix, offset);
+	}
+
+	/*
+	 * Returns the cached values of a uniform of the current program. The
+	 * element after the value itself tells whether the value is valid.
+	 */
+	private float[] uniformValues(int location, int size) {
+		if (programState_ == null || location == -1) {
+			return null;
+		}
+		float[] values = programState_.values(location);
+		if (values == null) {
+			values = programState_.add(location, size + 1);
+		}
+		return values;
+	}
+
+	private ProgramState findProgramState(int program) {
+		for (int i = 0; i < programStateCount_; ++i) {
+			if (programStates_[i].program_ == program) {
+				return programStates_[i];
+			}
+		}
+		if (programStateCount_ == programStates_.length) {
+			ProgramState[] states = new ProgramState[programStateCount_ * 2];
+			System.arraycopy(programStates_, 0, states, 0, programStateCount_);
+			programStates_ = states;
+		}
+		ProgramState state = new ProgramState(program);
+		programStates_[programStateCount_++] = state;
+		return state;
+	}
+}
@@ -0,0 +1,64 @@
+package cxa.lineswallpaper;
+
+import android.opengl.GLES20;
+
+/**
+ * Capabilities of the current context which decide the shader variant.
+ * Must be probed on the GL thread.
+ */
+class GpuCapabilities {
+	public final String renderer;
+	public final String version;
+	/** log2 of the relative precision of fragment lowp float, 0 if unknown */
+	public final int fragmentLowpBits;
+	/** log2 of the largest fragment lowp float magnitude, 0 if unknown */
+	public final int fragmentLowpRange;
+	/** log2 of the relative precision of fragment mediump float */
+	public final int fragmentMediumpBits;
+
+	private GpuCapabilities(String renderer, String version,
+			int[] fragmentLowp, int[] fragmentMediump) {
+		this.renderer = renderer != null ? renderer : "";
+		this.version = version != null ? version : "";
+		this.fragmentLowpBits = fragmentLowp[0];
+		this.fragmentLowpRange = fragmentLowp[1];
+		this.fragmentMediumpBits = fragmentMediump[0];
+	}
+
+	public static GpuCapabilities probe() {
+		return new GpuCapabilities(GLES20.glGetString(GLES20.GL_RENDERER),
+				GLES20.glGetString(GLES20.GL_VERSION),
+				precisionFormat(GLES20.GL_LOW_FLOAT),
+				precisionFormat(GLES20.GL_MEDIUM_FLOAT));
+	}
+
+	/**
+	 * lowp is good enough for colors written to an 8 bit per channel target
+	 * if it has at least 8 bits of precision and can hold values up to 2.
+	 */
+	public boolean isLowpColorExact() {
+		return fragmentLowpBits >= 8 && fragmentLowpRange >= 1;
+	}
+
+	@Override
+	public String toString() {
+		return renderer + " / " + version + " lowp=" + fragmentLowpBits
+				+ "/2^" + fragmentLowpRange + " mediump="
+				+ fragmentMediumpBits;
+	}
+
+	/*
+	 * @return the precision bits and log2 of the largest magnitude, both 0
+	 *         if the query fails.
+	 */
+	private static int[] precisionFormat(int precisionType) {
+		int[] range = new int[2];
+		int[] precision = new int[1];
+		GLES20.glGetShaderPrecisionFormat(GLES20.GL_FRAGMENT_SHADER,
+				precisionType, range, 0, precision, 0);
+		if (GLES20.glGetError() != GLES20.GL_NO_ERROR) {
+			return new int[] { 0, 0 };
+		}
+		return new int[] { precision[0], range[1] };
+	}
+}
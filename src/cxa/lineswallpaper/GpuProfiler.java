@@ -0,0 +1,276 @@
+package cxa.lineswallpaper;
+
+import java.util.ArrayList;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * GPU time per render pass, collected into one {@link TimingHistogram} per
+ * section. Each blur level has a section for its down and one for its up
+ * pass, timer queries cannot be nested, so there is no section for the whole
+ * chain.
+ *
+ * Where EXT_disjoint_timer_query is available each section is wrapped in a
+ * GL_TIME_ELAPSED_EXT query. Results are read back a few frames later so the
+ * pipeline never stalls. There are no Java bindings for the EXT entry points,
+ * so the ES 3.0 query functions are used with the extension's target, which
+ * needs an ES 3 context. The debug mode times sections on the CPU between
+ * two glFinish calls instead, which works everywhere but serializes the GPU.
+ *
+ * All methods except {@link #getReport()} must be called on the GL thread.
+ */
+class GpuProfiler {
+	private static String TAG = "GpuProfiler";
+
+	public static final int MODE_OFF = 0;
+	/** Timer queries, off if the driver does not support them. */
+	public static final int MODE_TIMER_QUERY = 1;
+	/** glFinish around each section. Debugging only, stalls the GPU. */
+	public static final int MODE_FINISH = 2;
+
+	/** Blur levels with sections of their own. */
+	public static final int BLUR_LEVELS = 2;
+	/** First of the down pass sections, plus the blur level. */
+	public static final int SECTION_BLUR_DOWN = 0;
+	/** First of the up pass sections, plus the target blur level. */
+	public static final int SECTION_BLUR_UP = SECTION_BLUR_DOWN + BLUR_LEVELS;
+	public static final int SECTION_FEEDBACK = SECTION_BLUR_UP + BLUR_LEVELS;
+	public static final int SECTION_LINES = SECTION_FEEDBACK + 1;
+	public static final int SECTION_SCREEN = SECTION_LINES + 1;
+	public static final int SECTION_COUNT = SECTION_SCREEN + 1;
+
+	private static final String[] SECTION_NAMES = { "blur_down0",
+			"blur_down1", "blur_up0", "blur_up1", "feedback", "lines",
+			"screen" };
+	private static final String[] MODE_NAMES = { "off", "timer", "finish" };
+
+	// from EXT_disjoint_timer_query
+	private static final int GL_TIME_ELAPSED_EXT = 0x88BF;
+	private static final int GL_GPU_DISJOINT_EXT = 0x8FBB;
+
+	// Frames a query result may take to become available before its query
+	// object is reused.
+	private static final int FRAMES_IN_FLIGHT = 3;
+
+	private static final ArrayList<GpuProfiler> profilers_ = new ArrayList<GpuProfiler>();
+
+	private final TimingHistogram[] histograms_ = new TimingHistogram[SECTION_COUNT];
+
+	private int requestedMode_ = MODE_OFF;
+	// requested mode changeMode() last ran for, -1 to run it again
+	private int appliedMode_ = MODE_OFF;
+	// mode in use, read by getReport()
+	private volatile int mode_ = MODE_OFF;
+	private boolean timerQuerySupported_ = false;
+
+	// Query objects, one per section for each frame in flight
+	private final int[] queries_ = new int[FRAMES_IN_FLIGHT * SECTION_COUNT];
+	private final boolean[] pending_ = new boolean[FRAMES_IN_FLIGHT
+			* SECTION_COUNT];
+	private boolean queriesCreated_ = false;
+	private int slot_ = 0;
+	private final int[] result_ = new int[1];
+
+	private long finishStart_ = 0;
+
+	public GpuProfiler() {
+		for (int i = 0; i < SECTION_COUNT; ++i) {
+			histograms_[i] = new TimingHistogram();
+		}
+		synchronized (profilers_) {
+			profilers_.add(this);
+		}
+	}
+
+	public static int modeFromString(String name) {
+		for (int i = 0; i < MODE_NAMES.length; ++i) {
+			if (MODE_NAMES[i].equals(name)) {
+				return i;
+			}
+		}
+		return MODE_OFF;
+	}
+
+	/**
+	 * Takes effect at the start of the next frame.
+	 */
+	public void setMode(int mode) {
+		requestedMode_ = mode;
+	}
+
+	public boolean isActive() {
+		return mode_ != MODE_OFF;
+	}
+
+	/**
+	 * Checks for timer query support. Call with a new context current, after
+	 * {@link #forget()}.
+	 */
+	public void onContextCreated() {
+		String version = GLES20.glGetString(GLES20.GL_VERSION);
+		String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+		timerQuerySupported_ = Build.VERSION.SDK_INT >= 18
+				&& version != null && version.startsWith("OpenGL ES 3")
+				&& extensions != null
+				&& extensions.contains("GL_EXT_disjoint_timer_query");
+		// pick the mode again for the new context
+		appliedMode_ = -1;
+	}
+
+	/**
+	 * Drops the query objects without deleting them, their context is gone.
+	 */
+	public void forget() {
+		queriesCreated_ = false;
+		for (int i = 0; i < pending_.length; ++i) {
+			pending_[i] = false;
+		}
+	}
+
+	/**
+	 * Deletes the query objects. Call with their context current.
+	 */
+	public void deleteQueries() {
+		if (queriesCreated_) {
+			GLES30.glDeleteQueries(queries_.length, queries_, 0);
+			forget();
+		}
+	}
+
+	/**
+	 * Unregisters the profiler from {@link #getReport()}.
+	 */
+	public void release() {
+		synchronized (profilers_) {
+			profilers_.remove(this);
+		}
+	}
+
+	/**
+	 * Applies a mode change and collects the results of the oldest frame in
+	 * flight.
+	 */
+	public void beginFrame() {
+		if (appliedMode_ != requestedMode_) {
+			changeMode();
+		}
+		if (mode_ != MODE_TIMER_QUERY) {
+			return;
+		}
+		slot_ = (slot_ + 1) % FRAMES_IN_FLIGHT;
+
+		// reading the flag clears it
+		GLES20.glGetIntegerv(GL_GPU_DISJOINT_EXT, result_, 0);
+		boolean disjoint = result_[0] != 0;
+		int base = slot_ * SECTION_COUNT;
+		for (int section = 0; section < SECTION_COUNT; ++section) {
+			int index = base + section;
+			if (!pending_[index]) {
+				continue;
+			}
+			pending_[index] = false;
+			GLES30.glGetQueryObjectuiv(queries_[index],
+					GLES30.GL_QUERY_RESULT_AVAILABLE, result_, 0);
+			if (result_[0] == 0 || disjoint) {
+				// too late or unreliable, the query object is reused now
+				continue;
+			}
+			GLES30.glGetQueryObjectuiv(queries_[index],
+					GLES30.GL_QUERY_RESULT, result_, 0);
+			// unsigned nanoseconds
+			long nanos = result_[0] & 0xffffffffL;
+			histograms_[section].record(nanos / 1000000.0f);
+		}
+	}
+
+	public void begin(int section) {
+		if (mode_ == MODE_TIMER_QUERY) {
+			GLES30.glBeginQuery(GL_TIME_ELAPSED_EXT, queries_[slot_
+					* SECTION_COUNT + section]);
+		} else if (mode_ == MODE_FINISH) {
+			GLES20.glFinish();
+			finishStart_ = System.nanoTime();
+		}
+	}
+
+	public void end(int section) {
+		if (mode_ == MODE_TIMER_QUERY) {
+			GLES30.glEndQuery(GL_TIME_ELAPSED_EXT);
+			pending_[slot_ * SECTION_COUNT + section] = true;
+		} else if (mode_ == MODE_FINISH) {
+			GLES20.glFinish();
+			histograms_[section]
+					.record((System.nanoTime() - finishStart_) / 1000000.0f);
+		}
+	}
+
+	private void changeMode() {
+		appliedMode_ = requestedMode_;
+		int mode = requestedMode_;
+		if (mode == MODE_TIMER_QUERY && !timerQuerySupported_) {
+			Log.w(TAG, "Timer queries not supported, GPU profiling is off");
+			mode = MODE_OFF;
+		}
+		if (mode != MODE_TIMER_QUERY) {
+			deleteQueries();
+		}
+		if (!queriesCreated_ && mode == MODE_TIMER_QUERY) {
+			GLES30.glGenQueries(queries_.length, queries_, 0);
+			queriesCreated_ = true;
+		}
+		if (mode != mode_) {
+			for (int i = 0; i < SECTION_COUNT; ++i) {
+				histograms_[i].clear();
+			}
+		}
+		mode_ = mode;
+	}
+
+	/** Results of a section, for the tools in tools/gpu-harness. */
+	TimingHistogram getHistogram(int section) {
+		return histograms_[section];
+	}
+
+	static String getSectionName(int section) {
+		return SECTION_NAMES[section];
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append(MODE_NAMES[mode_]);
+		for (int i = 0; i < SECTION_COUNT; ++i) {
+			// passes which did not run, e.g. blur levels not in use
+			if (histograms_[i].getCount() == 0) {
+				continue;
+			}
+			builder.append('\n').append(SECTION_NAMES[i]).append(": ")
+					.append(histograms_[i]);
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * @return the histograms of all renderers, or null if none is
+	 *         profiling. May be called from any thread.
+	 */
+	public static String getReport() {
+		StringBuilder builder = new StringBuilder();
+		synchronized (profilers_) {
+			for (int i = 0; i < profilers_.size(); ++i) {
+				GpuProfiler profiler = profilers_.get(i);
+				if (!profiler.isActive()) {
+					continue;
+				}
+				if (builder.length() > 0) {
+					builder.append("\n\n");
+				}
+				builder.append(profiler);
+			}
+		}
+		return builder.length() > 0 ? builder.toString() : null;
+	}
+}
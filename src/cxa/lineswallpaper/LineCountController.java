@@ -0,0 +1,81 @@
+package cxa.lineswallpaper;
+
+/**
+ * Grows or shrinks the number of drawn line vertices between user set bounds
+ * so the measured frame time stays within the frame budget.
+ */
+class LineCountController {
+	// Frames between two adjustments, lets the average settle.
+	private static final int ADJUST_INTERVAL = 15;
+	private static final float SHRINK_THRESHOLD = 1.15f;
+	private static final float GROW_THRESHOLD = 1.05f;
+	private static final float SHRINK_RATIO = 0.1f;
+	private static final float GROW_RATIO = 0.05f;
+
+	private int minCount_;
+	private int maxCount_;
+	private int count_;
+	private float frameBudget_ = 1000.0f / 60.0f;
+	private int framesSinceAdjust_ = 0;
+
+	public LineCountController(int minCount, int maxCount) {
+		count_ = maxCount;
+		setBounds(minCount, maxCount);
+	}
+
+	public void setBounds(int minCount, int maxCount) {
+		if (minCount > maxCount) {
+			minCount = maxCount;
+		}
+		minCount_ = minCount;
+		maxCount_ = maxCount;
+		count_ = clamp(count_);
+	}
+
+	/**
+	 * @param frameBudget
+	 *            target frame time in milliseconds.
+	 */
+	public void setFrameBudget(float frameBudget) {
+		frameBudget_ = frameBudget;
+	}
+
+	public float getFrameBudget() {
+		return frameBudget_;
+	}
+
+	/**
+	 * Feeds the smoothed frame time of the last frame.
+	 *
+	 * @return the line vertex count to draw.
+	 */
+	public int update(float averageFrameTime) {
+		if (++framesSinceAdjust_ < ADJUST_INTERVAL) {
+			return count_;
+		}
+		framesSinceAdjust_ = 0;
+
+		int range = maxCount_ - minCount_;
+		if (averageFrameTime > frameBudget_ * SHRINK_THRESHOLD) {
+			count_ = clamp(count_ - Math.max(2, (int) (count_ * SHRINK_RATIO)));
+		} else if (averageFrameTime < frameBudget_ * GROW_THRESHOLD) {
+			count_ = clamp(count_ + Math.max(2, (int) (range * GROW_RATIO)));
+		}
+		return count_;
+	}
+
+	public int getCount() {
+		return count_;
+	}
+
+	private int clamp(int count) {
+		if (count < minCount_) {
+			count = minCount_;
+		}
+		if (count > maxCount_) {
+			count = maxCount_;
+		}
+		// GL_LINES consumes vertices in pairs
+		return count & ~1;
+	}
+}
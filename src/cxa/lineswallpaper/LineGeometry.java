@@ -0,0 +1,125 @@
+package cxa.lineswallpaper;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * The random line end points, generated from a seed. java.util.Random is
+ * specified to give the same sequence for the same seed everywhere, so the
+ * seed is all that has to be stored to get the same lines back, and the
+ * client side copy can be dropped once it is uploaded into a vertex buffer.
+ *
+ * Positions are stored as normalized integers. x and y lie in [-1, 1] and
+ * map directly, z lies in [0, 1] and is stored as 2z - 1, which the vertex
+ * shader undoes with {@link #getScaleZ()} and {@link #getBiasZ()}.
+ */
+class LineGeometry {
+	/** 3 floats, 12 bytes per vertex. */
+	public static final int FORMAT_FLOAT = 0;
+	/** 3 normalized shorts, 6 bytes per vertex. */
+	public static final int FORMAT_SHORT = 1;
+	/** 3 normalized bytes and one byte of padding, 4 bytes per vertex. */
+	public static final int FORMAT_BYTE = 2;
+
+	// GLES20 constants, kept here so the geometry can be generated off device
+	private static final int GL_BYTE = 0x1400;
+	private static final int GL_SHORT = 0x1402;
+	private static final int GL_FLOAT = 0x1406;
+
+	private static final int[] STRIDES = { 12, 6, 4 };
+	private static final int[] GL_TYPES = { GL_FLOAT, GL_SHORT, GL_BYTE };
+
+	public final long seed;
+	public final int count;
+	public final int format;
+
+	private ByteBuffer data_;
+
+	public LineGeometry(long seed, int count, int format) {
+		this.seed = seed;
+		this.count = count;
+		this.format = format;
+	}
+
+	public boolean matches(long seed, int count, int format) {
+		return this.seed == seed && this.count == count
+				&& this.format == format;
+	}
+
+	public int getStride() {
+		return STRIDES[format];
+	}
+
+	public int getByteSize() {
+		return count * STRIDES[format];
+	}
+
+	public int getGLType() {
+		return GL_TYPES[format];
+	}
+
+	public boolean isNormalized() {
+		return format != FORMAT_FLOAT;
+	}
+
+	public float getScaleZ() {
+		return format == FORMAT_FLOAT ? 1.0f : 0.5f;
+	}
+
+	public float getBiasZ() {
+		return format == FORMAT_FLOAT ? 0.0f : 0.5f;
+	}
+
+	/**
+	 * @return the vertex data, generated again if it was released. Each call
+	 *         returns a buffer with its own position.
+	 */
+	public synchronized ByteBuffer getData() {
+		if (data_ == null) {
+			data_ = generate();
+		}
+		return data_.duplicate();
+	}
+
+	/**
+	 * Drops the client side copy, for when it lives in a vertex buffer.
+	 */
+	public synchronized void releaseData() {
+		data_ = null;
+	}
+
+	private ByteBuffer generate() {
+		Random rnd = new Random(seed);
+		ByteBuffer data = ByteBuffer.allocateDirect(getByteSize()).order(
+				ByteOrder.nativeOrder());
+		for (int i = 0; i < count; ++i) {
+			float x = rnd.nextFloat() * 2 - 1;
+			float y = rnd.nextFloat() * 2 - 1;
+			float z = rnd.nextFloat();
+			switch (format) {
+			case FORMAT_FLOAT:
+				data.putFloat(x).putFloat(y).putFloat(z);
+				break;
+			case FORMAT_SHORT:
+				data.putShort((short) quantize(x, Short.MAX_VALUE))
+						.putShort((short) quantize(y, Short.MAX_VALUE))
+						.putShort((short) quantize(z * 2 - 1, Short.MAX_VALUE));
+				break;
+			default:
+				data.put((byte) quantize(x, Byte.MAX_VALUE))
+						.put((byte) quantize(y, Byte.MAX_VALUE))
+						.put((byte) quantize(z * 2 - 1, Byte.MAX_VALUE))
+						.put((byte) 0);
+				break;
+			}
+		}
+		data.position(0);
+		return data;
+	}
+
+	private static int quantize(float value, int max) {
+		int q = Math.round(value * max);
+		return Math.max(-max, Math.min(max, q));
+	}
+}
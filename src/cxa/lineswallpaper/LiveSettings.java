@@ -0,0 +1,123 @@
+package cxa.lineswallpaper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * In-process channel from the preference dialogs to the running wallpaper.
+ * The settings activity and the wallpaper service share the process.
+ *
+ * While a dialog is open its value is sent as a preview, which the wallpaper
+ * shows without writing the preferences. Previews are delivered at most once
+ * per display frame, with only the latest value of each key. Closing the
+ * dialog persists the value with one asynchronous write, cancelling it
+ * rolls the wallpaper back to the persisted value.
+ *
+ * All methods must be called on the main thread.
+ */
+public class LiveSettings {
+	public interface Listener {
+		/** A preference dialog is showing a value which is not persisted. */
+		void onPreview(String key, int value);
+
+		/** The preview of the key is over, the persisted value applies. */
+		void onPreviewEnded(String key);
+	}
+
+	private static final long DISPATCH_INTERVAL_MS = 16;
+
+	private static LiveSettings instance_;
+
+	private final Handler handler_ = new Handler(Looper.getMainLooper());
+	private final ArrayList<Listener> listeners_ = new ArrayList<Listener>();
+	// Latest preview value per key, waiting for the next dispatch
+	private final HashMap<String, Integer> pending_ = new HashMap<String, Integer>();
+	private boolean dispatchPosted_ = false;
+	private long lastDispatch_ = 0;
+
+	private final Runnable dispatch_ = new Runnable() {
+		public void run() {
+			dispatch();
+		}
+	};
+
+	public static LiveSettings getInstance() {
+		if (instance_ == null) {
+			instance_ = new LiveSettings();
+		}
+		return instance_;
+	}
+
+	private LiveSettings() {
+	}
+
+	public void addListener(Listener listener) {
+		listeners_.add(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		listeners_.remove(listener);
+	}
+
+	/**
+	 * Shows a value on the wallpaper without persisting it.
+	 */
+	public void preview(String key, int value) {
+		pending_.put(key, value);
+		if (dispatchPosted_) {
+			return;
+		}
+		dispatchPosted_ = true;
+		long delay = lastDispatch_ + DISPATCH_INTERVAL_MS
+				- SystemClock.uptimeMillis();
+		handler_.postDelayed(dispatch_, Math.max(0, delay));
+	}
+
+	/**
+	 * Persists the value and ends its preview.
+	 */
+	public void commit(SharedPreferences preferences, String key, int value) {
+		SharedPreferences.Editor editor = preferences.edit();
+		editor.putInt(key, value);
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD) {
+			// updates the in-memory values now, the disk write happens later
+			editor.apply();
+		} else {
+			editor.commit();
+		}
+		end(key);
+	}
+
+	/**
+	 * Drops the preview, the wallpaper goes back to the persisted value.
+	 */
+	public void cancel(String key) {
+		end(key);
+	}
+
+	private void end(String key) {
+		pending_.remove(key);
+		for (int i = 0; i < listeners_.size(); ++i) {
+			listeners_.get(i).onPreviewEnded(key);
+		}
+	}
+
+	private void dispatch() {
+		dispatchPosted_ = false;
+		lastDispatch_ = SystemClock.uptimeMillis();
+		for (Map.Entry<String, Integer> entry : pending_.entrySet()) {
+			for (int i = 0; i < listeners_.size(); ++i) {
+				listeners_.get(i).onPreview(entry.getKey(),
+						entry.getValue().intValue());
+			}
+		}
+		pending_.clear();
+	}
+}
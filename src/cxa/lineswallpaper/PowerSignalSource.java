@@ -0,0 +1,20 @@
+package cxa.lineswallpaper;
+
+/**
+ * Delivers power state changes to the render governor. The device
+ * implementation listens to system broadcasts, other implementations can
+ * feed arbitrary states.
+ */
+public interface PowerSignalSource {
+	public interface Listener {
+		void onPowerStateChanged(PowerState state);
+	}
+
+	/**
+	 * Starts listening. The current state is delivered to the listener before
+	 * this method returns.
+	 */
+	void start(Listener listener);
+
+	void stop();
+}
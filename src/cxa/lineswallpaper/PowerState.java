@@ -0,0 +1,57 @@
+package cxa.lineswallpaper;
+
+/**
+ * Snapshot of the power related device signals the render governor looks
+ * at. Plain Java so the policy can be exercised without a device.
+ */
+public class PowerState {
+	// Same values as the PowerManager.THERMAL_STATUS_* constants.
+	public static final int THERMAL_NONE = 0;
+	public static final int THERMAL_LIGHT = 1;
+	public static final int THERMAL_MODERATE = 2;
+	public static final int THERMAL_SEVERE = 3;
+	public static final int THERMAL_CRITICAL = 4;
+	public static final int THERMAL_EMERGENCY = 5;
+	public static final int THERMAL_SHUTDOWN = 6;
+
+	public final int batteryPercent;
+	public final boolean charging;
+	public final boolean powerSaveMode;
+	public final int thermalStatus;
+
+	public PowerState(int batteryPercent, boolean charging,
+			boolean powerSaveMode, int thermalStatus) {
+		this.batteryPercent = batteryPercent;
+		this.charging = charging;
+		this.powerSaveMode = powerSaveMode;
+		this.thermalStatus = thermalStatus;
+	}
+
+	/**
+	 * State assumed before any signal arrived: full battery, cool device.
+	 */
+	public static PowerState unknown() {
+		return new PowerState(100, true, false, THERMAL_NONE);
+	}
+
+	public PowerState withBattery(int batteryPercent, boolean charging) {
+		return new PowerState(batteryPercent, charging, powerSaveMode,
+				thermalStatus);
+	}
+
+	public PowerState withPowerSaveMode(boolean powerSaveMode) {
+		return new PowerState(batteryPercent, charging, powerSaveMode,
+				thermalStatus);
+	}
+
+	public PowerState withThermalStatus(int thermalStatus) {
+		return new PowerState(batteryPercent, charging, powerSaveMode,
+				thermalStatus);
+	}
+
+	@Override
+	public String toString() {
+		return "battery=" + batteryPercent + "% charging=" + charging
+				+ " powerSave=" + powerSaveMode + " thermal=" + thermalStatus;
+	}
+}
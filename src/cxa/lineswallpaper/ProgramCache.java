@@ -0,0 +1,251 @@
+package cxa.lineswallpaper;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * On-disk cache of linked program binaries. Entries are keyed by a hash of
+ * the shader sources and the GL_RENDERER and GL_VERSION strings, so a driver
+ * update or a different GPU never sees a stale binary. Binaries the driver
+ * rejects are deleted and the caller falls back to compiling from source.
+ *
+ * Uses the core OpenGL ES 3.0 entry points, whose Java bindings exist since
+ * API 18, so the cache is off on ES 2.0 contexts. OES_get_program_binary on
+ * ES 2.0 drivers has no Java binding, and the core functions are not valid
+ * there.
+ */
+class ProgramCache {
+	private static String TAG = "ProgramCache";
+
+	private static final int MAGIC = 0x424c5042; // "BLPB"
+	private static final int GL_PROGRAM_BINARY_LENGTH = 0x8741;
+	private static final int GL_NUM_PROGRAM_BINARY_FORMATS = 0x87FE;
+
+	private final File directory_;
+	private boolean supported_ = false;
+	private String driverKey_ = "";
+
+	private int hits_ = 0;
+	private int misses_ = 0;
+	private int rejected_ = 0;
+	private long compileNanos_ = 0;
+	private long loadNanos_ = 0;
+
+	public ProgramCache(File directory) {
+		directory_ = directory;
+	}
+
+	/**
+	 * Must be called on the GL thread whenever a new context was created.
+	 */
+	public void onContextCreated() {
+		String renderer = GLES20.glGetString(GLES20.GL_RENDERER);
+		String version = GLES20.glGetString(GLES20.GL_VERSION);
+		driverKey_ = renderer + "\n" + version;
+
+		supported_ = false;
+		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2
+				|| version == null || !version.startsWith("OpenGL ES 3")) {
+			return;
+		}
+		int[] formats = new int[1];
+		GLES20.glGetIntegerv(GL_NUM_PROGRAM_BINARY_FORMATS, formats, 0);
+		if (GLES20.glGetError() != GLES20.GL_NO_ERROR || formats[0] <= 0) {
+			return;
+		}
+		if (!directory_.isDirectory() && !directory_.mkdirs()) {
+			Log.w(TAG, "Could not create " + directory_);
+			return;
+		}
+		supported_ = true;
+	}
+
+	public boolean isSupported() {
+		return supported_;
+	}
+
+	/**
+	 * @return a linked program created from the cached binary, or 0 if there
+	 *         is no usable entry.
+	 */
+	public int load(String vertexSource, String fragmentSource) {
+		if (!supported_) {
+			return 0;
+		}
+		long start = System.nanoTime();
+		File file = entry(vertexSource, fragmentSource);
+		if (!file.isFile()) {
+			++misses_;
+			return 0;
+		}
+
+		int format;
+		byte[] binary;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new FileInputStream(file));
+			if (in.readInt() != MAGIC) {
+				throw new IOException("bad magic");
+			}
+			format = in.readInt();
+			binary = new byte[in.readInt()];
+			in.readFully(binary);
+		} catch (IOException e) {
+			Log.w(TAG, "Could not read " + file + ": " + e);
+			file.delete();
+			++misses_;
+			return 0;
+		} finally {
+			close(in);
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocateDirect(binary.length).order(
+				ByteOrder.nativeOrder());
+		buffer.put(binary).position(0);
+
+		int program = GLES20.glCreateProgram();
+		GLES30.glProgramBinary(program, format, buffer, binary.length);
+		int[] linkStatus = new int[1];
+		GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+		if (GLES20.glGetError() != GLES20.GL_NO_ERROR
+				|| linkStatus[0] != GLES20.GL_TRUE) {
+			// driver changed its mind, e.g. after an update
+			GLES20.glDeleteProgram(program);
+			file.delete();
+			++rejected_;
+			++misses_;
+			return 0;
+		}
+
+		++hits_;
+		loadNanos_ += System.nanoTime() - start;
+		return program;
+	}
+
+	/**
+	 * Stores the binary of a program which was linked from source.
+	 *
+	 * @param compileNanos
+	 *            time the source compilation took, for the statistics.
+	 */
+	public void store(String vertexSource, String fragmentSource,
+			int program, long compileNanos) {
+		compileNanos_ += compileNanos;
+		if (!supported_ || program == 0) {
+			return;
+		}
+
+		int[] length = new int[1];
+		GLES20.glGetProgramiv(program, GL_PROGRAM_BINARY_LENGTH, length, 0);
+		if (GLES20.glGetError() != GLES20.GL_NO_ERROR || length[0] <= 0) {
+			return;
+		}
+		ByteBuffer buffer = ByteBuffer.allocateDirect(length[0]).order(
+				ByteOrder.nativeOrder());
+		int[] written = new int[1];
+		int[] format = new int[1];
+		GLES30.glGetProgramBinary(program, length[0], written, 0, format, 0,
+				buffer);
+		if (GLES20.glGetError() != GLES20.GL_NO_ERROR || written[0] <= 0) {
+			return;
+		}
+		byte[] binary = new byte[written[0]];
+		buffer.position(0);
+		buffer.get(binary);
+
+		File file = entry(vertexSource, fragmentSource);
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new FileOutputStream(file));
+			out.writeInt(MAGIC);
+			out.writeInt(format[0]);
+			out.writeInt(binary.length);
+			out.write(binary);
+		} catch (IOException e) {
+			Log.w(TAG, "Could not write " + file + ": " + e);
+			close(out);
+			out = null;
+			file.delete();
+		} finally {
+			close(out);
+		}
+	}
+
+	public int getHits() {
+		return hits_;
+	}
+
+	public int getMisses() {
+		return misses_;
+	}
+
+	public int getRejected() {
+		return rejected_;
+	}
+
+	/**
+	 * @return total time spent compiling programs from source.
+	 */
+	public long getCompileNanos() {
+		return compileNanos_;
+	}
+
+	/**
+	 * @return total time spent creating programs from cached binaries.
+	 */
+	public long getLoadNanos() {
+		return loadNanos_;
+	}
+
+	@Override
+	public String toString() {
+		return "hits=" + hits_ + " misses=" + misses_ + " rejected="
+				+ rejected_ + " compile=" + compileNanos_ / 1000000
+				+ "ms load=" + loadNanos_ / 1000000 + "ms";
+	}
+
+	private File entry(String vertexSource, String fragmentSource) {
+		return new File(directory_, hash(vertexSource + "\0" + fragmentSource
+				+ "\0" + driverKey_)
+				+ ".bin");
+	}
+
+	private static String hash(String text) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			byte[] bytes = digest.digest(text.getBytes("UTF-8"));
+			StringBuilder builder = new StringBuilder(bytes.length * 2);
+			for (byte b : bytes) {
+				builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+				builder.append(Character.forDigit(b & 0xf, 16));
+			}
+			return builder.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static void close(java.io.Closeable stream) {
+		if (stream != null) {
+			try {
+				stream.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package cxa.lineswallpaper;
+
+/**
+ * Lowers frame rate, line count and framebuffer resolution when the battery
+ * runs low, power save mode is on or the device heats up, and raises them
+ * again when conditions improve.
+ *
+ * Battery thresholds use a small hysteresis so a level hovering around a
+ * threshold does not switch the quality back and forth. The hysteresis
+ * follows the level the battery alone asks for, so a level entered because
+ * of heat or power save mode is left as soon as those are over.
+ */
+public class RenderGovernor implements PowerSignalSource.Listener {
+	public interface Listener {
+		void onRenderQualityChanged(RenderQuality quality);
+	}
+
+	public static final int LEVEL_FULL = 0;
+	public static final int LEVEL_REDUCED = 1;
+	public static final int LEVEL_LOW = 2;
+	public static final int LEVEL_MINIMAL = 3;
+
+	private static final RenderQuality[] QUALITIES = {
+			RenderQuality.FULL, new RenderQuality(30, 0.75f, 0.85f),
+			new RenderQuality(30, 0.5f, 0.7f),
+			new RenderQuality(20, 0.35f, 0.5f) };
+
+	// Battery percentages at which the level drops when not charging.
+	private static final int BATTERY_REDUCED = 30;
+	private static final int BATTERY_LOW = 15;
+	private static final int BATTERY_MINIMAL = 5;
+	// Extra percentage needed before a battery level raises quality again.
+	private static final int BATTERY_HYSTERESIS = 5;
+
+	private final PowerSignalSource source_;
+	private final Listener listener_;
+	private int level_ = LEVEL_FULL;
+	// level asked for by the battery alone, the hysteresis state
+	private int batteryLevel_ = LEVEL_FULL;
+	private PowerState state_ = PowerState.unknown();
+
+	public RenderGovernor(PowerSignalSource source, Listener listener) {
+		source_ = source;
+		listener_ = listener;
+	}
+
+	public void start() {
+		source_.start(this);
+	}
+
+	public void stop() {
+		source_.stop();
+	}
+
+	public void onPowerStateChanged(PowerState state) {
+		state_ = state;
+		int level = evaluate(state, batteryLevel_);
+		batteryLevel_ = evaluateBattery(state, batteryLevel_);
+		if (level != level_) {
+			level_ = level;
+			listener_.onRenderQualityChanged(QUALITIES[level]);
+		}
+	}
+
+	public int getLevel() {
+		return level_;
+	}
+
+	public PowerState getPowerState() {
+		return state_;
+	}
+
+	public RenderQuality getQuality() {
+		return QUALITIES[level_];
+	}
+
+	/**
+	 * The policy itself.
+	 *
+	 * @param currentBattery
+	 *            level the battery asked for last time, see
+	 *            {@link #evaluateBattery(PowerState, int)}. Only used for the
+	 *            hysteresis of the battery thresholds.
+	 * @return the quality level for the given state.
+	 */
+	public static int evaluate(PowerState state, int currentBattery) {
+		int level = LEVEL_FULL;
+
+		if (state.thermalStatus >= PowerState.THERMAL_CRITICAL) {
+			level = LEVEL_MINIMAL;
+		} else if (state.thermalStatus == PowerState.THERMAL_SEVERE) {
+			level = LEVEL_LOW;
+		} else if (state.thermalStatus == PowerState.THERMAL_MODERATE) {
+			level = LEVEL_REDUCED;
+		}
+
+		if (state.powerSaveMode) {
+			level = Math.max(level, LEVEL_LOW);
+		}
+
+		return Math.max(level, evaluateBattery(state, currentBattery));
+	}
+
+	/**
+	 * @param currentBattery
+	 *            what this returned for the previous state, LEVEL_FULL at
+	 *            first.
+	 * @return the level the battery alone asks for, LEVEL_FULL while
+	 *         charging.
+	 */
+	public static int evaluateBattery(PowerState state, int currentBattery) {
+		if (state.charging) {
+			return LEVEL_FULL;
+		}
+		return batteryLevel(state.batteryPercent, currentBattery);
+	}
+
+	private static int batteryLevel(int percent, int current) {
+		if (percent <= threshold(BATTERY_MINIMAL, LEVEL_MINIMAL, current)) {
+			return LEVEL_MINIMAL;
+		}
+		if (percent <= threshold(BATTERY_LOW, LEVEL_LOW, current)) {
+			return LEVEL_LOW;
+		}
+		if (percent <= threshold(BATTERY_REDUCED, LEVEL_REDUCED, current)) {
+			return LEVEL_REDUCED;
+		}
+		return LEVEL_FULL;
+	}
+
+	/*
+	 * A level already in effect is only left once the battery is a few
+	 * percent above the threshold which entered it.
+	 */
+	private static int threshold(int percent, int level, int current) {
+		return current >= level ? percent + BATTERY_HYSTERESIS : percent;
+	}
+}
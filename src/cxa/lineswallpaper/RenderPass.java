@@ -0,0 +1,102 @@
+package cxa.lineswallpaper;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Build;
+
+/**
+ * Describes one render pass: its target and what happens to the target's
+ * previous contents. Knowing that a pass overwrites its whole target lets the
+ * pass skip the clear and tell the driver the old contents are not needed,
+ * which saves tiled GPUs from loading the tiles from memory. Attachments which
+ * are not needed after the pass (depth/stencil of the window surface) are
+ * discarded at the end so they are not stored either.
+ *
+ * The Java bindings only expose discarding as glInvalidateFramebuffer (OpenGL
+ * ES 3.0, API 18), there is no binding for EXT_discard_framebuffer.
+ */
+class RenderPass {
+	/** The pass reads or blends with the previous contents. */
+	public static final int LOAD_KEEP = 0;
+	/** The target is cleared to the current clear color. */
+	public static final int LOAD_CLEAR = 1;
+	/** The pass overwrites every pixel that is read later. */
+	public static final int LOAD_DONT_CARE = 2;
+
+	private static final int[] FRAMEBUFFER_COLOR = { GLES20.GL_COLOR_ATTACHMENT0 };
+	private static final int[] WINDOW_COLOR = { GLES30.GL_COLOR };
+	private static final int[] WINDOW_DEPTH_STENCIL = { GLES30.GL_DEPTH,
+			GLES30.GL_STENCIL };
+
+	private final String name_;
+	private final boolean discardSupported_;
+	private int framebuffer_;
+
+	private int clears_ = 0;
+	private int skippedClears_ = 0;
+	private int discards_ = 0;
+
+	/**
+	 * @param discardSupported
+	 *            whether glInvalidateFramebuffer can be used on the current
+	 *            context, see {@link #isDiscardSupported()}.
+	 */
+	public RenderPass(String name, boolean discardSupported) {
+		name_ = name;
+		discardSupported_ = discardSupported;
+	}
+
+	/**
+	 * Must be called on the GL thread.
+	 */
+	public static boolean isDiscardSupported() {
+		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+			return false;
+		}
+		String version = GLES20.glGetString(GLES20.GL_VERSION);
+		return version != null && version.startsWith("OpenGL ES 3");
+	}
+
+	/**
+	 * Binds the target and prepares its contents as described by load.
+	 *
+	 * @param framebuffer
+	 *            framebuffer object, 0 for the window surface.
+	 */
+	public void begin(GLStateCache stateCache, int framebuffer, int load,
+			int width, int height) {
+		framebuffer_ = framebuffer;
+		stateCache.bindFramebuffer(framebuffer);
+		stateCache.viewport(0, 0, width, height);
+
+		if (load == LOAD_CLEAR) {
+			GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+			++clears_;
+		} else if (load == LOAD_DONT_CARE) {
+			++skippedClears_;
+			if (discardSupported_) {
+				GLES30.glInvalidateFramebuffer(GLES20.GL_FRAMEBUFFER, 1,
+						framebuffer == 0 ? WINDOW_COLOR : FRAMEBUFFER_COLOR, 0);
+				++discards_;
+			}
+		}
+	}
+
+	/**
+	 * Ends the pass. The color of the target is kept, depth and stencil of
+	 * the window surface are never used and are discarded.
+	 */
+	public void end() {
+		if (discardSupported_ && framebuffer_ == 0) {
+			GLES30.glInvalidateFramebuffer(GLES20.GL_FRAMEBUFFER, 2,
+					WINDOW_DEPTH_STENCIL, 0);
+			++discards_;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return name_ + ": clears=" + clears_ + " skipped=" + skippedClears_
+				+ " discards=" + discards_;
+	}
+}
@@ -0,0 +1,42 @@
+package cxa.lineswallpaper;
+
+/**
+ * Upper limits on rendering cost chosen by the render governor.
+ */
+public class RenderQuality {
+	public static final RenderQuality FULL = new RenderQuality(0, 1.0f, 1.0f);
+
+	/** Frame rate cap, 0 for no cap. */
+	public final int maxFrameRate;
+	/** Fraction of the configured maximum line count that may be drawn. */
+	public final float lineCountScale;
+	/** Largest render scale of the feedback framebuffers. */
+	public final float resolutionScale;
+
+	public RenderQuality(int maxFrameRate, float lineCountScale,
+			float resolutionScale) {
+		this.maxFrameRate = maxFrameRate;
+		this.lineCountScale = lineCountScale;
+		this.resolutionScale = resolutionScale;
+	}
+
+	/**
+	 * Combines a user selected frame rate with the cap, 0 meaning unlimited
+	 * for both.
+	 */
+	public int limitFrameRate(int frameRate) {
+		if (maxFrameRate == 0) {
+			return frameRate;
+		}
+		if (frameRate == 0) {
+			return maxFrameRate;
+		}
+		return Math.min(frameRate, maxFrameRate);
+	}
+
+	@Override
+	public String toString() {
+		return "fps<=" + maxFrameRate + " lines*" + lineCountScale
+				+ " resolution*" + resolutionScale;
+	}
+}
@@ -0,0 +1,112 @@
+package cxa.lineswallpaper;
+
+import android.opengl.GLES20;
+
+/**
+ * A texture with a framebuffer object rendering into it.
+ */
+class RenderTarget {
+	public final int width;
+	public final int height;
+	/** one of the {@link FeedbackFormat} constants */
+	public final int format;
+
+	private int texture_;
+	private int framebuffer_;
+
+	private RenderTarget(int width, int height, int format) {
+		this.width = width;
+		this.height = height;
+		this.format = format;
+	}
+
+	/**
+	 * Creates the texture and framebuffer. Must be called on the GL thread.
+	 *
+	 * @throws RuntimeException
+	 *             if the framebuffer is not complete.
+	 */
+	public static RenderTarget create(int width, int height, int format) {
+		RenderTarget target = new RenderTarget(width, height, format);
+
+		int[] ids = new int[1];
+		GLES20.glGenTextures(1, ids, 0);
+		target.texture_ = ids[0];
+		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, target.texture_);
+		int glFormat = FeedbackFormat.getGLFormat(format);
+		GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, glFormat, width, height,
+				0, glFormat, FeedbackFormat.getGLType(format), null);
+		GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
+				GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+		GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
+				GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+		// the blur taps reach past the border
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+				GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+				GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+
+		GLES20.glGenFramebuffers(1, ids, 0);
+		target.framebuffer_ = ids[0];
+		GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, target.framebuffer_);
+		GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER,
+				GLES20.GL_COLOR_ATTACHMENT0, GLES20.GL_TEXTURE_2D,
+				target.texture_, 0);
+		int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+		GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+		if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+			target.release();
+			throw new RuntimeException("Framebuffer is not complete: "
+					+ Integer.toHexString(status));
+		}
+		return target;
+	}
+
+	public int getTexture() {
+		return texture_;
+	}
+
+	public int getFramebuffer() {
+		return framebuffer_;
+	}
+
+	/**
+	 * @return approximate size of the texture storage in bytes.
+	 */
+	public int getByteSize() {
+		return getByteSize(width, height, format);
+	}
+
+	public static int getByteSize(int width, int height, int format) {
+		int bytesPerPixel;
+		switch (format) {
+		case FeedbackFormat.RGB565:
+		case FeedbackFormat.RGBA4444:
+			bytesPerPixel = 2;
+			break;
+		case FeedbackFormat.HALF_FLOAT:
+			bytesPerPixel = 8;
+			break;
+		default:
+			bytesPerPixel = 4;
+		}
+		return width * height * bytesPerPixel;
+	}
+
+	/**
+	 * Deletes the texture and framebuffer.
+	 */
+	public void release() {
+		int[] ids = new int[1];
+		if (framebuffer_ != 0) {
+			ids[0] = framebuffer_;
+			GLES20.glDeleteFramebuffers(1, ids, 0);
+			framebuffer_ = 0;
+		}
+		if (texture_ != 0) {
+			ids[0] = texture_;
+			GLES20.glDeleteTextures(1, ids, 0);
+			texture_ = 0;
+		}
+	}
+}
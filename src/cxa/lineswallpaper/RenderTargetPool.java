@@ -0,0 +1,106 @@
+package cxa.lineswallpaper;
+
+import java.util.ArrayList;
+
+/**
+ * Keeps released render targets around so a surface change back to a size
+ * seen before (rotation, launcher vs. preview) reuses the allocation instead
+ * of reallocating texture storage. Targets are matched by width, height and
+ * format. On {@link #trim()} idle targets are deleted least recently used
+ * first while they take more memory than the targets in use times the idle
+ * ratio, so the cap follows the working set of the current surface size.
+ */
+class RenderTargetPool {
+	private final float maxIdleRatio_;
+	// idle targets, least recently used first
+	private final ArrayList<RenderTarget> idle_ = new ArrayList<RenderTarget>();
+	private int idleBytes_ = 0;
+	private int usedBytes_ = 0;
+
+	private int hits_ = 0;
+	private int misses_ = 0;
+	private int evictions_ = 0;
+
+	public RenderTargetPool(float maxIdleRatio) {
+		maxIdleRatio_ = maxIdleRatio;
+	}
+
+	/**
+	 * @return an idle target of the given size and format, or a new one.
+	 */
+	public RenderTarget acquire(int width, int height, int format) {
+		for (int i = idle_.size() - 1; i >= 0; --i) {
+			RenderTarget target = idle_.get(i);
+			if (target.width == width && target.height == height
+					&& target.format == format) {
+				idle_.remove(i);
+				idleBytes_ -= target.getByteSize();
+				usedBytes_ += target.getByteSize();
+				++hits_;
+				return target;
+			}
+		}
+		++misses_;
+		RenderTarget target = RenderTarget.create(width, height, format);
+		usedBytes_ += target.getByteSize();
+		return target;
+	}
+
+	/**
+	 * Returns a target to the pool. Its contents are undefined when it is
+	 * acquired again. Recycling does not delete anything, so a whole set can
+	 * be swapped for a new one before {@link #trim()}.
+	 */
+	public void recycle(RenderTarget target) {
+		if (target == null) {
+			return;
+		}
+		usedBytes_ -= target.getByteSize();
+		idle_.add(target);
+		idleBytes_ += target.getByteSize();
+	}
+
+	/**
+	 * Deletes all idle targets.
+	 */
+	public void clear() {
+		for (int i = 0; i < idle_.size(); ++i) {
+			idle_.get(i).release();
+		}
+		idle_.clear();
+		idleBytes_ = 0;
+	}
+
+	/**
+	 * Drops all targets without deleting them, for when the context which
+	 * owned them is gone.
+	 */
+	public void forget() {
+		idle_.clear();
+		idleBytes_ = 0;
+		usedBytes_ = 0;
+	}
+
+	public int getIdleBytes() {
+		return idleBytes_;
+	}
+
+	@Override
+	public String toString() {
+		return "hits=" + hits_ + " misses=" + misses_ + " evictions="
+				+ evictions_ + " used=" + usedBytes_ / 1024 + "k idle="
+				+ idleBytes_ / 1024 + "k";
+	}
+
+	/**
+	 * Deletes idle targets, least recently used first, down to the cap.
+	 */
+	public void trim() {
+		while (!idle_.isEmpty() && idleBytes_ > usedBytes_ * maxIdleRatio_) {
+			RenderTarget target = idle_.remove(0);
+			idleBytes_ -= target.getByteSize();
+			target.release();
+			++evictions_;
+		}
+	}
+}
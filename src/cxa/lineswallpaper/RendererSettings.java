@@ -0,0 +1,282 @@
+package cxa.lineswallpaper;
+
+import android.content.SharedPreferences;
+
+/**
+ * Immutable snapshot of the preferences the renderer uses. Snapshots are
+ * built on the main thread and handed to the GL thread as a whole, which
+ * compares them with {@link #diff(RendererSettings)} to find out what has to
+ * be rebuilt.
+ */
+class RendererSettings {
+	/** Values which only feed uniforms and per frame state. */
+	public static final int CHANGED_VALUES = 1;
+	/** Framebuffer size rules (smaller, NPOT, non-square textures). */
+	public static final int CHANGED_TARGET_SIZE = 2;
+	/** One or two feedback framebuffers. */
+	public static final int CHANGED_FRAMEBUFFER_COUNT = 4;
+	public static final int CHANGED_FEEDBACK_FORMAT = 8;
+	/** Vertex buffers or client side arrays. */
+	public static final int CHANGED_VERTEX_BUFFERS = 16;
+	public static final int CHANGED_ALL = CHANGED_VALUES | CHANGED_TARGET_SIZE
+			| CHANGED_FRAMEBUFFER_COUNT | CHANGED_FEEDBACK_FORMAT
+			| CHANGED_VERTEX_BUFFERS;
+
+	public static final RendererSettings DEFAULTS = new Builder().build();
+
+	public final int backgroundColor;
+	public final int linesColor;
+	public final int blur;
+	public final int brightness;
+	public final int lineWidth;
+	public final int rotationSpeed;
+	public final int speed;
+	public final int minLineCount;
+	public final int maxLineCount;
+	public final boolean adaptiveLineCount;
+	public final boolean dynamicResolution;
+
+	public final boolean useSmallerTextures;
+	public final boolean useNonPowerOfTwoTextures;
+	public final boolean useNonSquareTextures;
+	public final boolean useOneFramebuffer;
+	public final boolean useClientArrays;
+	/** one of the {@link FeedbackFormat} constants */
+	public final int feedbackFormat;
+	/** one of the GpuProfiler.MODE_* constants */
+	public final int gpuProfiling;
+
+	private static class Builder {
+		int backgroundColor = 0;
+		int linesColor = -1;
+		int blur = 127;
+		int brightness = 127;
+		int lineWidth = 127;
+		int rotationSpeed = 127;
+		int speed = 127;
+		int minLineCount = 32;
+		int maxLineCount = 127;
+		boolean adaptiveLineCount = true;
+		boolean dynamicResolution = false;
+		boolean useSmallerTextures = false;
+		boolean useNonPowerOfTwoTextures = false;
+		boolean useNonSquareTextures = false;
+		boolean useOneFramebuffer = false;
+		boolean useClientArrays = false;
+		int feedbackFormat = FeedbackFormat.RGBA8888;
+		int gpuProfiling = GpuProfiler.MODE_OFF;
+
+		Builder() {
+		}
+
+		Builder(RendererSettings s) {
+			backgroundColor = s.backgroundColor;
+			linesColor = s.linesColor;
+			blur = s.blur;
+			brightness = s.brightness;
+			lineWidth = s.lineWidth;
+			rotationSpeed = s.rotationSpeed;
+			speed = s.speed;
+			minLineCount = s.minLineCount;
+			maxLineCount = s.maxLineCount;
+			adaptiveLineCount = s.adaptiveLineCount;
+			dynamicResolution = s.dynamicResolution;
+			useSmallerTextures = s.useSmallerTextures;
+			useNonPowerOfTwoTextures = s.useNonPowerOfTwoTextures;
+			useNonSquareTextures = s.useNonSquareTextures;
+			useOneFramebuffer = s.useOneFramebuffer;
+			useClientArrays = s.useClientArrays;
+			feedbackFormat = s.feedbackFormat;
+			gpuProfiling = s.gpuProfiling;
+		}
+
+		/*
+		 * Reads the preference with the given key, or all of them if the key
+		 * is null. Keys of other preferences are ignored.
+		 */
+		void read(SharedPreferences p, String key) {
+			boolean all = key == null;
+			if (all || key.equals("backgroundColor")) {
+				backgroundColor = p.getInt("backgroundColor", 0);
+			}
+			if (all || key.equals("linesColor")) {
+				linesColor = p.getInt("linesColor", -1);
+			}
+			if (all || key.equals("blur")) {
+				blur = p.getInt("blur", 127);
+			}
+			if (all || key.equals("brightness")) {
+				brightness = p.getInt("brightness", 127);
+			}
+			if (all || key.equals("linewidth")) {
+				lineWidth = p.getInt("linewidth", 127);
+			}
+			if (all || key.equals("rotationspeed")) {
+				rotationSpeed = p.getInt("rotationspeed", 127);
+			}
+			if (all || key.equals("speed")) {
+				speed = p.getInt("speed", 127);
+			}
+			if (all || key.equals("line_count_min")) {
+				minLineCount = p.getInt("line_count_min", 32);
+			}
+			if (all || key.equals("line_count_max")) {
+				maxLineCount = p.getInt("line_count_max", 127);
+			}
+			if (all || key.equals("adaptive_line_count")) {
+				adaptiveLineCount = p.getBoolean("adaptive_line_count", true);
+			}
+			if (all || key.equals("dynamic_resolution")) {
+				dynamicResolution = p.getBoolean("dynamic_resolution", false);
+			}
+			if (all || key.equals("use_smaller_textures")) {
+				useSmallerTextures = p.getBoolean("use_smaller_textures",
+						false);
+			}
+			if (all || key.equals("use_non_power_of_two_textures")) {
+				useNonPowerOfTwoTextures = p.getBoolean(
+						"use_non_power_of_two_textures", false);
+			}
+			if (all || key.equals("use_non_square_textures")) {
+				useNonSquareTextures = p.getBoolean("use_non_square_textures",
+						false);
+			}
+			if (all || key.equals("use_one_framebuffer")) {
+				useOneFramebuffer = p.getBoolean("use_one_framebuffer", false);
+			}
+			if (all || key.equals("use_client_arrays")) {
+				useClientArrays = p.getBoolean("use_client_arrays", false);
+			}
+			if (all || key.equals("feedback_format")) {
+				feedbackFormat = FeedbackFormat.fromString(p.getString(
+						"feedback_format", "rgba8888"));
+			}
+			if (all || key.equals("gpu_profiling")) {
+				gpuProfiling = GpuProfiler.modeFromString(p.getString(
+						"gpu_profiling", "off"));
+			}
+		}
+
+		/*
+		 * Sets an integer setting by its preference key. Returns false for
+		 * unknown keys and keys of other types.
+		 */
+		boolean set(String key, int value) {
+			if (key.equals("backgroundColor")) {
+				backgroundColor = value;
+			} else if (key.equals("linesColor")) {
+				linesColor = value;
+			} else if (key.equals("blur")) {
+				blur = value;
+			} else if (key.equals("brightness")) {
+				brightness = value;
+			} else if (key.equals("linewidth")) {
+				lineWidth = value;
+			} else if (key.equals("rotationspeed")) {
+				rotationSpeed = value;
+			} else if (key.equals("speed")) {
+				speed = value;
+			} else if (key.equals("line_count_min")) {
+				minLineCount = value;
+			} else if (key.equals("line_count_max")) {
+				maxLineCount = value;
+			} else {
+				return false;
+			}
+			return true;
+		}
+
+		RendererSettings build() {
+			return new RendererSettings(this);
+		}
+	}
+
+	private RendererSettings(Builder b) {
+		backgroundColor = b.backgroundColor;
+		linesColor = b.linesColor;
+		blur = b.blur;
+		brightness = b.brightness;
+		lineWidth = b.lineWidth;
+		rotationSpeed = b.rotationSpeed;
+		speed = b.speed;
+		minLineCount = b.minLineCount;
+		maxLineCount = b.maxLineCount;
+		adaptiveLineCount = b.adaptiveLineCount;
+		dynamicResolution = b.dynamicResolution;
+		useSmallerTextures = b.useSmallerTextures;
+		useNonPowerOfTwoTextures = b.useNonPowerOfTwoTextures;
+		useNonSquareTextures = b.useNonSquareTextures;
+		useOneFramebuffer = b.useOneFramebuffer;
+		useClientArrays = b.useClientArrays;
+		feedbackFormat = b.feedbackFormat;
+		gpuProfiling = b.gpuProfiling;
+	}
+
+	/**
+	 * @param key
+	 *            the preference that changed, null to read all of them.
+	 * @return a snapshot with the preference re-read, or this one if nothing
+	 *         changed.
+	 */
+	public RendererSettings update(SharedPreferences preferences, String key) {
+		Builder builder = new Builder(this);
+		builder.read(preferences, key);
+		RendererSettings settings = builder.build();
+		return settings.diff(this) == 0 ? this : settings;
+	}
+
+	/**
+	 * @return a snapshot with an integer setting replaced by a value which is
+	 *         not persisted, or this one if the key is not an integer
+	 *         setting or the value is the same.
+	 */
+	public RendererSettings preview(String key, int value) {
+		Builder builder = new Builder(this);
+		if (!builder.set(key, value)) {
+			return this;
+		}
+		RendererSettings settings = builder.build();
+		return settings.diff(this) == 0 ? this : settings;
+	}
+
+	/**
+	 * @param previous
+	 *            the snapshot applied before, null if there is none.
+	 * @return the CHANGED_* flags of what differs from the previous snapshot.
+	 */
+	public int diff(RendererSettings previous) {
+		if (previous == null) {
+			return CHANGED_ALL;
+		}
+		int changes = 0;
+		if (backgroundColor != previous.backgroundColor
+				|| linesColor != previous.linesColor
+				|| blur != previous.blur
+				|| brightness != previous.brightness
+				|| lineWidth != previous.lineWidth
+				|| rotationSpeed != previous.rotationSpeed
+				|| speed != previous.speed
+				|| minLineCount != previous.minLineCount
+				|| maxLineCount != previous.maxLineCount
+				|| adaptiveLineCount != previous.adaptiveLineCount
+				|| dynamicResolution != previous.dynamicResolution
+				|| gpuProfiling != previous.gpuProfiling) {
+			changes |= CHANGED_VALUES;
+		}
+		if (useSmallerTextures != previous.useSmallerTextures
+				|| useNonPowerOfTwoTextures != previous.useNonPowerOfTwoTextures
+				|| useNonSquareTextures != previous.useNonSquareTextures) {
+			changes |= CHANGED_TARGET_SIZE;
+		}
+		if (useOneFramebuffer != previous.useOneFramebuffer) {
+			changes |= CHANGED_FRAMEBUFFER_COUNT;
+		}
+		if (feedbackFormat != previous.feedbackFormat) {
+			changes |= CHANGED_FEEDBACK_FORMAT;
+		}
+		if (useClientArrays != previous.useClientArrays) {
+			changes |= CHANGED_VERTEX_BUFFERS;
+		}
+		return changes;
+	}
+}
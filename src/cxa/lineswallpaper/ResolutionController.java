@@ -0,0 +1,71 @@
+package cxa.lineswallpaper;
+
+/**
+ * Picks the render scale of the feedback framebuffers from the measured frame
+ * time. Steps down quickly when frames run over budget and only steps back up
+ * after the frame time stayed comfortably within budget for several windows,
+ * so the scale does not flap between two levels.
+ */
+class ResolutionController {
+	private static final float[] SCALES = { 1.0f, 0.85f, 0.7f, 0.6f, 0.5f };
+
+	// Frames averaged before a decision is made.
+	private static final int WINDOW = 30;
+	private static final float DOWN_THRESHOLD = 1.2f;
+	private static final float UP_THRESHOLD = 1.02f;
+	// Consecutive good windows needed before the scale goes up again.
+	private static final int UP_WINDOWS = 4;
+
+	private int level_ = 0;
+	private float frameBudget_ = 1000.0f / 60.0f;
+	private int frames_ = 0;
+	private float frameTimeSum_ = 0.0f;
+	private int goodWindows_ = 0;
+
+	public void setFrameBudget(float frameBudget) {
+		frameBudget_ = frameBudget;
+	}
+
+	/**
+	 * Feeds the time of the last frame.
+	 *
+	 * @return true if the render scale changed.
+	 */
+	public boolean update(float frameTime) {
+		frameTimeSum_ += frameTime;
+		if (++frames_ < WINDOW) {
+			return false;
+		}
+		float average = frameTimeSum_ / frames_;
+		frames_ = 0;
+		frameTimeSum_ = 0.0f;
+
+		if (average > frameBudget_ * DOWN_THRESHOLD) {
+			goodWindows_ = 0;
+			if (level_ < SCALES.length - 1) {
+				++level_;
+				return true;
+			}
+		} else if (average < frameBudget_ * UP_THRESHOLD) {
+			if (++goodWindows_ >= UP_WINDOWS && level_ > 0) {
+				goodWindows_ = 0;
+				--level_;
+				return true;
+			}
+		} else {
+			goodWindows_ = 0;
+		}
+		return false;
+	}
+
+	public float getScale() {
+		return SCALES[level_];
+	}
+
+	public void reset() {
+		level_ = 0;
+		frames_ = 0;
+		frameTimeSum_ = 0.0f;
+		goodWindows_ = 0;
+	}
+}
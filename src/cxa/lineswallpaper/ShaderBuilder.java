@@ -0,0 +1,35 @@
+package cxa.lineswallpaper;
+
+/**
+ * Generates shader variants from one source by prepending preprocessor
+ * defines, so the variants only differ in #ifdef blocks and precision macros.
+ */
+class ShaderBuilder {
+	private final String source_;
+	private final StringBuilder defines_ = new StringBuilder();
+
+	public ShaderBuilder(String source) {
+		source_ = source;
+	}
+
+	public ShaderBuilder define(String name) {
+		return define(name, "1");
+	}
+
+	public ShaderBuilder define(String name, String value) {
+		defines_.append("#define ").append(name).append(' ').append(value)
+				.append('\n');
+		return this;
+	}
+
+	/**
+	 * Defines name only if enabled is set, for use with #ifdef.
+	 */
+	public ShaderBuilder define(String name, boolean enabled) {
+		return enabled ? define(name) : this;
+	}
+
+	public String build() {
+		return defines_.toString() + source_;
+	}
+}
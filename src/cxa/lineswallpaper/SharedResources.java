@@ -0,0 +1,220 @@
+package cxa.lineswallpaper;
+
+import java.util.ArrayList;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLContext;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+/**
+ * GL objects shared by all renderers of the process. All contexts created by
+ * the wallpaper share one EGL share group, so the preview and the home screen
+ * engine can use the same programs and static vertex buffers instead of
+ * building their own copies. Objects are reference counted by key and
+ * deleted once no renderer uses them. Render targets are not shared.
+ *
+ * Program objects carry their uniform values, so renderers sharing them must
+ * not draw at the same time: frames are serialized with
+ * {@link #beginFrame(Object)} and {@link #endFrame()}, and a renderer has to
+ * forget its cached GL state when another renderer drew in between.
+ */
+class SharedResources {
+	private static String TAG = "SharedResources";
+
+	public static final int TYPE_PROGRAM = 0;
+	public static final int TYPE_BUFFER = 1;
+
+	private static SharedResources instance_;
+
+	private static class Entry {
+		String key_;
+		int type_;
+		int name_;
+		int refs_;
+	}
+
+	// live contexts of the share group
+	private final ArrayList<EGLContext> contexts_ = new ArrayList<EGLContext>();
+	// incremented whenever the share group dies with all its objects
+	private int generation_ = 0;
+
+	private final ArrayList<Entry> entries_ = new ArrayList<Entry>();
+	// unused objects, deleted the next time a group context is current
+	private final ArrayList<Entry> pending_ = new ArrayList<Entry>();
+
+	private Object frameOwner_ = null;
+	private Object lastFrameOwner_ = null;
+	private int renderers_ = 0;
+
+	private LineGeometry lineGeometry_;
+
+	public static synchronized SharedResources getInstance() {
+		if (instance_ == null) {
+			instance_ = new SharedResources();
+		}
+		return instance_;
+	}
+
+	/**
+	 * @return a context of the share group to create a new context with, or
+	 *         EGL_NO_CONTEXT if there is none yet.
+	 */
+	public synchronized EGLContext getShareContext() {
+		return contexts_.isEmpty() ? EGL10.EGL_NO_CONTEXT : contexts_.get(0);
+	}
+
+	public synchronized void onContextCreated(EGLContext context) {
+		contexts_.add(context);
+	}
+
+	public synchronized void onContextDestroyed(EGLContext context) {
+		if (contexts_.remove(context) && contexts_.isEmpty()) {
+			// the objects died with the last context
+			entries_.clear();
+			pending_.clear();
+			++generation_;
+		}
+	}
+
+	/**
+	 * @return whether the current context belongs to the share group.
+	 */
+	public synchronized boolean isCurrentContextShared() {
+		EGLContext current = ((EGL10) EGLContext.getEGL())
+				.eglGetCurrentContext();
+		return contexts_.contains(current);
+	}
+
+	public synchronized int getGeneration() {
+		return generation_;
+	}
+
+	/**
+	 * @return the object stored under key with its reference count
+	 *         incremented, or 0 if there is none. The caller then creates it
+	 *         and stores it with {@link #add(String, int, int)}.
+	 */
+	public synchronized int acquire(String key, int type) {
+		for (int i = 0; i < entries_.size(); ++i) {
+			Entry entry = entries_.get(i);
+			if (entry.type_ == type && entry.key_.equals(key)) {
+				++entry.refs_;
+				return entry.name_;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Stores a new object, the caller holds the first reference.
+	 */
+	public synchronized void add(String key, int type, int name) {
+		Entry entry = new Entry();
+		entry.key_ = key;
+		entry.type_ = type;
+		entry.name_ = name;
+		entry.refs_ = 1;
+		entries_.add(entry);
+	}
+
+	/**
+	 * Drops a reference. References acquired in an earlier generation are
+	 * ignored, their objects are gone already.
+	 */
+	public synchronized void release(int type, int name, int generation) {
+		if (name == 0 || generation != generation_) {
+			return;
+		}
+		for (int i = 0; i < entries_.size(); ++i) {
+			Entry entry = entries_.get(i);
+			if (entry.type_ == type && entry.name_ == name) {
+				if (--entry.refs_ == 0) {
+					entries_.remove(i);
+					pending_.add(entry);
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Deletes the objects nobody uses anymore. Must be called with a context
+	 * of the share group current.
+	 */
+	public synchronized void deletePending() {
+		int[] names = new int[1];
+		for (int i = 0; i < pending_.size(); ++i) {
+			Entry entry = pending_.get(i);
+			names[0] = entry.name_;
+			if (entry.type_ == TYPE_PROGRAM) {
+				GLES20.glDeleteProgram(entry.name_);
+			} else {
+				GLES20.glDeleteBuffers(1, names, 0);
+			}
+		}
+		pending_.clear();
+	}
+
+	public synchronized void addRenderer() {
+		++renderers_;
+	}
+
+	public synchronized void removeRenderer(Object renderer) {
+		--renderers_;
+		if (lastFrameOwner_ == renderer) {
+			lastFrameOwner_ = null;
+		}
+	}
+
+	/**
+	 * @return whether more than one renderer uses the shared objects.
+	 */
+	public synchronized boolean isShared() {
+		return renderers_ > 1;
+	}
+
+	/**
+	 * Waits until no other renderer is inside a frame.
+	 *
+	 * @return true if another renderer drew since the last frame of this
+	 *         one, so GL state cached by the renderer may be stale.
+	 */
+	public synchronized boolean beginFrame(Object renderer) {
+		boolean interrupted = false;
+		while (frameOwner_ != null) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		frameOwner_ = renderer;
+		boolean stale = lastFrameOwner_ != renderer;
+		lastFrameOwner_ = renderer;
+		return stale;
+	}
+
+	public synchronized void endFrame() {
+		frameOwner_ = null;
+		notifyAll();
+	}
+
+	/**
+	 * @return the line geometry all renderers draw, created on first use or
+	 *         when the seed, count or format changes.
+	 */
+	public synchronized LineGeometry getLineGeometry(long seed, int count,
+			int format) {
+		if (lineGeometry_ == null
+				|| !lineGeometry_.matches(seed, count, format)) {
+			lineGeometry_ = new LineGeometry(seed, count, format);
+			Log.i(TAG, "created " + count + " line vertices, seed " + seed);
+		}
+		return lineGeometry_;
+	}
+}
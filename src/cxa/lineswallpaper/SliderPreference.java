@@ -1,6 +1,7 @@
 package cxa.lineswallpaper;
 
 import android.content.Context;
+import android.content.res.TypedArray;
 import android.preference.DialogPreference;
 import android.util.AttributeSet;
 import android.view.View;
@@ -12,6 +13,8 @@ public class SliderPreference extends DialogPreference implements
 	private SeekBar seekBar_;
 	private TextView valueText_;
 	private int value_ = 127;
+	// persisted value, restored when the dialog is cancelled
+	private int savedValue_ = 127;
 
 	public SliderPreference(Context context, AttributeSet attrs) {
 		super(context, attrs);
@@ -23,6 +26,7 @@ public class SliderPreference extends DialogPreference implements
 	@Override
 	protected void onBindDialogView(View view) {
 		super.onBindDialogView(view);
+		this.savedValue_ = value_;
 		this.seekBar_ = (SeekBar) view.findViewById(R.id.data);
 		this.seekBar_.setProgress(value_);
 		this.seekBar_.setOnSeekBarChangeListener(this);
@@ -31,29 +35,36 @@ public class SliderPreference extends DialogPreference implements
 		this.valueText_.setText(Integer.toString(value_));
 	}
 
+	@Override
+	protected Object onGetDefaultValue(TypedArray a, int index) {
+		return a.getInt(index, 127);
+	}
+
 	@Override
 	protected void onSetInitialValue(boolean restore, Object defaultValue) {
 		super.onSetInitialValue(restore, defaultValue);
 
-		final int value = restore ? this.getPersistedInt(defaultValue == null ? 127
-				: (Integer) defaultValue) : 127;
-		this.value_ = value;		
+		final int def = defaultValue == null ? 127 : (Integer) defaultValue;
+		this.value_ = restore ? this.getPersistedInt(def) : def;
 	}
 
 	public void onProgressChanged(SeekBar seek, int value, boolean fromTouch) {
 		value_ = value;
 		valueText_.setText(String.valueOf(value));
 		callChangeListener(new Integer(value));
+		LiveSettings.getInstance().preview(getKey(), value);
 	}
 
 	@Override
 	protected void onDialogClosed(final boolean positiveResult) {
 		super.onDialogClosed(positiveResult);
 
-		if (positiveResult) {
-			if (this.callChangeListener(value_)) {
-				this.persistInt(value_);
-			}
+		if (positiveResult && this.callChangeListener(value_)) {
+			LiveSettings.getInstance().commit(getSharedPreferences(),
+					getKey(), value_);
+		} else {
+			value_ = savedValue_;
+			LiveSettings.getInstance().cancel(getKey());
 		}
 	}
 
@@ -0,0 +1,81 @@
+package cxa.lineswallpaper;
+
+/**
+ * Fixed size histogram of durations. Buckets are {@link #BUCKET_MS} wide,
+ * samples beyond the last bucket are counted in it. Recording does not
+ * allocate, so it can be done every frame.
+ *
+ * Samples are recorded on the GL thread and read from the main thread.
+ */
+class TimingHistogram {
+	public static final float BUCKET_MS = 0.25f;
+	public static final int BUCKET_COUNT = 128;
+
+	private final int[] buckets_ = new int[BUCKET_COUNT];
+	private int count_ = 0;
+	private double sumMs_ = 0.0;
+	private float maxMs_ = 0.0f;
+
+	public synchronized void record(float ms) {
+		int bucket = (int) (ms / BUCKET_MS);
+		if (bucket < 0) {
+			bucket = 0;
+		} else if (bucket >= BUCKET_COUNT) {
+			bucket = BUCKET_COUNT - 1;
+		}
+		++buckets_[bucket];
+		++count_;
+		sumMs_ += ms;
+		if (ms > maxMs_) {
+			maxMs_ = ms;
+		}
+	}
+
+	public synchronized void clear() {
+		for (int i = 0; i < BUCKET_COUNT; ++i) {
+			buckets_[i] = 0;
+		}
+		count_ = 0;
+		sumMs_ = 0.0;
+		maxMs_ = 0.0f;
+	}
+
+	public synchronized int getCount() {
+		return count_;
+	}
+
+	public synchronized float getMean() {
+		return count_ > 0 ? (float) (sumMs_ / count_) : 0.0f;
+	}
+
+	public synchronized float getMax() {
+		return maxMs_;
+	}
+
+	/**
+	 * @param fraction
+	 *            0.5 for the median, 0.95 for the 95th percentile etc.
+	 * @return upper bound of the bucket holding the percentile, in ms.
+	 */
+	public synchronized float getPercentile(float fraction) {
+		if (count_ == 0) {
+			return 0.0f;
+		}
+		int target = (int) Math.ceil(fraction * count_);
+		int seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; ++i) {
+			seen += buckets_[i];
+			if (seen >= target) {
+				return Math.min((i + 1) * BUCKET_MS, maxMs_);
+			}
+		}
+		return maxMs_;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("n=%d mean=%.2f p50=%.2f p95=%.2f max=%.2f ms",
+				count_, getMean(), getPercentile(0.5f),
+				getPercentile(0.95f), maxMs_);
+	}
+}
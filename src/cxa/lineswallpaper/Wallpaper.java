@@ -25,15 +25,30 @@ public class Wallpaper extends GLWallpaperService {
 			Log.w(TAG, "creating OpenGL ES 2.0 context");
 			checkEglError("Before eglCreateContext", egl);
 			int[] attrib_list = { EGL_CONTEXT_CLIENT_VERSION, 2, EGL10.EGL_NONE };
-			EGLContext context = egl.eglCreateContext(display, eglConfig,
-					EGL10.EGL_NO_CONTEXT, attrib_list);
-			checkEglError("After eglCreateContext", egl);
-			return context;
+			// all engines share programs and buffers, see SharedResources
+			SharedResources shared = SharedResources.getInstance();
+			synchronized (shared) {
+				EGLContext shareContext = shared.getShareContext();
+				EGLContext context = egl.eglCreateContext(display, eglConfig,
+						shareContext, attrib_list);
+				checkEglError("After eglCreateContext", egl);
+				if (context != null && context != EGL10.EGL_NO_CONTEXT) {
+					shared.onContextCreated(context);
+				} else if (shareContext != EGL10.EGL_NO_CONTEXT) {
+					// the renderer notices and keeps its objects private
+					Log.w(TAG, "could not create shared context");
+					context = egl.eglCreateContext(display, eglConfig,
+							EGL10.EGL_NO_CONTEXT, attrib_list);
+					checkEglError("After eglCreateContext", egl);
+				}
+				return context;
+			}
 		}
 
 		public void destroyContext(EGL10 egl, EGLDisplay display,
 				EGLContext context) {
 			egl.eglDestroyContext(display, context);
+			SharedResources.getInstance().onContextDestroyed(context);
 		}
 	}
 
@@ -215,17 +230,125 @@ public class Wallpaper extends GLWallpaperService {
 		private int[] mValue = new int[1];
 	}
 
-	class WallpaperEngine extends GLWallpaperService.GLEngine {
+	class WallpaperEngine extends GLWallpaperService.GLEngine implements
+			SharedPreferences.OnSharedPreferenceChangeListener,
+			RenderGovernor.Listener, LiveSettings.Listener {
+		private SharedPreferences preferences_;
+		private GLES20LinesRenderer renderer_;
+		private RenderGovernor governor_;
+		private RenderQuality quality_ = RenderQuality.FULL;
+		private int frameRate_ = 60;
+
+		// Keys of the events which hand values to the renderer, a newer
+		// value replaces one the GL thread has not picked up yet
+		private static final String QUALITY_EVENT = "quality";
+		private static final String FRAME_RATE_EVENT = "frame_rate";
+		private static final String IDLE_EVENT = "idle";
+
 		public WallpaperEngine(SharedPreferences preferences) {
 			super();
 
 			setEGLContextFactory(new ContextFactory());
 			setEGLConfigChooser(new ConfigChooser(5, 6, 5, 0, 16, 0));
+			// opening an app must not cost the shaders and the trail
+			setPreserveEGLContextOnPause(true);
 
-			GLES20LinesRenderer renderer = new GLES20LinesRenderer(null);
-			renderer.setSharedPreferences(preferences);
-			setRenderer(renderer);
+			renderer_ = new GLES20LinesRenderer(Wallpaper.this);
+			renderer_.setSharedPreferences(preferences);
+			setRenderer(renderer_);
 			setRenderMode(RENDERMODE_CONTINUOUSLY);
+
+			preferences_ = preferences;
+			preferences_.registerOnSharedPreferenceChangeListener(this);
+			onSharedPreferenceChanged(preferences_, null);
+
+			governor_ = new RenderGovernor(new DevicePowerSignalSource(
+					Wallpaper.this), this);
+			governor_.start();
+
+			LiveSettings.getInstance().addListener(this);
+		}
+
+		@Override
+		public void onDestroy() {
+			LiveSettings.getInstance().removeListener(this);
+			governor_.stop();
+			preferences_.unregisterOnSharedPreferenceChangeListener(this);
+			// removes the engine from the GL thread, the renderer deletes
+			// its GL objects there
+			super.onDestroy();
+			renderer_.release();
+		}
+
+		public void onRenderQualityChanged(RenderQuality quality) {
+			if (DEBUG) {
+				Log.i(TAG, "power " + governor_.getPowerState() + ": "
+						+ quality);
+			}
+			quality_ = quality;
+			final float lineCountScale = quality.lineCountScale;
+			final float resolutionScale = quality.resolutionScale;
+			queueEvent(QUALITY_EVENT, new Runnable() {
+				public void run() {
+					renderer_.setQualityLimits(lineCountScale, resolutionScale);
+				}
+			});
+			applyFrameRate();
+		}
+
+		@Override
+		protected void onIdleChanged(final boolean idle) {
+			queueEvent(IDLE_EVENT, new Runnable() {
+				public void run() {
+					renderer_.setContinuous(!idle);
+				}
+			});
+		}
+
+		public void onPreview(String key, int value) {
+			renderer_.previewSetting(key, value);
+			// also shows the change while idle
+			requestRender();
+		}
+
+		public void onPreviewEnded(String key) {
+			renderer_.endPreview(key);
+			requestRender();
+		}
+
+		private void applyFrameRate() {
+			final int frameRate = quality_.limitFrameRate(frameRate_);
+			setTargetFrameRate(frameRate);
+			queueEvent(FRAME_RATE_EVENT, new Runnable() {
+				public void run() {
+					renderer_.setTargetFrameRate(frameRate);
+				}
+			});
+		}
+
+		public void onSharedPreferenceChanged(
+				SharedPreferences sharedPreferences, String key) {
+			if (key == null || key.equals("frame_rate")) {
+				int frameRate = 60;
+				try {
+					frameRate = Integer.parseInt(sharedPreferences.getString(
+							"frame_rate", "60"));
+				} catch (final Exception e) {
+					Log.e(TAG, "PREF frame_rate error: " + e);
+				}
+				frameRate_ = frameRate;
+				applyFrameRate();
+			}
+			if (key == null || key.equals("idle_timeout")) {
+				long idleTimeout = 0;
+				try {
+					idleTimeout = 1000L * Integer.parseInt(sharedPreferences
+							.getString("idle_timeout", "0"));
+				} catch (final Exception e) {
+					Log.e(TAG, "PREF idle_timeout error: " + e);
+				}
+				setIdleTimeout(idleTimeout);
+			}
 		}
 	}
 
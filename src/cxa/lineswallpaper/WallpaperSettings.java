@@ -2,10 +2,13 @@ package cxa.lineswallpaper;
 
 import android.content.SharedPreferences;
 import android.os.Bundle;
+import android.preference.Preference;
 import android.preference.PreferenceActivity;
 
 public class WallpaperSettings extends PreferenceActivity implements
 		SharedPreferences.OnSharedPreferenceChangeListener {
+	private Preference gpuProfile_;
+	private CharSequence gpuProfileSummary_;
 
 	@Override
 	protected void onCreate(Bundle icicle) {
@@ -15,11 +18,31 @@ public class WallpaperSettings extends PreferenceActivity implements
 		addPreferencesFromResource(R.xml.settings);
 		getPreferenceManager().getSharedPreferences()
 				.registerOnSharedPreferenceChangeListener(this);
+
+		gpuProfile_ = findPreference("gpu_profile");
+		gpuProfileSummary_ = gpuProfile_.getSummary();
+		gpuProfile_
+				.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+					public boolean onPreferenceClick(Preference preference) {
+						updateGpuProfile();
+						return true;
+					}
+				});
 	}
 
 	@Override
 	protected void onResume() {
 		super.onResume();
+		updateGpuProfile();
+	}
+
+	private void updateGpuProfile() {
+		String report = GpuProfiler.getReport();
+		if (report != null) {
+			gpuProfile_.setSummary(report);
+		} else {
+			gpuProfile_.setSummary(gpuProfileSummary_);
+		}
 	}
 
 	@Override
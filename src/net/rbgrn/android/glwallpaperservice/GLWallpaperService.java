@@ -18,6 +18,8 @@ package net.rbgrn.android.glwallpaperservice;
 
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.microedition.khronos.egl.EGL10;
 import javax.microedition.khronos.egl.EGL11;
@@ -28,10 +30,14 @@ import javax.microedition.khronos.egl.EGLSurface;
 import javax.microedition.khronos.opengles.GL;
 import javax.microedition.khronos.opengles.GL10;
 
+import android.opengl.EGL14;
+import android.os.Build;
+import android.os.Handler;
 import net.rbgrn.android.glwallpaperservice.BaseConfigChooser.ComponentSizeChooser;
 import net.rbgrn.android.glwallpaperservice.BaseConfigChooser.SimpleEGLConfigChooser;
 import android.service.wallpaper.WallpaperService;
 import android.util.Log;
+import android.view.MotionEvent;
 import android.view.SurfaceHolder;
 
 // Original code provided by Robert Green
@@ -48,12 +54,24 @@ public class GLWallpaperService extends WallpaperService {
 		public final static int RENDERMODE_WHEN_DIRTY = 0;
 		public final static int RENDERMODE_CONTINUOUSLY = 1;
 
-		private GLThread mGLThread;
+		private RenderClient mRenderClient;
 		private EGLConfigChooser mEGLConfigChooser;
 		private EGLContextFactory mEGLContextFactory;
 		private EGLWindowSurfaceFactory mEGLWindowSurfaceFactory;
 		private GLWrapper mGLWrapper;
 		private int mDebugFlags;
+		private boolean mPreserveEGLContextOnPause = false;
+
+		// Idle detection, only touched on the main thread.
+		private final Handler mHandler = new Handler();
+		private long mIdleTimeout = 0;
+		private boolean mIdle = false;
+		private int mRenderMode = RENDERMODE_CONTINUOUSLY;
+		private final Runnable mEnterIdle = new Runnable() {
+			public void run() {
+				enterIdle();
+			}
+		};
 
 		public GLEngine() {
 			super();
@@ -63,43 +81,60 @@ public class GLWallpaperService extends WallpaperService {
 		public void onVisibilityChanged(boolean visible) {
 			if (visible) {
 				onResume();
+				onUserActivity();
 			} else {
+				mHandler.removeCallbacks(mEnterIdle);
 				onPause();
 			}
 			super.onVisibilityChanged(visible);
 		}
 
+		@Override
+		public void onTouchEvent(MotionEvent event) {
+			onUserActivity();
+			super.onTouchEvent(event);
+		}
+
+		@Override
+		public void onOffsetsChanged(float xOffset, float yOffset, float xOffsetStep, float yOffsetStep,
+				int xPixelOffset, int yPixelOffset) {
+			onUserActivity();
+			super.onOffsetsChanged(xOffset, yOffset, xOffsetStep, yOffsetStep, xPixelOffset, yPixelOffset);
+		}
+
 		@Override
 		public void onCreate(SurfaceHolder surfaceHolder) {
 			super.onCreate(surfaceHolder);
 			// Log.d(TAG, "GLEngine.onCreate()");
+			setTouchEventsEnabled(mIdleTimeout > 0);
 		}
 
 		@Override
 		public void onDestroy() {
 			super.onDestroy();
 			// Log.d(TAG, "GLEngine.onDestroy()");
-			mGLThread.requestExitAndWait();
+			mHandler.removeCallbacks(mEnterIdle);
+			mRenderClient.requestExitAndWait();
 		}
 
 		@Override
 		public void onSurfaceChanged(SurfaceHolder holder, int format, int width, int height) {
 			// Log.d(TAG, "onSurfaceChanged()");
-			mGLThread.onWindowResize(width, height);
+			mRenderClient.onWindowResize(width, height);
 			super.onSurfaceChanged(holder, format, width, height);
 		}
 
 		@Override
 		public void onSurfaceCreated(SurfaceHolder holder) {
 			Log.d(TAG, "onSurfaceCreated()");
-			mGLThread.surfaceCreated(holder);
+			mRenderClient.surfaceCreated(holder);
 			super.onSurfaceCreated(holder);
 		}
 
 		@Override
 		public void onSurfaceDestroyed(SurfaceHolder holder) {
 			Log.d(TAG, "onSurfaceDestroyed()");
-			mGLThread.surfaceDestroyed();
+			mRenderClient.surfaceDestroyed();
 			super.onSurfaceDestroyed(holder);
 		}
 
@@ -129,8 +164,9 @@ public class GLWallpaperService extends WallpaperService {
 			if (mEGLWindowSurfaceFactory == null) {
 				mEGLWindowSurfaceFactory = new DefaultWindowSurfaceFactory();
 			}
-			mGLThread = new GLThread(renderer, mEGLConfigChooser, mEGLContextFactory, mEGLWindowSurfaceFactory, mGLWrapper);
-			mGLThread.start();
+			mRenderClient = GLThread.register(renderer, mEGLConfigChooser, mEGLContextFactory,
+					mEGLWindowSurfaceFactory, mGLWrapper);
+			mRenderClient.setPreserveEGLContextOnPause(mPreserveEGLContextOnPause);
 		}
 
 		public void setEGLContextFactory(EGLContextFactory factory) {
@@ -158,32 +194,132 @@ public class GLWallpaperService extends WallpaperService {
 					stencilSize));
 		}
 
+		/**
+		 * Keeps the EGL context, and with it all programs, buffers and textures, while the wallpaper is not visible.
+		 * Only the window surface is released. If the context is lost anyway the renderer gets onSurfaceCreated()
+		 * again, otherwise resuming only calls onSurfaceChanged().
+		 */
+		public void setPreserveEGLContextOnPause(boolean preserveOnPause) {
+			mPreserveEGLContextOnPause = preserveOnPause;
+			if (mRenderClient != null) {
+				mRenderClient.setPreserveEGLContextOnPause(preserveOnPause);
+			}
+		}
+
+		public boolean getPreserveEGLContextOnPause() {
+			return mPreserveEGLContextOnPause;
+		}
+
 		public void setRenderMode(int renderMode) {
-			mGLThread.setRenderMode(renderMode);
+			mRenderMode = renderMode;
+			if (!mIdle) {
+				mRenderClient.setRenderMode(renderMode);
+			}
 		}
 
 		public int getRenderMode() {
-			return mGLThread.getRenderMode();
+			return mRenderMode;
+		}
+
+		/**
+		 * Enables idle detection. Once nothing touched the wallpaper for the given time, one more frame is rendered
+		 * and the engine is parked in RENDERMODE_WHEN_DIRTY. Touch, offset and visibility changes resume the
+		 * previous render mode.
+		 *
+		 * @param timeout
+		 * quiet period in milliseconds, 0 to never go idle.
+		 */
+		public void setIdleTimeout(long timeout) {
+			mIdleTimeout = timeout;
+			setTouchEventsEnabled(timeout > 0);
+			onUserActivity();
+		}
+
+		public boolean isIdle() {
+			return mIdle;
+		}
+
+		/**
+		 * Resets the idle timer and leaves idle mode.
+		 */
+		public void onUserActivity() {
+			mHandler.removeCallbacks(mEnterIdle);
+			if (mIdle) {
+				mIdle = false;
+				onIdleChanged(false);
+				mRenderClient.setRenderMode(mRenderMode);
+			}
+			if (mIdleTimeout > 0) {
+				mHandler.postDelayed(mEnterIdle, mIdleTimeout);
+			}
+		}
+
+		/**
+		 * Called on the main thread when the engine enters or leaves idle mode, before the render mode changes. While
+		 * idle, frames are only drawn on request, so their spacing says nothing about the frame time. Events queued
+		 * here run on the GL thread before the next frame.
+		 */
+		protected void onIdleChanged(boolean idle) {
+		}
+
+		private void enterIdle() {
+			if (mIdle || mRenderMode != RENDERMODE_CONTINUOUSLY) {
+				return;
+			}
+			mIdle = true;
+			onIdleChanged(true);
+			mRenderClient.setRenderMode(RENDERMODE_WHEN_DIRTY);
+			// one settled frame, after that the thread waits for work
+			mRenderClient.requestRender();
 		}
 
 		public void requestRender() {
-			mGLThread.requestRender();
+			mRenderClient.requestRender();
+		}
+
+		/**
+		 * Caps the frame rate in RENDERMODE_CONTINUOUSLY.
+		 *
+		 * @param frameRate
+		 * target frames per second, 0 to render as fast as vsync allows.
+		 */
+		public void setTargetFrameRate(int frameRate) {
+			mRenderClient.setTargetFrameRate(frameRate);
+		}
+
+		public int getTargetFrameRate() {
+			return mRenderClient.getTargetFrameRate();
+		}
+
+		/**
+		 * @return frames per second actually achieved over the last second.
+		 */
+		public float getActualFrameRate() {
+			return mRenderClient.getActualFrameRate();
 		}
 
 		public void onPause() {
-			mGLThread.onPause();
+			mRenderClient.onPause();
 		}
 
 		public void onResume() {
-			mGLThread.onResume();
+			mRenderClient.onResume();
 		}
 
 		public void queueEvent(Runnable r) {
-			mGLThread.queueEvent(r);
+			mRenderClient.queueEvent(r);
+		}
+
+		/**
+		 * Queues an event which supersedes any event with the same key that has not run yet, so bursts of updates
+		 * only apply the latest value.
+		 */
+		public void queueEvent(Object key, Runnable r) {
+			mRenderClient.queueEvent(key, r);
 		}
 
 		private void checkRenderThreadState() {
-			if (mGLThread != null) {
+			if (mRenderClient != null) {
 				throw new IllegalStateException("setRenderer has already been called for this instance.");
 			}
 		}
@@ -196,6 +332,13 @@ public class GLWallpaperService extends WallpaperService {
 		public void onSurfaceChanged(GL10 gl, int width, int height);
 
 		public void onDrawFrame(GL10 gl);
+
+		/**
+		 * Called on the render thread with the context current when the engine is removed. The context is shared
+		 * with the other engines and outlives this one, so GL objects the renderer created must be deleted here.
+		 * Not called if the context the renderer drew with is gone already, its objects went with it.
+		 */
+		public void onRelease(GL10 gl);
 	}
 }
 
@@ -288,29 +431,27 @@ class EglHelper {
 
 	private EGL10 mEgl;
 	private EGLDisplay mEglDisplay;
-	private EGLSurface mEglSurface;
+	private EGLSurface mCurrentSurface;
 	private EGLContext mEglContext;
 	EGLConfig mEglConfig;
 
 	private EGLConfigChooser mEGLConfigChooser;
 	private EGLContextFactory mEGLContextFactory;
 	private EGLWindowSurfaceFactory mEGLWindowSurfaceFactory;
-	private GLWrapper mGLWrapper;
 
 	public EglHelper(EGLConfigChooser chooser, EGLContextFactory contextFactory,
-			EGLWindowSurfaceFactory surfaceFactory, GLWrapper wrapper) {
+			EGLWindowSurfaceFactory surfaceFactory) {
 		this.mEGLConfigChooser = chooser;
 		this.mEGLContextFactory = contextFactory;
 		this.mEGLWindowSurfaceFactory = surfaceFactory;
-		this.mGLWrapper = wrapper;
 	}
 
 	/**
 	 * Initialize EGL for a given configuration spec.
 	 *
-	 * @param configSpec
+	 * @return true if a new context was created, false if the previous one is reused.
 	 */
-	public void start() {
+	public boolean start() {
 		// Log.d("EglHelper" + instanceId, "start()");
 		if (mEgl == null) {
 			// Log.d("EglHelper" + instanceId, "getting new EGL");
@@ -344,6 +485,7 @@ class EglHelper {
 			// Log.d("EglHelper" + instanceId, "reusing config");
 		}
 
+		boolean newContext = false;
 		if (mEglContext == null) {
 			// Log.d("EglHelper" + instanceId, "creating new context");
 			/*
@@ -353,67 +495,74 @@ class EglHelper {
 			if (mEglContext == null || mEglContext == EGL10.EGL_NO_CONTEXT) {
 				throw new RuntimeException("createContext failed");
 			}
+			newContext = true;
 		} else {
 			// Log.d("EglHelper" + instanceId, "reusing context");
 		}
+		return newContext;
+	}
 
-		mEglSurface = null;
+	public boolean hasContext() {
+		return mEglContext != null;
 	}
 
 	/*
-	 * React to the creation of a new surface by creating and returning an OpenGL interface that renders to that
-	 * surface.
+	 * React to the creation of a new surface by creating an EGL surface for it. Several window surfaces can exist at
+	 * the same time, they all share the one context.
 	 */
-	public GL createSurface(SurfaceHolder holder) {
-		/*
-		 * The window size has changed, so we need to create a new surface.
-		 */
-		if (mEglSurface != null && mEglSurface != EGL10.EGL_NO_SURFACE) {
-
-			/*
-			 * Unbind and destroy the old EGL surface, if there is one.
-			 */
-			mEgl.eglMakeCurrent(mEglDisplay, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_CONTEXT);
-			mEGLWindowSurfaceFactory.destroySurface(mEgl, mEglDisplay, mEglSurface);
-		}
-
+	public EGLSurface createSurface(SurfaceHolder holder) {
 		/*
 		 * Create an EGL surface we can render into.
 		 */
-		mEglSurface = mEGLWindowSurfaceFactory.createWindowSurface(mEgl, mEglDisplay, mEglConfig, holder);
+		EGLSurface surface = mEGLWindowSurfaceFactory.createWindowSurface(mEgl, mEglDisplay, mEglConfig, holder);
 
-		if (mEglSurface == null || mEglSurface == EGL10.EGL_NO_SURFACE) {
+		if (surface == null || surface == EGL10.EGL_NO_SURFACE) {
 			throw new RuntimeException("createWindowSurface failed");
 		}
+		return surface;
+	}
 
+	/**
+	 * Binds the context to the given surface and returns an OpenGL interface that renders to it.
+	 */
+	public GL makeCurrent(EGLSurface surface, GLWrapper wrapper) {
 		/*
 		 * Before we can issue GL commands, we need to make sure the context is current and bound to a surface.
 		 */
-		if (!mEgl.eglMakeCurrent(mEglDisplay, mEglSurface, mEglSurface, mEglContext)) {
-			throw new RuntimeException("eglMakeCurrent failed.");
+		if (surface != mCurrentSurface) {
+			if (!mEgl.eglMakeCurrent(mEglDisplay, surface, surface, mEglContext)) {
+				throw new RuntimeException("eglMakeCurrent failed.");
+			}
+			mCurrentSurface = surface;
 		}
 
 		GL gl = mEglContext.getGL();
-		if (mGLWrapper != null) {
-			gl = mGLWrapper.wrap(gl);
+		if (wrapper != null) {
+			gl = wrapper.wrap(gl);
 		}
-
-		/*
-		 * if ((mDebugFlags & (DEBUG_CHECK_GL_ERROR | DEBUG_LOG_GL_CALLS))!= 0) { int configFlags = 0; Writer log =
-		 * null; if ((mDebugFlags & DEBUG_CHECK_GL_ERROR) != 0) { configFlags |= GLDebugHelper.CONFIG_CHECK_GL_ERROR; }
-		 * if ((mDebugFlags & DEBUG_LOG_GL_CALLS) != 0) { log = new LogWriter(); } gl = GLDebugHelper.wrap(gl,
-		 * configFlags, log); }
-		 */
 		return gl;
 	}
 
 	/**
-	 * Display the current render surface.
+	 * Sets the minimum number of vsync periods between two swaps of the current surface.
+	 */
+	public void setSwapInterval(int interval) {
+		if (mCurrentSurface == null) {
+			return;
+		}
+		// eglSwapInterval is not part of the EGL10 bindings.
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+			EGL14.eglSwapInterval(EGL14.eglGetCurrentDisplay(), interval);
+		}
+	}
+
+	/**
+	 * Display the given render surface.
 	 *
 	 * @return false if the context has been lost.
 	 */
-	public boolean swap() {
-		mEgl.eglSwapBuffers(mEglDisplay, mEglSurface);
+	public boolean swap(EGLSurface surface) {
+		mEgl.eglSwapBuffers(mEglDisplay, surface);
 
 		/*
 		 * Always check for EGL_CONTEXT_LOST, which means the context and all associated data were lost (For instance
@@ -422,73 +571,103 @@ class EglHelper {
 		return mEgl.eglGetError() != EGL11.EGL_CONTEXT_LOST;
 	}
 
-	public void destroySurface() {
-		if (mEglSurface != null && mEglSurface != EGL10.EGL_NO_SURFACE) {
+	public void destroySurface(EGLSurface surface) {
+		if (surface == mCurrentSurface) {
 			mEgl.eglMakeCurrent(mEglDisplay, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_CONTEXT);
-			mEGLWindowSurfaceFactory.destroySurface(mEgl, mEglDisplay, mEglSurface);
-			mEglSurface = null;
+			mCurrentSurface = null;
 		}
+		mEGLWindowSurfaceFactory.destroySurface(mEgl, mEglDisplay, surface);
 	}
 
-	public void finish() {
+	/**
+	 * @return a 1x1 pbuffer to make the context current without a window, or null if the config has no pbuffers.
+	 */
+	public EGLSurface createPbufferSurface() {
+		EGLSurface surface = mEgl.eglCreatePbufferSurface(mEglDisplay, mEglConfig, new int[] { EGL10.EGL_WIDTH, 1,
+				EGL10.EGL_HEIGHT, 1, EGL10.EGL_NONE });
+		if (surface == null || surface == EGL10.EGL_NO_SURFACE) {
+			return null;
+		}
+		return surface;
+	}
+
+	public void destroyPbufferSurface(EGLSurface surface) {
+		if (surface == mCurrentSurface) {
+			mEgl.eglMakeCurrent(mEglDisplay, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_CONTEXT);
+			mCurrentSurface = null;
+		}
+		mEgl.eglDestroySurface(mEglDisplay, surface);
+	}
+
+	/**
+	 * Destroys the context but keeps the display, the next start() creates a new context. All surfaces must have
+	 * been destroyed before.
+	 */
+	public void destroyContext() {
 		if (mEglContext != null) {
 			mEGLContextFactory.destroyContext(mEgl, mEglDisplay, mEglContext);
 			mEglContext = null;
 		}
+	}
+
+	public void finish() {
+		destroyContext();
 		if (mEglDisplay != null) {
 			mEgl.eglTerminate(mEglDisplay);
 			mEglDisplay = null;
+			mEglConfig = null;
 		}
 	}
 }
 
+/**
+ * The one render thread of the process. It owns a single EGL context and a window surface per engine, and renders
+ * the engines which are visible and due one after the other. Engines which are paused or have no surface cost
+ * nothing but a list entry; the thread exits once the last engine is gone.
+ *
+ * All engines render with the context created by the EGL factories of the engine that started the thread.
+ */
 class GLThread extends Thread {
 	private final static boolean LOG_THREADS = false;
 	public final static int DEBUG_CHECK_GL_ERROR = 1;
 	public final static int DEBUG_LOG_GL_CALLS = 2;
 
-	private final GLThreadManager sGLThreadManager = new GLThreadManager();
-	private GLThread mEglOwner;
+	// Process wide monitor guarding the render thread and the state of all
+	// its clients.
+	static final GLThreadManager sGLThreadManager = new GLThreadManager();
 
-	private EGLConfigChooser mEGLConfigChooser;
-	private EGLContextFactory mEGLContextFactory;
-	private EGLWindowSurfaceFactory mEGLWindowSurfaceFactory;
-	private GLWrapper mGLWrapper;
-
-	public SurfaceHolder mHolder;
-	private boolean mSizeChanged = true;
-
-	// Once the thread is started, all accesses to the following member
-	// variables are protected by the sGLThreadManager monitor
-	public boolean mDone;
-	private boolean mPaused;
-	private boolean mHasSurface;
-	private boolean mWaitingForSurface;
-	private boolean mHaveEgl;
-	private int mWidth;
-	private int mHeight;
-	private int mRenderMode;
-	private boolean mRequestRender;
-	private boolean mEventsWaiting;
-	// End of member variables protected by the sGLThreadManager monitor.
+	private final EglHelper mEglHelper;
+
+	// Protected by the sGLThreadManager monitor.
+	private final ArrayList<RenderClient> mClients = new ArrayList<RenderClient>();
 
-	private GLWallpaperService.Renderer mRenderer;
-	private ArrayList<Runnable> mEventQueue = new ArrayList<Runnable>();
-	private EglHelper mEglHelper;
+	// Only touched by the render thread.
+	private final ArrayList<RenderClient> mFrameClients = new ArrayList<RenderClient>();
+	private final ArrayList<RenderClient> mEventClients = new ArrayList<RenderClient>();
 
-	GLThread(GLWallpaperService.Renderer renderer, EGLConfigChooser chooser, EGLContextFactory contextFactory,
-			EGLWindowSurfaceFactory surfaceFactory, GLWrapper wrapper) {
+	private GLThread(EGLConfigChooser chooser, EGLContextFactory contextFactory,
+			EGLWindowSurfaceFactory surfaceFactory) {
 		super();
-		mDone = false;
-		mWidth = 0;
-		mHeight = 0;
-		mRequestRender = true;
-		mRenderMode = GLWallpaperService.GLEngine.RENDERMODE_CONTINUOUSLY;
-		mRenderer = renderer;
-		this.mEGLConfigChooser = chooser;
-		this.mEGLContextFactory = contextFactory;
-		this.mEGLWindowSurfaceFactory = surfaceFactory;
-		this.mGLWrapper = wrapper;
+		mEglHelper = new EglHelper(chooser, contextFactory, surfaceFactory);
+	}
+
+	/**
+	 * Adds an engine to the render thread, starting the thread if it is not running.
+	 */
+	static RenderClient register(GLWallpaperService.Renderer renderer, EGLConfigChooser chooser,
+			EGLContextFactory contextFactory, EGLWindowSurfaceFactory surfaceFactory, GLWrapper wrapper) {
+		synchronized (sGLThreadManager) {
+			GLThread thread = sGLThreadManager.mThread;
+			if (thread == null) {
+				thread = new GLThread(chooser, contextFactory, surfaceFactory);
+				sGLThreadManager.mThread = thread;
+				thread.start();
+			}
+			RenderClient client = new RenderClient(renderer, wrapper);
+			thread.mClients.add(client);
+			sGLThreadManager.notifyAll();
+			return client;
+		}
 	}
 
 	@Override
@@ -503,163 +682,308 @@ class GLThread extends Thread {
 		} catch (InterruptedException e) {
 			// fall thru and exit normally
 		} finally {
-			sGLThreadManager.threadExiting(this);
+			/*
+			 * clean-up everything... The display is terminated while holding the monitor so that a new render thread
+			 * cannot start using it in the meantime.
+			 */
+			synchronized (sGLThreadManager) {
+				for (int i = 0; i < mClients.size(); ++i) {
+					RenderClient client = mClients.get(i);
+					releaseSurfaceLocked(client);
+					client.mExited = true;
+				}
+				mClients.clear();
+				mEglHelper.finish();
+				sGLThreadManager.threadExiting(this);
+			}
 		}
 	}
 
 	/*
 	 * This private method should only be called inside a synchronized(sGLThreadManager) block.
 	 */
+	private void releaseSurfaceLocked(RenderClient client) {
+		if (client.mEglSurface != null) {
+			mEglHelper.destroySurface(client.mEglSurface);
+			client.mEglSurface = null;
+		}
+	}
+
+	/*
+	 * Lets the renderer of a removed client delete its GL objects. Any surface does to make the context current, a
+	 * pbuffer is used if no client has one left. Only call this inside a synchronized(sGLThreadManager) block.
+	 */
+	private void releaseRendererLocked(RenderClient client) {
+		if (!mEglHelper.hasContext() || client.mTellRendererSurfaceCreated) {
+			// the renderer has no objects in the current context
+			return;
+		}
+		EGLSurface surface = client.mEglSurface;
+		for (int i = 0; surface == null && i < mClients.size(); ++i) {
+			surface = mClients.get(i).mEglSurface;
+		}
+		EGLSurface pbuffer = null;
+		if (surface == null) {
+			pbuffer = mEglHelper.createPbufferSurface();
+			surface = pbuffer;
+		}
+		if (surface == null) {
+			Log.w("GLThread", "no surface to release the renderer with tid=" + getId());
+			return;
+		}
+		GL10 gl = (GL10) mEglHelper.makeCurrent(surface, client.mGLWrapper);
+		client.mRenderer.onRelease(gl);
+		if (pbuffer != null) {
+			mEglHelper.destroyPbufferSurface(pbuffer);
+		}
+	}
+
+	/*
+	 * Drops all surfaces and the context. Every client gets onSurfaceCreated() again once it draws. Only call this
+	 * inside a synchronized(sGLThreadManager) block.
+	 */
 	private void stopEglLocked() {
-		if (mHaveEgl) {
-			mHaveEgl = false;
-			mEglHelper.destroySurface();
-			sGLThreadManager.releaseEglSurface(this);
+		for (int i = 0; i < mClients.size(); ++i) {
+			RenderClient client = mClients.get(i);
+			releaseSurfaceLocked(client);
+			client.mTellRendererSurfaceCreated = true;
 		}
+		mEglHelper.destroyContext();
 	}
 
 	private void guardedRun() throws InterruptedException {
-		mEglHelper = new EglHelper(mEGLConfigChooser, mEGLContextFactory, mEGLWindowSurfaceFactory, mGLWrapper);
-		try {
-			GL10 gl = null;
-			boolean tellRendererSurfaceCreated = true;
-			boolean tellRendererSurfaceChanged = true;
+		/*
+		 * This is our main activity thread's loop, we go until the last client is gone.
+		 */
+		while (true) {
+			mFrameClients.clear();
+			mEventClients.clear();
 
-			/*
-			 * This is our main activity thread's loop, we go until asked to quit.
-			 */
-			while (!isDone()) {
-				/*
-				 * Update the asynchronous state (window size)
-				 */
-				int w = 0;
-				int h = 0;
-				boolean changed = false;
-				boolean needStart = false;
-				boolean eventsWaiting = false;
+			synchronized (sGLThreadManager) {
+				while (true) {
+					boolean keepContext = false;
+					for (int i = mClients.size() - 1; i >= 0; --i) {
+						RenderClient client = mClients.get(i);
+						if (client.mDone) {
+							releaseRendererLocked(client);
+							releaseSurfaceLocked(client);
+							mClients.remove(i);
+							client.mExited = true;
+							sGLThreadManager.notifyAll();
+							continue;
+						}
 
-				synchronized (sGLThreadManager) {
-					while (true) {
 						// Manage acquiring and releasing the SurfaceView
 						// surface and the EGL surface.
-						if (mPaused) {
-							stopEglLocked();
+						if (client.mPaused || !client.mHasSurface) {
+							releaseSurfaceLocked(client);
 						}
-						if (!mHasSurface) {
-							if (!mWaitingForSurface) {
-								stopEglLocked();
-								mWaitingForSurface = true;
-								sGLThreadManager.notifyAll();
-							}
-						} else {
-							if (!mHaveEgl) {
-								if (sGLThreadManager.tryAcquireEglSurface(this)) {
-									mHaveEgl = true;
-									mEglHelper.start();
-									mRequestRender = true;
-									needStart = true;
-								}
-							}
+						if (!client.mHasSurface && !client.mWaitingForSurface) {
+							client.mWaitingForSurface = true;
+							sGLThreadManager.notifyAll();
 						}
-
-						// Check if we need to wait. If not, update any state
-						// that needs to be updated, copy any state that
-						// needs to be copied, and use "break" to exit the
-						// wait loop.
-
-						if (mDone) {
-							return;
+						if (!client.mPaused || client.mPreserveEGLContextOnPause) {
+							keepContext = true;
 						}
-
-						if (mEventsWaiting) {
-							eventsWaiting = true;
-							mEventsWaiting = false;
-							break;
+						if (client.mEventsWaiting) {
+							client.mEventsWaiting = false;
+							mEventClients.add(client);
 						}
+					}
 
-						if ((!mPaused) && mHasSurface && mHaveEgl && (mWidth > 0) && (mHeight > 0)
-								&& (mRequestRender || (mRenderMode == GLWallpaperService.GLEngine.RENDERMODE_CONTINUOUSLY))) {
-							changed = mSizeChanged;
-							w = mWidth;
-							h = mHeight;
-							mSizeChanged = false;
-							mRequestRender = false;
-							if (mHasSurface && mWaitingForSurface) {
-								changed = true;
-								mWaitingForSurface = false;
-								sGLThreadManager.notifyAll();
+					if (mClients.isEmpty()) {
+						// Let go of the display before a new thread can be
+						// registered and start using it.
+						mEglHelper.finish();
+						sGLThreadManager.threadExiting(this);
+						return;
+					}
+					if (!keepContext && mEglHelper.hasContext()) {
+						stopEglLocked();
+					}
+
+					// Collect the clients which are due, in registration
+					// order, and the time until the next one is.
+					long now = System.nanoTime();
+					long delay = Long.MAX_VALUE;
+					for (int i = 0; i < mClients.size(); ++i) {
+						RenderClient client = mClients.get(i);
+						if (client.mPaused || !client.mHasSurface || client.mWidth <= 0 || client.mHeight <= 0
+								|| !(client.mRequestRender
+								|| client.mRenderMode == GLWallpaperService.GLEngine.RENDERMODE_CONTINUOUSLY)) {
+							continue;
+						}
+						if (!client.mRequestRender && !client.mSizeChanged) {
+							long clientDelay = client.mFramePacer.getDelayNanos(now);
+							if (clientDelay > 0) {
+								delay = Math.min(delay, clientDelay);
+								continue;
 							}
-							break;
 						}
+						if (client.mSizeChanged) {
+							client.mTellRendererSurfaceChanged = true;
+						}
+						client.mDrawWidth = client.mWidth;
+						client.mDrawHeight = client.mHeight;
+						client.mSizeChanged = false;
+						client.mRequestRender = false;
+						if (client.mWaitingForSurface) {
+							client.mTellRendererSurfaceChanged = true;
+							client.mWaitingForSurface = false;
+							sGLThreadManager.notifyAll();
+						}
+						client.mSwapInterval = client.mFramePacer.getSwapInterval();
+						mFrameClients.add(client);
+					}
 
-						// By design, this is the only place where we wait().
+					if (!mFrameClients.isEmpty() || !mEventClients.isEmpty()) {
+						break;
+					}
 
-						if (LOG_THREADS) {
-							Log.i("GLThread", "waiting tid=" + getId());
-						}
+					// By design, this is the only place where we wait().
+					// State changes notify the monitor and end the wait early.
+
+					if (LOG_THREADS) {
+						Log.i("GLThread", "waiting tid=" + getId());
+					}
+					if (delay == Long.MAX_VALUE) {
 						sGLThreadManager.wait();
+					} else {
+						sGLThreadManager.wait(delay / 1000000, (int) (delay % 1000000));
 					}
-				} // end of synchronized(sGLThreadManager)
+				}
+			} // end of synchronized(sGLThreadManager)
 
-				/*
-				 * Handle queued events
-				 */
-				if (eventsWaiting) {
-					Runnable r;
-					while ((r = getEvent()) != null) {
-						r.run();
-						if (isDone()) {
-							return;
+			/*
+			 * Handle queued events, with the client's surface current if it has one.
+			 */
+			for (int i = 0; i < mEventClients.size(); ++i) {
+				RenderClient client = mEventClients.get(i);
+				if (client.mEglSurface != null) {
+					mEglHelper.makeCurrent(client.mEglSurface, client.mGLWrapper);
+				}
+				client.runEvents();
+			}
+
+			/*
+			 * Render the due clients one after the other on the one context. With a single client the swap interval
+			 * does the pacing, with several the deadlines do, so that one surface does not hold back the others.
+			 */
+			boolean multiplexed = mFrameClients.size() > 1;
+			for (int i = 0; i < mFrameClients.size(); ++i) {
+				RenderClient client = mFrameClients.get(i);
+				if (mEglHelper.start()) {
+					// a preserved context still has the renderer's resources
+					synchronized (sGLThreadManager) {
+						for (int j = 0; j < mClients.size(); ++j) {
+							mClients.get(j).mTellRendererSurfaceCreated = true;
 						}
 					}
-					// Go back and see if we need to wait to render.
-					continue;
 				}
-
-				if (needStart) {
-					tellRendererSurfaceCreated = true;
-					changed = true;
+				if (client.mEglSurface == null) {
+					client.mEglSurface = mEglHelper.createSurface(client.mHolder);
+					client.mAppliedSwapInterval = -1;
+					client.mTellRendererSurfaceChanged = true;
 				}
-				if (changed) {
-					gl = (GL10) mEglHelper.createSurface(mHolder);
-					tellRendererSurfaceChanged = true;
+				GL10 gl = (GL10) mEglHelper.makeCurrent(client.mEglSurface, client.mGLWrapper);
+
+				int swapInterval = multiplexed ? 0 : client.mSwapInterval;
+				if (swapInterval != client.mAppliedSwapInterval) {
+					mEglHelper.setSwapInterval(swapInterval);
+					client.mAppliedSwapInterval = swapInterval;
 				}
-				if (tellRendererSurfaceCreated) {
-					mRenderer.onSurfaceCreated(gl, mEglHelper.mEglConfig);
-					tellRendererSurfaceCreated = false;
+				if (client.mTellRendererSurfaceCreated) {
+					client.mRenderer.onSurfaceCreated(gl, mEglHelper.mEglConfig);
+					client.mTellRendererSurfaceCreated = false;
 				}
-				if (tellRendererSurfaceChanged) {
-					mRenderer.onSurfaceChanged(gl, w, h);
-					tellRendererSurfaceChanged = false;
+				if (client.mTellRendererSurfaceChanged) {
+					client.mRenderer.onSurfaceChanged(gl, client.mDrawWidth, client.mDrawHeight);
+					client.mTellRendererSurfaceChanged = false;
 				}
-				if ((w > 0) && (h > 0)) {
-					/* draw a frame here */
-					mRenderer.onDrawFrame(gl);
-
-					/*
-					 * Once we're done with GL, we need to call swapBuffers() to instruct the system to display the
-					 * rendered frame
-					 */
-					mEglHelper.swap();
-					Thread.sleep(10);
+
+				// events queued since the wait apply to this frame
+				client.runEvents();
+
+				/* draw a frame here */
+				client.mRenderer.onDrawFrame(gl);
+
+				/*
+				 * Once we're done with GL, we need to call swapBuffers() to instruct the system to display the
+				 * rendered frame
+				 */
+				boolean contextLost = !mEglHelper.swap(client.mEglSurface);
+				synchronized (sGLThreadManager) {
+					client.mFramePacer.frameDone(System.nanoTime());
+					if (contextLost) {
+						// start over with a new context, every client
+						// gets onSurfaceCreated() again
+						Log.w("GLThread", "EGL context lost tid=" + getId());
+						stopEglLocked();
+						break;
+					}
 				}
 			}
-		} finally {
-			/*
-			 * clean-up everything...
-			 */
-			synchronized (sGLThreadManager) {
-				stopEglLocked();
-				mEglHelper.finish();
-			}
 		}
 	}
 
-	private boolean isDone() {
-		synchronized (sGLThreadManager) {
-			return mDone;
+	static class GLThreadManager {
+		// The running render thread, null if none.
+		private GLThread mThread;
+
+		public synchronized void threadExiting(GLThread thread) {
+			if (LOG_THREADS) {
+				Log.i("GLThread", "exiting tid=" + thread.getId());
+			}
+			if (mThread == thread) {
+				mThread = null;
+			}
+			notifyAll();
 		}
 	}
+}
+
+/**
+ * One engine's view of the shared render thread: its surface, size, render mode, pacing and events. All methods
+ * are called from the engine's thread.
+ */
+class RenderClient {
+	private final static GLThread.GLThreadManager sGLThreadManager = GLThread.sGLThreadManager;
+
+	final GLWallpaperService.Renderer mRenderer;
+	final GLWrapper mGLWrapper;
+	private final EventQueue mEventQueue = new EventQueue();
+
+	// All accesses to the following member variables are protected by the
+	// sGLThreadManager monitor
+	SurfaceHolder mHolder;
+	boolean mDone;
+	boolean mExited;
+	boolean mPaused;
+	boolean mHasSurface;
+	boolean mWaitingForSurface;
+	boolean mSizeChanged = true;
+	int mWidth;
+	int mHeight;
+	int mRenderMode = GLWallpaperService.GLEngine.RENDERMODE_CONTINUOUSLY;
+	boolean mRequestRender = true;
+	boolean mEventsWaiting;
+	boolean mPreserveEGLContextOnPause;
+	int mSwapInterval = 1;
+	final FramePacer mFramePacer = new FramePacer();
+	// End of member variables protected by the sGLThreadManager monitor.
+
+	// Only touched by the render thread.
+	EGLSurface mEglSurface;
+	int mAppliedSwapInterval = -1;
+	int mDrawWidth;
+	int mDrawHeight;
+	boolean mTellRendererSurfaceCreated = true;
+	boolean mTellRendererSurfaceChanged = true;
+
+	RenderClient(GLWallpaperService.Renderer renderer, GLWrapper wrapper) {
+		mRenderer = renderer;
+		mGLWrapper = wrapper;
+	}
 
 	public void setRenderMode(int renderMode) {
 		if (!((GLWallpaperService.GLEngine.RENDERMODE_WHEN_DIRTY <= renderMode) && (renderMode <= GLWallpaperService.GLEngine.RENDERMODE_CONTINUOUSLY))) {
@@ -679,6 +1003,35 @@ class GLThread extends Thread {
 		}
 	}
 
+	public void setTargetFrameRate(int frameRate) {
+		if (frameRate < 0) {
+			throw new IllegalArgumentException("frameRate");
+		}
+		synchronized (sGLThreadManager) {
+			mFramePacer.setTargetFrameRate(frameRate);
+			sGLThreadManager.notifyAll();
+		}
+	}
+
+	public int getTargetFrameRate() {
+		synchronized (sGLThreadManager) {
+			return mFramePacer.getTargetFrameRate();
+		}
+	}
+
+	public float getActualFrameRate() {
+		synchronized (sGLThreadManager) {
+			return mFramePacer.getActualFrameRate();
+		}
+	}
+
+	public void setPreserveEGLContextOnPause(boolean preserveOnPause) {
+		synchronized (sGLThreadManager) {
+			mPreserveEGLContextOnPause = preserveOnPause;
+			sGLThreadManager.notifyAll();
+		}
+	}
+
 	public void requestRender() {
 		synchronized (sGLThreadManager) {
 			mRequestRender = true;
@@ -687,11 +1040,8 @@ class GLThread extends Thread {
 	}
 
 	public void surfaceCreated(SurfaceHolder holder) {
-		mHolder = holder;
 		synchronized (sGLThreadManager) {
-			if (LOG_THREADS) {
-				Log.i("GLThread", "surfaceCreated tid=" + getId());
-			}
+			mHolder = holder;
 			mHasSurface = true;
 			sGLThreadManager.notifyAll();
 		}
@@ -699,12 +1049,9 @@ class GLThread extends Thread {
 
 	public void surfaceDestroyed() {
 		synchronized (sGLThreadManager) {
-			if (LOG_THREADS) {
-				Log.i("GLThread", "surfaceDestroyed tid=" + getId());
-			}
 			mHasSurface = false;
 			sGLThreadManager.notifyAll();
-			while (!mWaitingForSurface && isAlive() && !mDone) {
+			while (!mWaitingForSurface && !mExited) {
 				try {
 					sGLThreadManager.wait();
 				} catch (InterruptedException e) {
@@ -738,17 +1085,24 @@ class GLThread extends Thread {
 		}
 	}
 
+	/**
+	 * Removes the client from the render thread and waits until its surface is released. The thread keeps running
+	 * for the other clients.
+	 */
 	public void requestExitAndWait() {
 		// don't call this from GLThread thread or it is a guaranteed
 		// deadlock!
 		synchronized (sGLThreadManager) {
 			mDone = true;
 			sGLThreadManager.notifyAll();
-		}
-		try {
-			join();
-		} catch (InterruptedException ex) {
-			Thread.currentThread().interrupt();
+			while (!mExited) {
+				try {
+					sGLThreadManager.wait();
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
 		}
 	}
 
@@ -759,8 +1113,21 @@ class GLThread extends Thread {
 	 * the runnable to be run on the GL rendering thread.
 	 */
 	public void queueEvent(Runnable r) {
-		synchronized (this) {
-			mEventQueue.add(r);
+		queueEvent(null, r);
+	}
+
+	/**
+	 * Queue an "event" which replaces a not yet run event queued with the same key.
+	 *
+	 * @param key
+	 * coalescing key, null to never coalesce.
+	 * @param r
+	 * the runnable to be run on the GL rendering thread.
+	 */
+	public void queueEvent(Object key, Runnable r) {
+		if (mEventQueue.offer(key, r)) {
+			// only the event which makes the queue non-empty wakes the
+			// render thread, the rest of a burst is picked up by the same drain
 			synchronized (sGLThreadManager) {
 				mEventsWaiting = true;
 				sGLThreadManager.notifyAll();
@@ -768,49 +1135,189 @@ class GLThread extends Thread {
 		}
 	}
 
-	private Runnable getEvent() {
-		synchronized (this) {
-			if (mEventQueue.size() > 0) {
-				return mEventQueue.remove(0);
-			}
+	/**
+	 * Runs all queued events on the calling thread.
+	 */
+	void runEvents() {
+		mEventQueue.drain();
+	}
+}
 
+/**
+ * Multi producer, single consumer event queue. Producers push onto a lock-free stack, the render thread takes the
+ * whole stack with one atomic swap and runs it in queue order.
+ *
+ * Events queued with a key coalesce: queuing a new event retires the pending one with the same key, which is then
+ * skipped by the drain. The new event takes the queue position of the latest update.
+ */
+class EventQueue {
+	// Marks an event which ran or was superseded.
+	private static final Runnable CONSUMED = new Runnable() {
+		public void run() {
+		}
+	};
+
+	private static class Node {
+		final Object mKey;
+		final AtomicReference<Runnable> mEvent;
+		Node mNext;
+
+		Node(Object key, Runnable event) {
+			mKey = key;
+			mEvent = new AtomicReference<Runnable>(event);
 		}
-		return null;
 	}
 
-	private class GLThreadManager {
+	// Most recently queued node, linked towards older ones.
+	private final AtomicReference<Node> mHead = new AtomicReference<Node>();
+	// Pending node per coalescing key.
+	private final ConcurrentHashMap<Object, Node> mPending = new ConcurrentHashMap<Object, Node>();
 
-		public synchronized void threadExiting(GLThread thread) {
-			if (LOG_THREADS) {
-				Log.i("GLThread", "exiting tid=" + thread.getId());
-			}
-			thread.mDone = true;
-			if (mEglOwner == thread) {
-				mEglOwner = null;
+	/**
+	 * Adds an event. Safe to call from any thread.
+	 *
+	 * @return true if the queue was empty, the consumer has to be woken up.
+	 */
+	public boolean offer(Object key, Runnable event) {
+		if (event == null) {
+			throw new NullPointerException("event");
+		}
+		Node node = new Node(key, event);
+		if (key != null) {
+			Node previous = mPending.put(key, node);
+			if (previous != null) {
+				previous.mEvent.set(CONSUMED);
 			}
-			notifyAll();
 		}
+		Node head;
+		do {
+			head = mHead.get();
+			node.mNext = head;
+		} while (!mHead.compareAndSet(head, node));
+		return head == null;
+	}
 
-		/*
-		 * Tries once to acquire the right to use an EGL surface. Does not block.
-		 *
-		 * @return true if the right to use an EGL surface was acquired.
-		 */
-		public synchronized boolean tryAcquireEglSurface(GLThread thread) {
-			if (mEglOwner == thread || mEglOwner == null) {
-				mEglOwner = thread;
-				notifyAll();
-				return true;
+	public boolean isEmpty() {
+		return mHead.get() == null;
+	}
+
+	/**
+	 * Runs every event queued so far, oldest first. Only call this from the consumer thread.
+	 *
+	 * @return number of events run.
+	 */
+	public int drain() {
+		Node node = mHead.getAndSet(null);
+		// reverse into queue order
+		Node first = null;
+		while (node != null) {
+			Node next = node.mNext;
+			node.mNext = first;
+			first = node;
+			node = next;
+		}
+		int count = 0;
+		for (node = first; node != null; node = node.mNext) {
+			if (node.mKey != null) {
+				mPending.remove(node.mKey, node);
+			}
+			Runnable event = node.mEvent.getAndSet(CONSUMED);
+			if (event != CONSUMED) {
+				event.run();
+				++count;
 			}
-			return false;
 		}
+		return count;
+	}
+}
+
+/**
+ * Deadline based frame scheduling for RENDERMODE_CONTINUOUSLY. Frames are
+ * started on a fixed cadence derived from the target frame rate instead of
+ * sleeping a fixed time after each swap, so the cadence does not drift with
+ * the time spent rendering.
+ */
+class FramePacer {
+	// Assumed display refresh rate, used to derive the swap interval.
+	private static final int DISPLAY_REFRESH_RATE = 60;
+	private static final long NANOS_PER_SECOND = 1000000000L;
 
-		public synchronized void releaseEglSurface(GLThread thread) {
-			if (mEglOwner == thread) {
-				mEglOwner = null;
+	private int mTargetFrameRate = 0;
+	private long mFrameInterval = 0;
+	private long mNextDeadline = 0;
+
+	private long mWindowStart = 0;
+	private int mWindowFrames = 0;
+	private float mActualFrameRate = 0.0f;
+
+	/**
+	 * @param frameRate
+	 * target frames per second, 0 for no limit besides vsync.
+	 */
+	public void setTargetFrameRate(int frameRate) {
+		mTargetFrameRate = frameRate;
+		mFrameInterval = frameRate > 0 ? NANOS_PER_SECOND / frameRate : 0;
+		mNextDeadline = 0;
+	}
+
+	public int getTargetFrameRate() {
+		return mTargetFrameRate;
+	}
+
+	/**
+	 * @return vsync periods per frame which come closest to the target rate
+	 * without exceeding it.
+	 */
+	public int getSwapInterval() {
+		if (mTargetFrameRate <= 0 || mTargetFrameRate >= DISPLAY_REFRESH_RATE) {
+			return 1;
+		}
+		return (DISPLAY_REFRESH_RATE + mTargetFrameRate - 1) / mTargetFrameRate;
+	}
+
+	/**
+	 * @return nanoseconds to wait before the next frame may start.
+	 */
+	public long getDelayNanos(long now) {
+		if (mFrameInterval == 0 || mNextDeadline == 0) {
+			return 0;
+		}
+		return mNextDeadline - now;
+	}
+
+	/**
+	 * Called after a frame has been swapped.
+	 */
+	public void frameDone(long now) {
+		if (mFrameInterval > 0) {
+			if (mNextDeadline == 0 || mNextDeadline < now - mFrameInterval) {
+				// First frame, or fell behind by more than a frame: don't
+				// try to catch up.
+				mNextDeadline = now;
+			}
+			mNextDeadline += mFrameInterval;
+			if (mNextDeadline > now + mFrameInterval) {
+				mNextDeadline = now + mFrameInterval;
 			}
-			notifyAll();
 		}
+
+		if (mWindowStart == 0 || now - mWindowStart > 2 * NANOS_PER_SECOND) {
+			// first frame, or rendering stopped for a while
+			mWindowStart = now;
+			mWindowFrames = 0;
+			return;
+		}
+		++mWindowFrames;
+		long elapsed = now - mWindowStart;
+		if (elapsed >= NANOS_PER_SECOND) {
+			mActualFrameRate = mWindowFrames * (float) NANOS_PER_SECOND / elapsed;
+			mWindowStart = now;
+			mWindowFrames = 0;
+		}
+	}
+
+	public float getActualFrameRate() {
+		return mActualFrameRate;
 	}
 }
 
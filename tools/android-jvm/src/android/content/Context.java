@@ -0,0 +1,19 @@
+package android.content;
+
+import java.io.File;
+
+/**
+ * JVM stand-in with the little the renderer asks of its context.
+ */
+public class Context {
+	private final File cacheDir_;
+
+	public Context(File cacheDir) {
+		cacheDir_ = cacheDir;
+	}
+
+	public File getCacheDir() {
+		cacheDir_.mkdirs();
+		return cacheDir_;
+	}
+}
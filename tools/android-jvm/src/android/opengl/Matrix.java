@@ -0,0 +1,165 @@
+package android.opengl;
+
+/**
+ * JVM stand-in for the column-major 4x4 matrix helpers the renderer uses.
+ * Does not allocate, like the framework version, so allocation counts
+ * measured against it hold on devices too.
+ */
+public class Matrix {
+
+	public static void setIdentityM(float[] sm, int smOffset) {
+		for (int i = 0; i < 16; ++i) {
+			sm[smOffset + i] = 0;
+		}
+		for (int i = 0; i < 16; i += 5) {
+			sm[smOffset + i] = 1.0f;
+		}
+	}
+
+	/**
+	 * result = lhs x rhs. result may be the same array region as rhs, but
+	 * not as lhs.
+	 */
+	public static void multiplyMM(float[] result, int resultOffset,
+			float[] lhs, int lhsOffset, float[] rhs, int rhsOffset) {
+		for (int i = 0; i < 4; ++i) {
+			int column = i * 4;
+			float r0 = rhs[rhsOffset + column];
+			float r1 = rhs[rhsOffset + column + 1];
+			float r2 = rhs[rhsOffset + column + 2];
+			float r3 = rhs[rhsOffset + column + 3];
+			for (int j = 0; j < 4; ++j) {
+				result[resultOffset + column + j] = lhs[lhsOffset + j] * r0
+						+ lhs[lhsOffset + 4 + j] * r1
+						+ lhs[lhsOffset + 8 + j] * r2
+						+ lhs[lhsOffset + 12 + j] * r3;
+			}
+		}
+	}
+
+	public static void frustumM(float[] m, int offset, float left,
+			float right, float bottom, float top, float near, float far) {
+		float rWidth = 1.0f / (right - left);
+		float rHeight = 1.0f / (top - bottom);
+		float rDepth = 1.0f / (near - far);
+		for (int i = 0; i < 16; ++i) {
+			m[offset + i] = 0;
+		}
+		m[offset + 0] = 2.0f * near * rWidth;
+		m[offset + 5] = 2.0f * near * rHeight;
+		m[offset + 8] = (right + left) * rWidth;
+		m[offset + 9] = (top + bottom) * rHeight;
+		m[offset + 10] = (far + near) * rDepth;
+		m[offset + 11] = -1.0f;
+		m[offset + 14] = 2.0f * far * near * rDepth;
+	}
+
+	public static void orthoM(float[] m, int mOffset, float left, float right,
+			float bottom, float top, float near, float far) {
+		float rWidth = 1.0f / (right - left);
+		float rHeight = 1.0f / (top - bottom);
+		float rDepth = 1.0f / (far - near);
+		for (int i = 0; i < 16; ++i) {
+			m[mOffset + i] = 0;
+		}
+		m[mOffset + 0] = 2.0f * rWidth;
+		m[mOffset + 5] = 2.0f * rHeight;
+		m[mOffset + 10] = -2.0f * rDepth;
+		m[mOffset + 12] = -(right + left) * rWidth;
+		m[mOffset + 13] = -(top + bottom) * rHeight;
+		m[mOffset + 14] = -(far + near) * rDepth;
+		m[mOffset + 15] = 1.0f;
+	}
+
+	public static void translateM(float[] m, int mOffset, float x, float y,
+			float z) {
+		for (int i = 0; i < 4; ++i) {
+			m[mOffset + 12 + i] += m[mOffset + i] * x + m[mOffset + 4 + i] * y
+					+ m[mOffset + 8 + i] * z;
+		}
+	}
+
+	/**
+	 * Rotation by a degrees around the axis (x, y, z).
+	 */
+	public static void setRotateM(float[] rm, int rmOffset, float a, float x,
+			float y, float z) {
+		float length = (float) Math.sqrt(x * x + y * y + z * z);
+		if (length != 1.0f) {
+			float recip = 1.0f / length;
+			x *= recip;
+			y *= recip;
+			z *= recip;
+		}
+		double radians = Math.toRadians(a);
+		float s = (float) Math.sin(radians);
+		float c = (float) Math.cos(radians);
+		float nc = 1.0f - c;
+		float xy = x * y;
+		float yz = y * z;
+		float zx = z * x;
+		float xs = x * s;
+		float ys = y * s;
+		float zs = z * s;
+		rm[rmOffset + 0] = x * x * nc + c;
+		rm[rmOffset + 1] = xy * nc + zs;
+		rm[rmOffset + 2] = zx * nc - ys;
+		rm[rmOffset + 3] = 0.0f;
+		rm[rmOffset + 4] = xy * nc - zs;
+		rm[rmOffset + 5] = y * y * nc + c;
+		rm[rmOffset + 6] = yz * nc + xs;
+		rm[rmOffset + 7] = 0.0f;
+		rm[rmOffset + 8] = zx * nc + ys;
+		rm[rmOffset + 9] = yz * nc - xs;
+		rm[rmOffset + 10] = z * z * nc + c;
+		rm[rmOffset + 11] = 0.0f;
+		rm[rmOffset + 12] = 0.0f;
+		rm[rmOffset + 13] = 0.0f;
+		rm[rmOffset + 14] = 0.0f;
+		rm[rmOffset + 15] = 1.0f;
+	}
+
+	public static void setLookAtM(float[] rm, int rmOffset, float eyeX,
+			float eyeY, float eyeZ, float centerX, float centerY,
+			float centerZ, float upX, float upY, float upZ) {
+		float fx = centerX - eyeX;
+		float fy = centerY - eyeY;
+		float fz = centerZ - eyeZ;
+		float rlf = 1.0f / (float) Math.sqrt(fx * fx + fy * fy + fz * fz);
+		fx *= rlf;
+		fy *= rlf;
+		fz *= rlf;
+
+		// s = f x up
+		float sx = fy * upZ - fz * upY;
+		float sy = fz * upX - fx * upZ;
+		float sz = fx * upY - fy * upX;
+		float rls = 1.0f / (float) Math.sqrt(sx * sx + sy * sy + sz * sz);
+		sx *= rls;
+		sy *= rls;
+		sz *= rls;
+
+		// u = s x f
+		float ux = sy * fz - sz * fy;
+		float uy = sz * fx - sx * fz;
+		float uz = sx * fy - sy * fx;
+
+		rm[rmOffset + 0] = sx;
+		rm[rmOffset + 1] = ux;
+		rm[rmOffset + 2] = -fx;
+		rm[rmOffset + 3] = 0.0f;
+		rm[rmOffset + 4] = sy;
+		rm[rmOffset + 5] = uy;
+		rm[rmOffset + 6] = -fy;
+		rm[rmOffset + 7] = 0.0f;
+		rm[rmOffset + 8] = sz;
+		rm[rmOffset + 9] = uz;
+		rm[rmOffset + 10] = -fz;
+		rm[rmOffset + 11] = 0.0f;
+		rm[rmOffset + 12] = 0.0f;
+		rm[rmOffset + 13] = 0.0f;
+		rm[rmOffset + 14] = 0.0f;
+		rm[rmOffset + 15] = 1.0f;
+		translateM(rm, rmOffset, -eyeX, -eyeY, -eyeZ);
+	}
+}
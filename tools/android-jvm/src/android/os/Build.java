@@ -0,0 +1,28 @@
+package android.os;
+
+/**
+ * JVM stand-in. The API level the renderer sees defaults to 18 and can be
+ * picked with -Dandroid.sdk=N, e.g. 8 to take the client array paths.
+ */
+public class Build {
+	public static class VERSION {
+		public static final int SDK_INT = Integer.getInteger("android.sdk",
+				VERSION_CODES.JELLY_BEAN_MR2);
+	}
+
+	public static class VERSION_CODES {
+		public static final int FROYO = 8;
+		public static final int GINGERBREAD = 9;
+		public static final int GINGERBREAD_MR1 = 10;
+		public static final int HONEYCOMB = 11;
+		public static final int HONEYCOMB_MR1 = 12;
+		public static final int HONEYCOMB_MR2 = 13;
+		public static final int ICE_CREAM_SANDWICH = 14;
+		public static final int ICE_CREAM_SANDWICH_MR1 = 15;
+		public static final int JELLY_BEAN = 16;
+		public static final int JELLY_BEAN_MR1 = 17;
+		public static final int JELLY_BEAN_MR2 = 18;
+		public static final int KITKAT = 19;
+		public static final int LOLLIPOP = 21;
+	}
+}
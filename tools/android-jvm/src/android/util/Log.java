@@ -0,0 +1,60 @@
+package android.util;
+
+/**
+ * JVM stand-in, writes to stderr. Debug and verbose messages are only shown
+ * with -Dandroid.log.debug=true.
+ */
+public final class Log {
+	public static final int VERBOSE = 2;
+	public static final int DEBUG = 3;
+	public static final int INFO = 4;
+	public static final int WARN = 5;
+	public static final int ERROR = 6;
+
+	private static final boolean SHOW_DEBUG = Boolean
+			.getBoolean("android.log.debug");
+
+	private Log() {
+	}
+
+	public static int v(String tag, String msg) {
+		return println(VERBOSE, tag, msg, null);
+	}
+
+	public static int d(String tag, String msg) {
+		return println(DEBUG, tag, msg, null);
+	}
+
+	public static int i(String tag, String msg) {
+		return println(INFO, tag, msg, null);
+	}
+
+	public static int w(String tag, String msg) {
+		return println(WARN, tag, msg, null);
+	}
+
+	public static int w(String tag, String msg, Throwable tr) {
+		return println(WARN, tag, msg, tr);
+	}
+
+	public static int e(String tag, String msg) {
+		return println(ERROR, tag, msg, null);
+	}
+
+	public static int e(String tag, String msg, Throwable tr) {
+		return println(ERROR, tag, msg, tr);
+	}
+
+	private static int println(int priority, String tag, String msg,
+			Throwable tr) {
+		if (priority < INFO && !SHOW_DEBUG) {
+			return 0;
+		}
+		System.err.println("VVDIWE".charAt(priority - 1) + "/" + tag + ": "
+				+ msg);
+		if (tr != null) {
+			tr.printStackTrace();
+		}
+		return 0;
+	}
+}
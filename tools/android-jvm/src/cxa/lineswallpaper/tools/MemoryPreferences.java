@@ -0,0 +1,135 @@
+package cxa.lineswallpaper.tools;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import android.content.SharedPreferences;
+
+/**
+ * SharedPreferences kept in memory. Listeners are called for each changed
+ * key when an edit is applied, on the applying thread, like the framework
+ * does on the main thread.
+ */
+public class MemoryPreferences implements SharedPreferences {
+	private final HashMap<String, Object> values_ = new HashMap<String, Object>();
+	private final ArrayList<OnSharedPreferenceChangeListener> listeners_ = new ArrayList<OnSharedPreferenceChangeListener>();
+
+	private class MemoryEditor implements Editor {
+		private final HashMap<String, Object> changes_ = new HashMap<String, Object>();
+		private boolean clear_ = false;
+
+		public Editor putString(String key, String value) {
+			changes_.put(key, value);
+			return this;
+		}
+
+		public Editor putInt(String key, int value) {
+			changes_.put(key, value);
+			return this;
+		}
+
+		public Editor putLong(String key, long value) {
+			changes_.put(key, value);
+			return this;
+		}
+
+		public Editor putFloat(String key, float value) {
+			changes_.put(key, value);
+			return this;
+		}
+
+		public Editor putBoolean(String key, boolean value) {
+			changes_.put(key, value);
+			return this;
+		}
+
+		public Editor remove(String key) {
+			// null marks a removal
+			changes_.put(key, null);
+			return this;
+		}
+
+		public Editor clear() {
+			clear_ = true;
+			return this;
+		}
+
+		public boolean commit() {
+			apply();
+			return true;
+		}
+
+		public void apply() {
+			ArrayList<String> changed = new ArrayList<String>();
+			synchronized (MemoryPreferences.this) {
+				if (clear_) {
+					values_.clear();
+				}
+				for (Map.Entry<String, Object> entry : changes_.entrySet()) {
+					if (entry.getValue() == null) {
+						values_.remove(entry.getKey());
+					} else {
+						values_.put(entry.getKey(), entry.getValue());
+					}
+					changed.add(entry.getKey());
+				}
+			}
+			changes_.clear();
+			clear_ = false;
+			for (int i = 0; i < changed.size(); ++i) {
+				for (int j = 0; j < listeners_.size(); ++j) {
+					listeners_.get(j).onSharedPreferenceChanged(
+							MemoryPreferences.this, changed.get(i));
+				}
+			}
+		}
+	}
+
+	public synchronized Map<String, ?> getAll() {
+		return new HashMap<String, Object>(values_);
+	}
+
+	public synchronized String getString(String key, String defValue) {
+		Object value = values_.get(key);
+		return value != null ? (String) value : defValue;
+	}
+
+	public synchronized int getInt(String key, int defValue) {
+		Object value = values_.get(key);
+		return value != null ? (Integer) value : defValue;
+	}
+
+	public synchronized long getLong(String key, long defValue) {
+		Object value = values_.get(key);
+		return value != null ? (Long) value : defValue;
+	}
+
+	public synchronized float getFloat(String key, float defValue) {
+		Object value = values_.get(key);
+		return value != null ? (Float) value : defValue;
+	}
+
+	public synchronized boolean getBoolean(String key, boolean defValue) {
+		Object value = values_.get(key);
+		return value != null ? (Boolean) value : defValue;
+	}
+
+	public synchronized boolean contains(String key) {
+		return values_.containsKey(key);
+	}
+
+	public Editor edit() {
+		return new MemoryEditor();
+	}
+
+	public void registerOnSharedPreferenceChangeListener(
+			OnSharedPreferenceChangeListener listener) {
+		listeners_.add(listener);
+	}
+
+	public void unregisterOnSharedPreferenceChangeListener(
+			OnSharedPreferenceChangeListener listener) {
+		listeners_.remove(listener);
+	}
+}
@@ -0,0 +1,18 @@
+package javax.microedition.khronos.egl;
+
+import javax.microedition.khronos.opengles.GL;
+
+/**
+ * JVM stand-in. Only reports the current context, the tools create their
+ * contexts without it.
+ */
+public interface EGL10 extends EGL {
+	EGLContext EGL_NO_CONTEXT = new EGLContext() {
+		@Override
+		public GL getGL() {
+			return null;
+		}
+	};
+
+	EGLContext eglGetCurrentContext();
+}
@@ -0,0 +1,7 @@
+package javax.microedition.khronos.egl;
+
+/**
+ * JVM stand-in.
+ */
+public abstract class EGLConfig {
+}
@@ -0,0 +1,21 @@
+package javax.microedition.khronos.egl;
+
+import javax.microedition.khronos.opengles.GL;
+
+/**
+ * JVM stand-in. There is never a current context as far as the renderer can
+ * tell, so it does not share objects with other contexts.
+ */
+public abstract class EGLContext {
+	private static final EGL10 EGL_INSTANCE = new EGL10() {
+		public EGLContext eglGetCurrentContext() {
+			return EGL_NO_CONTEXT;
+		}
+	};
+
+	public static EGL getEGL() {
+		return EGL_INSTANCE;
+	}
+
+	public abstract GL getGL();
+}
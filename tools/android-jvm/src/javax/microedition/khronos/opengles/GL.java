@@ -0,0 +1,7 @@
+package javax.microedition.khronos.opengles;
+
+/**
+ * JVM stand-in.
+ */
+public interface GL {
+}
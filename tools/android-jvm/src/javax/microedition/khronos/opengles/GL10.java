@@ -0,0 +1,7 @@
+package javax.microedition.khronos.opengles;
+
+/**
+ * JVM stand-in. The renderer ignores it and calls GLES20 directly.
+ */
+public interface GL10 extends GL {
+}
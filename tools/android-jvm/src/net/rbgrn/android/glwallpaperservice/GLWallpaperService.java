@@ -0,0 +1,21 @@
+package net.rbgrn.android.glwallpaperservice;
+
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.opengles.GL10;
+
+/**
+ * JVM stand-in with only the renderer interface. The tools drive the
+ * renderer themselves instead of running the wallpaper service.
+ */
+public class GLWallpaperService {
+	public interface Renderer {
+
+		public void onSurfaceCreated(GL10 gl, EGLConfig config);
+
+		public void onSurfaceChanged(GL10 gl, int width, int height);
+
+		public void onDrawFrame(GL10 gl);
+
+		public void onRelease(GL10 gl);
+	}
+}
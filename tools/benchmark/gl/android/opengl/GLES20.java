@@ -0,0 +1,371 @@
+package android.opengl;
+
+import java.nio.Buffer;
+import java.util.HashMap;
+
+/**
+ * No-op GLES20 for the CPU benchmarks. Every call is counted and does
+ * nothing else. Queries answer like a plain ES 2.0 driver, so the renderer
+ * takes its usual paths: objects get fresh names, shaders compile,
+ * framebuffers are complete and there are no errors.
+ */
+public class GLES20 {
+	public static final int GL_NO_ERROR = 0;
+	public static final int GL_FALSE = 0;
+	public static final int GL_TRUE = 1;
+	public static final int GL_ZERO = 0;
+	public static final int GL_ONE = 1;
+	public static final int GL_LINES = 0x0001;
+	public static final int GL_TRIANGLE_STRIP = 0x0005;
+	public static final int GL_SRC_ALPHA = 0x0302;
+	public static final int GL_ONE_MINUS_SRC_ALPHA = 0x0303;
+	public static final int GL_INVALID_OPERATION = 0x0502;
+	public static final int GL_OUT_OF_MEMORY = 0x0505;
+	public static final int GL_DEPTH_TEST = 0x0B71;
+	public static final int GL_DITHER = 0x0BD0;
+	public static final int GL_BLEND = 0x0BE2;
+	public static final int GL_SCISSOR_TEST = 0x0C11;
+	public static final int GL_MAX_TEXTURE_SIZE = 0x0D33;
+	public static final int GL_RED_BITS = 0x0D52;
+	public static final int GL_GREEN_BITS = 0x0D53;
+	public static final int GL_BLUE_BITS = 0x0D54;
+	public static final int GL_TEXTURE_2D = 0x0DE1;
+	public static final int GL_BYTE = 0x1400;
+	public static final int GL_UNSIGNED_BYTE = 0x1401;
+	public static final int GL_SHORT = 0x1402;
+	public static final int GL_UNSIGNED_SHORT = 0x1403;
+	public static final int GL_FLOAT = 0x1406;
+	public static final int GL_RGB = 0x1907;
+	public static final int GL_RGBA = 0x1908;
+	public static final int GL_VENDOR = 0x1F00;
+	public static final int GL_RENDERER = 0x1F01;
+	public static final int GL_VERSION = 0x1F02;
+	public static final int GL_EXTENSIONS = 0x1F03;
+	public static final int GL_NEAREST = 0x2600;
+	public static final int GL_LINEAR = 0x2601;
+	public static final int GL_TEXTURE_MAG_FILTER = 0x2800;
+	public static final int GL_TEXTURE_MIN_FILTER = 0x2801;
+	public static final int GL_TEXTURE_WRAP_S = 0x2802;
+	public static final int GL_TEXTURE_WRAP_T = 0x2803;
+	public static final int GL_COLOR_BUFFER_BIT = 0x4000;
+	public static final int GL_UNSIGNED_SHORT_4_4_4_4 = 0x8033;
+	public static final int GL_CLAMP_TO_EDGE = 0x812F;
+	public static final int GL_UNSIGNED_SHORT_5_6_5 = 0x8363;
+	public static final int GL_TEXTURE0 = 0x84C0;
+	public static final int GL_ARRAY_BUFFER = 0x8892;
+	public static final int GL_STATIC_DRAW = 0x88E4;
+	public static final int GL_FRAGMENT_SHADER = 0x8B30;
+	public static final int GL_VERTEX_SHADER = 0x8B31;
+	public static final int GL_COMPILE_STATUS = 0x8B81;
+	public static final int GL_LINK_STATUS = 0x8B82;
+	public static final int GL_INFO_LOG_LENGTH = 0x8B84;
+	public static final int GL_SHADING_LANGUAGE_VERSION = 0x8B8C;
+	public static final int GL_FRAMEBUFFER_COMPLETE = 0x8CD5;
+	public static final int GL_COLOR_ATTACHMENT0 = 0x8CE0;
+	public static final int GL_FRAMEBUFFER = 0x8D40;
+	public static final int GL_LOW_FLOAT = 0x8DF0;
+	public static final int GL_MEDIUM_FLOAT = 0x8DF1;
+	public static final int GL_HIGH_FLOAT = 0x8DF2;
+
+	private static long calls_ = 0;
+	private static int nextName_ = 1;
+	private static final HashMap<String, Integer> attribs_ = new HashMap<String, Integer>();
+	private static final HashMap<String, Integer> uniforms_ = new HashMap<String, Integer>();
+
+	/** Calls made since the last {@link #resetCallCount()}. */
+	public static long getCallCount() {
+		return calls_;
+	}
+
+	public static void resetCallCount() {
+		calls_ = 0;
+	}
+
+	protected static void call() {
+		++calls_;
+	}
+
+	protected static void genNames(int n, int[] names, int offset) {
+		++calls_;
+		for (int i = 0; i < n; ++i) {
+			names[offset + i] = nextName_++;
+		}
+	}
+
+	private static int location(HashMap<String, Integer> locations,
+			String name) {
+		++calls_;
+		Integer location = locations.get(name);
+		if (location == null) {
+			location = locations.size();
+			locations.put(name, location);
+		}
+		return location;
+	}
+
+	public static void glActiveTexture(int texture) {
+		call();
+	}
+
+	public static void glAttachShader(int program, int shader) {
+		call();
+	}
+
+	public static void glBindBuffer(int target, int buffer) {
+		call();
+	}
+
+	public static void glBindFramebuffer(int target, int framebuffer) {
+		call();
+	}
+
+	public static void glBindTexture(int target, int texture) {
+		call();
+	}
+
+	public static void glBlendFunc(int sfactor, int dfactor) {
+		call();
+	}
+
+	public static void glBufferData(int target, int size, Buffer data,
+			int usage) {
+		call();
+	}
+
+	public static int glCheckFramebufferStatus(int target) {
+		call();
+		return GL_FRAMEBUFFER_COMPLETE;
+	}
+
+	public static void glClear(int mask) {
+		call();
+	}
+
+	public static void glClearColor(float red, float green, float blue,
+			float alpha) {
+		call();
+	}
+
+	public static void glCompileShader(int shader) {
+		call();
+	}
+
+	public static int glCreateProgram() {
+		call();
+		return nextName_++;
+	}
+
+	public static int glCreateShader(int type) {
+		call();
+		return nextName_++;
+	}
+
+	public static void glDeleteBuffers(int n, int[] buffers, int offset) {
+		call();
+	}
+
+	public static void glDeleteFramebuffers(int n, int[] framebuffers,
+			int offset) {
+		call();
+	}
+
+	public static void glDeleteProgram(int program) {
+		call();
+	}
+
+	public static void glDeleteShader(int shader) {
+		call();
+	}
+
+	public static void glDeleteTextures(int n, int[] textures, int offset) {
+		call();
+	}
+
+	public static void glDisable(int cap) {
+		call();
+	}
+
+	public static void glDisableVertexAttribArray(int index) {
+		call();
+	}
+
+	public static void glDrawArrays(int mode, int first, int count) {
+		call();
+	}
+
+	public static void glEnable(int cap) {
+		call();
+	}
+
+	public static void glEnableVertexAttribArray(int index) {
+		call();
+	}
+
+	public static void glFinish() {
+		call();
+	}
+
+	public static void glFlush() {
+		call();
+	}
+
+	public static void glFramebufferTexture2D(int target, int attachment,
+			int textarget, int texture, int level) {
+		call();
+	}
+
+	public static void glGenBuffers(int n, int[] buffers, int offset) {
+		genNames(n, buffers, offset);
+	}
+
+	public static void glGenFramebuffers(int n, int[] framebuffers, int offset) {
+		genNames(n, framebuffers, offset);
+	}
+
+	public static void glGenTextures(int n, int[] textures, int offset) {
+		genNames(n, textures, offset);
+	}
+
+	public static int glGetAttribLocation(int program, String name) {
+		return location(attribs_, name);
+	}
+
+	public static int glGetError() {
+		call();
+		return GL_NO_ERROR;
+	}
+
+	public static void glGetIntegerv(int pname, int[] params, int offset) {
+		call();
+		switch (pname) {
+		case GL_RED_BITS:
+		case GL_GREEN_BITS:
+		case GL_BLUE_BITS:
+			params[offset] = 8;
+			break;
+		case GL_MAX_TEXTURE_SIZE:
+			params[offset] = 4096;
+			break;
+		default:
+			params[offset] = 0;
+			break;
+		}
+	}
+
+	public static String glGetProgramInfoLog(int program) {
+		call();
+		return "";
+	}
+
+	public static void glGetProgramiv(int program, int pname, int[] params,
+			int offset) {
+		call();
+		params[offset] = pname == GL_LINK_STATUS ? GL_TRUE : 0;
+	}
+
+	public static String glGetShaderInfoLog(int shader) {
+		call();
+		return "";
+	}
+
+	public static void glGetShaderiv(int shader, int pname, int[] params,
+			int offset) {
+		call();
+		params[offset] = pname == GL_COMPILE_STATUS ? GL_TRUE : 0;
+	}
+
+	public static void glGetShaderPrecisionFormat(int shadertype,
+			int precisiontype, int[] range, int rangeOffset,
+			int[] precision, int precisionOffset) {
+		call();
+		// IEEE single precision for every qualifier
+		range[rangeOffset] = 127;
+		range[rangeOffset + 1] = 127;
+		precision[precisionOffset] = 23;
+	}
+
+	public static String glGetString(int name) {
+		call();
+		switch (name) {
+		case GL_VENDOR:
+			return "none";
+		case GL_RENDERER:
+			return "no-op";
+		case GL_VERSION:
+			return "OpenGL ES 2.0 no-op";
+		case GL_SHADING_LANGUAGE_VERSION:
+			return "OpenGL ES GLSL ES 1.00";
+		default:
+			return "";
+		}
+	}
+
+	public static int glGetUniformLocation(int program, String name) {
+		return location(uniforms_, name);
+	}
+
+	public static void glLineWidth(float width) {
+		call();
+	}
+
+	public static void glLinkProgram(int program) {
+		call();
+	}
+
+	public static void glShaderSource(int shader, String string) {
+		call();
+	}
+
+	public static void glTexImage2D(int target, int level, int internalformat,
+			int width, int height, int border, int format, int type,
+			Buffer pixels) {
+		call();
+	}
+
+	public static void glTexParameterf(int target, int pname, float param) {
+		call();
+	}
+
+	public static void glTexParameteri(int target, int pname, int param) {
+		call();
+	}
+
+	public static void glUniform1f(int location, float x) {
+		call();
+	}
+
+	public static void glUniform1i(int location, int x) {
+		call();
+	}
+
+	public static void glUniform2f(int location, float x, float y) {
+		call();
+	}
+
+	public static void glUniform3f(int location, float x, float y, float z) {
+		call();
+	}
+
+	public static void glUniformMatrix4fv(int location, int count,
+			boolean transpose, float[] value, int offset) {
+		call();
+	}
+
+	public static void glUseProgram(int program) {
+		call();
+	}
+
+	public static void glVertexAttribPointer(int indx, int size, int type,
+			boolean normalized, int stride, Buffer ptr) {
+		call();
+	}
+
+	public static void glVertexAttribPointer(int indx, int size, int type,
+			boolean normalized, int stride, int offset) {
+		call();
+	}
+
+	public static void glViewport(int x, int y, int width, int height) {
+		call();
+	}
+}
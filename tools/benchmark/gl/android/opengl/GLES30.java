@@ -0,0 +1,55 @@
+package android.opengl;
+
+import java.nio.Buffer;
+
+/**
+ * No-op GLES30 for the CPU benchmarks, see {@link GLES20}. The renderer
+ * only uses ES 3.0 calls after checking the version string, which reports
+ * ES 2.0, so these are not expected to be called.
+ */
+public class GLES30 extends GLES20 {
+	public static final int GL_COLOR = 0x1800;
+	public static final int GL_DEPTH = 0x1801;
+	public static final int GL_STENCIL = 0x1802;
+	public static final int GL_QUERY_RESULT = 0x8866;
+	public static final int GL_QUERY_RESULT_AVAILABLE = 0x8867;
+
+	public static void glBeginQuery(int target, int id) {
+		call();
+	}
+
+	public static void glDeleteQueries(int n, int[] ids, int offset) {
+		call();
+	}
+
+	public static void glEndQuery(int target) {
+		call();
+	}
+
+	public static void glGenQueries(int n, int[] ids, int offset) {
+		genNames(n, ids, offset);
+	}
+
+	public static void glGetProgramBinary(int program, int bufSize,
+			int[] length, int lengthOffset, int[] binaryFormat,
+			int binaryFormatOffset, Buffer binary) {
+		call();
+		length[lengthOffset] = 0;
+	}
+
+	public static void glGetQueryObjectuiv(int id, int pname, int[] params,
+			int offset) {
+		call();
+		params[offset] = 0;
+	}
+
+	public static void glInvalidateFramebuffer(int target, int numAttachments,
+			int[] attachments, int offset) {
+		call();
+	}
+
+	public static void glProgramBinary(int program, int binaryFormat,
+			Buffer binary, int length) {
+		call();
+	}
+}
@@ -0,0 +1,111 @@
+package cxa.lineswallpaper;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import android.opengl.GLES20;
+import cxa.lineswallpaper.tools.MemoryPreferences;
+
+/**
+ * CPU cost of the renderer's frame loop with GL calls that do nothing. Each
+ * benchmark operation is one frame or one step of it, so the average time
+ * is ns/frame and gc.alloc.rate.norm is bytes allocated per frame, which
+ * should stay at 0 for the steady state.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameLoopBenchmark {
+	@Param({ "1080x1920" })
+	public String surfaceSize;
+
+	/** Runs the renderer without vertex buffers, as on API 8 devices. */
+	@Param({ "false" })
+	public boolean clientArrays;
+
+	private MemoryPreferences preferences_;
+	private GLES20LinesRenderer renderer_;
+	private int blur_ = 0;
+	private long frames_ = 0;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		int separator = surfaceSize.indexOf('x');
+		int width = Integer.parseInt(surfaceSize.substring(0, separator));
+		int height = Integer.parseInt(surfaceSize.substring(separator + 1));
+
+		preferences_ = new MemoryPreferences();
+		preferences_.edit().putBoolean("use_client_arrays", clientArrays)
+				.apply();
+		renderer_ = new GLES20LinesRenderer(null);
+		renderer_.setSharedPreferences(preferences_);
+		renderer_.onSurfaceCreated(null, null);
+		renderer_.onSurfaceChanged(null, width, height);
+		// applies the settings, builds the render targets
+		renderer_.onDrawFrame(null);
+		GLES20.resetCallCount();
+		frames_ = 0;
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		if (frames_ > 0) {
+			System.out.println("GL calls per frame: "
+					+ (float) GLES20.getCallCount() / frames_);
+		}
+		renderer_.onRelease(null);
+		renderer_.release();
+	}
+
+	/** A whole frame, as the GL thread runs it. */
+	@Benchmark
+	public void drawFrame() {
+		renderer_.onDrawFrame(null);
+		++frames_;
+	}
+
+	@Benchmark
+	public float timeDelta() {
+		return renderer_.getTimeDeltaByScale(25000L);
+	}
+
+	/** The rotation and MVP matrix setup of the line pass. */
+	@Benchmark
+	public void lineTransform() {
+		renderer_.updateLineTransform();
+	}
+
+	/**
+	 * A preference change going through the SettingsUpdater into a new
+	 * settings snapshot, without applying it.
+	 */
+	@Benchmark
+	public void settingsUpdate() {
+		blur_ = (blur_ + 1) & 255;
+		preferences_.edit().putInt("blur", blur_).apply();
+	}
+
+	/** A preference change, and the frame which applies it. */
+	@Benchmark
+	public void settingsUpdateAndFrame() {
+		blur_ = (blur_ + 1) & 255;
+		preferences_.edit().putInt("blur", blur_).apply();
+		renderer_.onDrawFrame(null);
+	}
+}
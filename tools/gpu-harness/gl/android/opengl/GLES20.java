@@ -0,0 +1,335 @@
+package android.opengl;
+
+import java.nio.Buffer;
+
+import org.lwjgl.system.MemoryUtil;
+
+/**
+ * GLES20 forwarding to LWJGL's OpenGL ES bindings, for running the renderer
+ * on a desktop driver. Takes the Android signatures: array offsets, and
+ * buffers starting at their position. Buffers must be direct.
+ */
+public class GLES20 {
+	public static final int GL_NO_ERROR = 0;
+	public static final int GL_FALSE = 0;
+	public static final int GL_TRUE = 1;
+	public static final int GL_ZERO = 0;
+	public static final int GL_ONE = 1;
+	public static final int GL_LINES = 0x0001;
+	public static final int GL_TRIANGLE_STRIP = 0x0005;
+	public static final int GL_SRC_ALPHA = 0x0302;
+	public static final int GL_ONE_MINUS_SRC_ALPHA = 0x0303;
+	public static final int GL_INVALID_OPERATION = 0x0502;
+	public static final int GL_OUT_OF_MEMORY = 0x0505;
+	public static final int GL_DEPTH_TEST = 0x0B71;
+	public static final int GL_DITHER = 0x0BD0;
+	public static final int GL_BLEND = 0x0BE2;
+	public static final int GL_SCISSOR_TEST = 0x0C11;
+	public static final int GL_MAX_TEXTURE_SIZE = 0x0D33;
+	public static final int GL_RED_BITS = 0x0D52;
+	public static final int GL_GREEN_BITS = 0x0D53;
+	public static final int GL_BLUE_BITS = 0x0D54;
+	public static final int GL_TEXTURE_2D = 0x0DE1;
+	public static final int GL_BYTE = 0x1400;
+	public static final int GL_UNSIGNED_BYTE = 0x1401;
+	public static final int GL_SHORT = 0x1402;
+	public static final int GL_UNSIGNED_SHORT = 0x1403;
+	public static final int GL_FLOAT = 0x1406;
+	public static final int GL_RGB = 0x1907;
+	public static final int GL_RGBA = 0x1908;
+	public static final int GL_VENDOR = 0x1F00;
+	public static final int GL_RENDERER = 0x1F01;
+	public static final int GL_VERSION = 0x1F02;
+	public static final int GL_EXTENSIONS = 0x1F03;
+	public static final int GL_NEAREST = 0x2600;
+	public static final int GL_LINEAR = 0x2601;
+	public static final int GL_TEXTURE_MAG_FILTER = 0x2800;
+	public static final int GL_TEXTURE_MIN_FILTER = 0x2801;
+	public static final int GL_TEXTURE_WRAP_S = 0x2802;
+	public static final int GL_TEXTURE_WRAP_T = 0x2803;
+	public static final int GL_COLOR_BUFFER_BIT = 0x4000;
+	public static final int GL_UNSIGNED_SHORT_4_4_4_4 = 0x8033;
+	public static final int GL_CLAMP_TO_EDGE = 0x812F;
+	public static final int GL_UNSIGNED_SHORT_5_6_5 = 0x8363;
+	public static final int GL_TEXTURE0 = 0x84C0;
+	public static final int GL_ARRAY_BUFFER = 0x8892;
+	public static final int GL_STATIC_DRAW = 0x88E4;
+	public static final int GL_FRAGMENT_SHADER = 0x8B30;
+	public static final int GL_VERTEX_SHADER = 0x8B31;
+	public static final int GL_COMPILE_STATUS = 0x8B81;
+	public static final int GL_LINK_STATUS = 0x8B82;
+	public static final int GL_INFO_LOG_LENGTH = 0x8B84;
+	public static final int GL_SHADING_LANGUAGE_VERSION = 0x8B8C;
+	public static final int GL_FRAMEBUFFER_COMPLETE = 0x8CD5;
+	public static final int GL_COLOR_ATTACHMENT0 = 0x8CE0;
+	public static final int GL_FRAMEBUFFER = 0x8D40;
+	public static final int GL_LOW_FLOAT = 0x8DF0;
+	public static final int GL_MEDIUM_FLOAT = 0x8DF1;
+	public static final int GL_HIGH_FLOAT = 0x8DF2;
+
+	protected static long address(Buffer buffer) {
+		return buffer != null ? MemoryUtil.memAddress(buffer) : 0L;
+	}
+
+	public static void glActiveTexture(int texture) {
+		org.lwjgl.opengles.GLES20.glActiveTexture(texture);
+	}
+
+	public static void glAttachShader(int program, int shader) {
+		org.lwjgl.opengles.GLES20.glAttachShader(program, shader);
+	}
+
+	public static void glBindBuffer(int target, int buffer) {
+		org.lwjgl.opengles.GLES20.glBindBuffer(target, buffer);
+	}
+
+	public static void glBindFramebuffer(int target, int framebuffer) {
+		org.lwjgl.opengles.GLES20.glBindFramebuffer(target, framebuffer);
+	}
+
+	public static void glBindTexture(int target, int texture) {
+		org.lwjgl.opengles.GLES20.glBindTexture(target, texture);
+	}
+
+	public static void glBlendFunc(int sfactor, int dfactor) {
+		org.lwjgl.opengles.GLES20.glBlendFunc(sfactor, dfactor);
+	}
+
+	public static void glBufferData(int target, int size, Buffer data,
+			int usage) {
+		org.lwjgl.opengles.GLES20.nglBufferData(target, size, address(data),
+				usage);
+	}
+
+	public static int glCheckFramebufferStatus(int target) {
+		return org.lwjgl.opengles.GLES20.glCheckFramebufferStatus(target);
+	}
+
+	public static void glClear(int mask) {
+		org.lwjgl.opengles.GLES20.glClear(mask);
+	}
+
+	public static void glClearColor(float red, float green, float blue,
+			float alpha) {
+		org.lwjgl.opengles.GLES20.glClearColor(red, green, blue, alpha);
+	}
+
+	public static void glCompileShader(int shader) {
+		org.lwjgl.opengles.GLES20.glCompileShader(shader);
+	}
+
+	public static int glCreateProgram() {
+		return org.lwjgl.opengles.GLES20.glCreateProgram();
+	}
+
+	public static int glCreateShader(int type) {
+		return org.lwjgl.opengles.GLES20.glCreateShader(type);
+	}
+
+	public static void glDeleteBuffers(int n, int[] buffers, int offset) {
+		for (int i = 0; i < n; ++i) {
+			org.lwjgl.opengles.GLES20.glDeleteBuffers(buffers[offset + i]);
+		}
+	}
+
+	public static void glDeleteFramebuffers(int n, int[] framebuffers,
+			int offset) {
+		for (int i = 0; i < n; ++i) {
+			org.lwjgl.opengles.GLES20
+					.glDeleteFramebuffers(framebuffers[offset + i]);
+		}
+	}
+
+	public static void glDeleteProgram(int program) {
+		org.lwjgl.opengles.GLES20.glDeleteProgram(program);
+	}
+
+	public static void glDeleteShader(int shader) {
+		org.lwjgl.opengles.GLES20.glDeleteShader(shader);
+	}
+
+	public static void glDeleteTextures(int n, int[] textures, int offset) {
+		for (int i = 0; i < n; ++i) {
+			org.lwjgl.opengles.GLES20.glDeleteTextures(textures[offset + i]);
+		}
+	}
+
+	public static void glDisable(int cap) {
+		org.lwjgl.opengles.GLES20.glDisable(cap);
+	}
+
+	public static void glDisableVertexAttribArray(int index) {
+		org.lwjgl.opengles.GLES20.glDisableVertexAttribArray(index);
+	}
+
+	public static void glDrawArrays(int mode, int first, int count) {
+		org.lwjgl.opengles.GLES20.glDrawArrays(mode, first, count);
+	}
+
+	public static void glEnable(int cap) {
+		org.lwjgl.opengles.GLES20.glEnable(cap);
+	}
+
+	public static void glEnableVertexAttribArray(int index) {
+		org.lwjgl.opengles.GLES20.glEnableVertexAttribArray(index);
+	}
+
+	public static void glFinish() {
+		org.lwjgl.opengles.GLES20.glFinish();
+	}
+
+	public static void glFlush() {
+		org.lwjgl.opengles.GLES20.glFlush();
+	}
+
+	public static void glFramebufferTexture2D(int target, int attachment,
+			int textarget, int texture, int level) {
+		org.lwjgl.opengles.GLES20.glFramebufferTexture2D(target, attachment,
+				textarget, texture, level);
+	}
+
+	public static void glGenBuffers(int n, int[] buffers, int offset) {
+		for (int i = 0; i < n; ++i) {
+			buffers[offset + i] = org.lwjgl.opengles.GLES20.glGenBuffers();
+		}
+	}
+
+	public static void glGenFramebuffers(int n, int[] framebuffers, int offset) {
+		for (int i = 0; i < n; ++i) {
+			framebuffers[offset + i] = org.lwjgl.opengles.GLES20
+					.glGenFramebuffers();
+		}
+	}
+
+	public static void glGenTextures(int n, int[] textures, int offset) {
+		for (int i = 0; i < n; ++i) {
+			textures[offset + i] = org.lwjgl.opengles.GLES20.glGenTextures();
+		}
+	}
+
+	public static int glGetAttribLocation(int program, String name) {
+		return org.lwjgl.opengles.GLES20.glGetAttribLocation(program, name);
+	}
+
+	public static int glGetError() {
+		return org.lwjgl.opengles.GLES20.glGetError();
+	}
+
+	/** Single valued parameters only. */
+	public static void glGetIntegerv(int pname, int[] params, int offset) {
+		params[offset] = org.lwjgl.opengles.GLES20.glGetInteger(pname);
+	}
+
+	public static String glGetProgramInfoLog(int program) {
+		return org.lwjgl.opengles.GLES20.glGetProgramInfoLog(program);
+	}
+
+	public static void glGetProgramiv(int program, int pname, int[] params,
+			int offset) {
+		params[offset] = org.lwjgl.opengles.GLES20.glGetProgrami(program,
+				pname);
+	}
+
+	public static String glGetShaderInfoLog(int shader) {
+		return org.lwjgl.opengles.GLES20.glGetShaderInfoLog(shader);
+	}
+
+	public static void glGetShaderiv(int shader, int pname, int[] params,
+			int offset) {
+		params[offset] = org.lwjgl.opengles.GLES20.glGetShaderi(shader, pname);
+	}
+
+	public static void glGetShaderPrecisionFormat(int shadertype,
+			int precisiontype, int[] range, int rangeOffset,
+			int[] precision, int precisionOffset) {
+		int[] r = new int[2];
+		int[] p = new int[1];
+		org.lwjgl.opengles.GLES20.glGetShaderPrecisionFormat(shadertype,
+				precisiontype, r, p);
+		range[rangeOffset] = r[0];
+		range[rangeOffset + 1] = r[1];
+		precision[precisionOffset] = p[0];
+	}
+
+	public static String glGetString(int name) {
+		return org.lwjgl.opengles.GLES20.glGetString(name);
+	}
+
+	public static int glGetUniformLocation(int program, String name) {
+		return org.lwjgl.opengles.GLES20.glGetUniformLocation(program, name);
+	}
+
+	public static void glLineWidth(float width) {
+		org.lwjgl.opengles.GLES20.glLineWidth(width);
+	}
+
+	public static void glLinkProgram(int program) {
+		org.lwjgl.opengles.GLES20.glLinkProgram(program);
+	}
+
+	public static void glShaderSource(int shader, String string) {
+		org.lwjgl.opengles.GLES20.glShaderSource(shader, string);
+	}
+
+	public static void glTexImage2D(int target, int level, int internalformat,
+			int width, int height, int border, int format, int type,
+			Buffer pixels) {
+		org.lwjgl.opengles.GLES20.nglTexImage2D(target, level,
+				internalformat, width, height, border, format, type,
+				address(pixels));
+	}
+
+	public static void glTexParameterf(int target, int pname, float param) {
+		org.lwjgl.opengles.GLES20.glTexParameterf(target, pname, param);
+	}
+
+	public static void glTexParameteri(int target, int pname, int param) {
+		org.lwjgl.opengles.GLES20.glTexParameteri(target, pname, param);
+	}
+
+	public static void glUniform1f(int location, float x) {
+		org.lwjgl.opengles.GLES20.glUniform1f(location, x);
+	}
+
+	public static void glUniform1i(int location, int x) {
+		org.lwjgl.opengles.GLES20.glUniform1i(location, x);
+	}
+
+	public static void glUniform2f(int location, float x, float y) {
+		org.lwjgl.opengles.GLES20.glUniform2f(location, x, y);
+	}
+
+	public static void glUniform3f(int location, float x, float y, float z) {
+		org.lwjgl.opengles.GLES20.glUniform3f(location, x, y, z);
+	}
+
+	public static void glUniformMatrix4fv(int location, int count,
+			boolean transpose, float[] value, int offset) {
+		if (offset != 0 || value.length != count * 16) {
+			value = java.util.Arrays.copyOfRange(value, offset, offset + count
+					* 16);
+		}
+		org.lwjgl.opengles.GLES20.glUniformMatrix4fv(location, transpose,
+				value);
+	}
+
+	public static void glUseProgram(int program) {
+		org.lwjgl.opengles.GLES20.glUseProgram(program);
+	}
+
+	public static void glVertexAttribPointer(int indx, int size, int type,
+			boolean normalized, int stride, Buffer ptr) {
+		org.lwjgl.opengles.GLES20.nglVertexAttribPointer(indx, size, type,
+				normalized, stride, address(ptr));
+	}
+
+	public static void glVertexAttribPointer(int indx, int size, int type,
+			boolean normalized, int stride, int offset) {
+		org.lwjgl.opengles.GLES20.glVertexAttribPointer(indx, size, type,
+				normalized, stride, offset);
+	}
+
+	public static void glViewport(int x, int y, int width, int height) {
+		org.lwjgl.opengles.GLES20.glViewport(x, y, width, height);
+	}
+}
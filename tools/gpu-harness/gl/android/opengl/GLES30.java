@@ -0,0 +1,75 @@
+package android.opengl;
+
+import java.nio.Buffer;
+import java.util.Arrays;
+
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+
+/**
+ * GLES30 forwarding to LWJGL, see {@link GLES20}. Only valid on ES 3
+ * contexts, which the renderer checks for before using these.
+ */
+public class GLES30 extends GLES20 {
+	public static final int GL_COLOR = 0x1800;
+	public static final int GL_DEPTH = 0x1801;
+	public static final int GL_STENCIL = 0x1802;
+	public static final int GL_QUERY_RESULT = 0x8866;
+	public static final int GL_QUERY_RESULT_AVAILABLE = 0x8867;
+
+	public static void glBeginQuery(int target, int id) {
+		org.lwjgl.opengles.GLES30.glBeginQuery(target, id);
+	}
+
+	public static void glDeleteQueries(int n, int[] ids, int offset) {
+		for (int i = 0; i < n; ++i) {
+			org.lwjgl.opengles.GLES30.glDeleteQueries(ids[offset + i]);
+		}
+	}
+
+	public static void glEndQuery(int target) {
+		org.lwjgl.opengles.GLES30.glEndQuery(target);
+	}
+
+	public static void glGenQueries(int n, int[] ids, int offset) {
+		for (int i = 0; i < n; ++i) {
+			ids[offset + i] = org.lwjgl.opengles.GLES30.glGenQueries();
+		}
+	}
+
+	public static void glGetProgramBinary(int program, int bufSize,
+			int[] length, int lengthOffset, int[] binaryFormat,
+			int binaryFormatOffset, Buffer binary) {
+		MemoryStack stack = MemoryStack.stackPush();
+		try {
+			long values = stack.nmalloc(4, 8);
+			org.lwjgl.opengles.GLES30.nglGetProgramBinary(program, bufSize,
+					values, values + 4, address(binary));
+			length[lengthOffset] = MemoryUtil.memGetInt(values);
+			binaryFormat[binaryFormatOffset] = MemoryUtil.memGetInt(values + 4);
+		} finally {
+			stack.pop();
+		}
+	}
+
+	public static void glGetQueryObjectuiv(int id, int pname, int[] params,
+			int offset) {
+		params[offset] = org.lwjgl.opengles.GLES30.glGetQueryObjectui(id,
+				pname);
+	}
+
+	public static void glInvalidateFramebuffer(int target, int numAttachments,
+			int[] attachments, int offset) {
+		if (offset != 0 || attachments.length != numAttachments) {
+			attachments = Arrays.copyOfRange(attachments, offset, offset
+					+ numAttachments);
+		}
+		org.lwjgl.opengles.GLES30.glInvalidateFramebuffer(target, attachments);
+	}
+
+	public static void glProgramBinary(int program, int binaryFormat,
+			Buffer binary, int length) {
+		org.lwjgl.opengles.GLES30.nglProgramBinary(program, binaryFormat,
+				address(binary), length);
+	}
+}
@@ -0,0 +1,309 @@
+package cxa.lineswallpaper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.egl.EGL;
+import org.lwjgl.egl.EGL10;
+import org.lwjgl.egl.EGL12;
+import org.lwjgl.egl.EGL13;
+import org.lwjgl.egl.EGL14;
+import org.lwjgl.opengles.GLES;
+
+import android.opengl.GLES20;
+import android.util.Log;
+import cxa.lineswallpaper.tools.MemoryPreferences;
+
+/**
+ * Renders GLES20LinesRenderer offscreen into an EGL pbuffer for a number of
+ * frames at each surface size and writes frame rate and per pass times as
+ * CSV, one row per size. Meant for Mesa's software rasterizer on machines
+ * without a GPU: absolute numbers say nothing about phones, but the relative
+ * cost of passes, sizes, formats and line counts carries over.
+ *
+ * Pass times come from the renderer's GpuProfiler in finish mode, which
+ * with a software rasterizer is the time spent rendering. The glFinish
+ * calls add a little to the frame time.
+ *
+ * Usage: GpuHarness [--frames N] [--warmup N] [--size WxH]...
+ * [--set key=value]... [--out file.csv]
+ *
+ * --set takes the preference keys of res/xml/settings.xml, e.g.
+ * feedback_format=rgb565, line_count_max=255, blur=0. The adaptive line
+ * count and the dynamic resolution are off unless set, so every run draws
+ * the same amount of work.
+ */
+public class GpuHarness {
+	private static String TAG = "GpuHarness";
+
+	private static final String[] DEFAULT_SIZES = { "480x800", "720x1280",
+			"1080x1920" };
+
+	private int frames_ = 300;
+	private int warmup_ = 30;
+	private final ArrayList<String> sizes_ = new ArrayList<String>();
+	private final LinkedHashMap<String, Object> settings_ = new LinkedHashMap<String, Object>();
+	private File out_ = null;
+
+	private long display_;
+	private long config_;
+
+	public static void main(String[] args) throws IOException {
+		GpuHarness harness = new GpuHarness();
+		harness.parseArguments(args);
+		harness.run();
+	}
+
+	private void parseArguments(String[] args) {
+		settings_.put("adaptive_line_count", false);
+		settings_.put("dynamic_resolution", false);
+		for (int i = 0; i < args.length; ++i) {
+			String arg = args[i];
+			if (i + 1 >= args.length) {
+				usage("missing value for " + arg);
+			}
+			String value = args[++i];
+			if (arg.equals("--frames")) {
+				frames_ = Integer.parseInt(value);
+			} else if (arg.equals("--warmup")) {
+				warmup_ = Integer.parseInt(value);
+			} else if (arg.equals("--size")) {
+				sizes_.add(value);
+			} else if (arg.equals("--out")) {
+				out_ = new File(value);
+			} else if (arg.equals("--set")) {
+				int separator = value.indexOf('=');
+				if (separator < 1) {
+					usage("expected key=value: " + value);
+				}
+				settings_.put(value.substring(0, separator),
+						parseValue(value.substring(separator + 1)));
+			} else {
+				usage("unknown option " + arg);
+			}
+		}
+		if (sizes_.isEmpty()) {
+			sizes_.addAll(Arrays.asList(DEFAULT_SIZES));
+		}
+		// the pass times come from the profiler
+		settings_.put("gpu_profiling", "finish");
+	}
+
+	private static void usage(String error) {
+		System.err.println(error);
+		System.err.println("usage: GpuHarness [--frames N] [--warmup N] "
+				+ "[--size WxH]... [--set key=value]... [--out file.csv]");
+		System.exit(2);
+	}
+
+	/*
+	 * Preferences are typed, the renderer reads booleans, ints and strings.
+	 */
+	private static Object parseValue(String value) {
+		if (value.equals("true") || value.equals("false")) {
+			return Boolean.valueOf(value);
+		}
+		try {
+			return Integer.valueOf(value);
+		} catch (NumberFormatException e) {
+			return value;
+		}
+	}
+
+	private void run() throws IOException {
+		boolean header = out_ == null || !out_.exists() || out_.length() == 0;
+		PrintStream out = out_ != null ? new PrintStream(new FileOutputStream(
+				out_, true)) : System.out;
+		try {
+			initEgl();
+			if (header) {
+				out.println(csvHeader());
+			}
+			for (int i = 0; i < sizes_.size(); ++i) {
+				String size = sizes_.get(i);
+				int separator = size.indexOf('x');
+				int width = Integer.parseInt(size.substring(0, separator));
+				int height = Integer.parseInt(size.substring(separator + 1));
+				out.println(runSize(width, height));
+				out.flush();
+			}
+		} finally {
+			if (display_ != EGL10.EGL_NO_DISPLAY) {
+				EGL10.eglTerminate(display_);
+			}
+			if (out != System.out) {
+				out.close();
+			}
+		}
+	}
+
+	private void initEgl() {
+		display_ = EGL10.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+		if (display_ == EGL10.EGL_NO_DISPLAY) {
+			throw new RuntimeException("eglGetDisplay failed");
+		}
+		int[] major = new int[1];
+		int[] minor = new int[1];
+		if (!EGL10.eglInitialize(display_, major, minor)) {
+			throw eglError("eglInitialize");
+		}
+		EGL.createDisplayCapabilities(display_, major[0], minor[0]);
+		Log.i(TAG, "EGL " + EGL10.eglQueryString(display_, EGL10.EGL_VENDOR)
+				+ " " + EGL10.eglQueryString(display_, EGL10.EGL_VERSION));
+		if (!EGL12.eglBindAPI(EGL12.EGL_OPENGL_ES_API)) {
+			throw eglError("eglBindAPI");
+		}
+
+		// RGB888 like the window surfaces of most devices
+		int[] attributes = { EGL10.EGL_SURFACE_TYPE, EGL10.EGL_PBUFFER_BIT,
+				EGL12.EGL_RENDERABLE_TYPE, EGL13.EGL_OPENGL_ES2_BIT,
+				EGL10.EGL_RED_SIZE, 8, EGL10.EGL_GREEN_SIZE, 8,
+				EGL10.EGL_BLUE_SIZE, 8, EGL10.EGL_NONE };
+		PointerBuffer configs = PointerBuffer.allocateDirect(1);
+		int[] count = new int[1];
+		if (!EGL10.eglChooseConfig(display_, attributes, configs, count)
+				|| count[0] == 0) {
+			throw eglError("eglChooseConfig");
+		}
+		config_ = configs.get(0);
+	}
+
+	private static RuntimeException eglError(String function) {
+		return new RuntimeException(function + " failed: 0x"
+				+ Integer.toHexString(EGL10.eglGetError()));
+	}
+
+	/*
+	 * Renders with a fresh context, surface and renderer, so no state
+	 * carries over from the previous size.
+	 */
+	private String runSize(int width, int height) {
+		long context = EGL10.eglCreateContext(display_, config_,
+				EGL10.EGL_NO_CONTEXT, new int[] {
+						EGL13.EGL_CONTEXT_CLIENT_VERSION, 2, EGL10.EGL_NONE });
+		if (context == EGL10.EGL_NO_CONTEXT) {
+			throw eglError("eglCreateContext");
+		}
+		long surface = EGL10.eglCreatePbufferSurface(display_, config_,
+				new int[] { EGL10.EGL_WIDTH, width, EGL10.EGL_HEIGHT, height,
+						EGL10.EGL_NONE });
+		if (surface == EGL10.EGL_NO_SURFACE) {
+			throw eglError("eglCreatePbufferSurface");
+		}
+		if (!EGL10.eglMakeCurrent(display_, surface, surface, context)) {
+			throw eglError("eglMakeCurrent");
+		}
+		GLES.createCapabilities();
+		String glRenderer = GLES20.glGetString(GLES20.GL_RENDERER);
+
+		MemoryPreferences preferences = new MemoryPreferences();
+		for (Map.Entry<String, Object> entry : settings_.entrySet()) {
+			put(preferences, entry.getKey(), entry.getValue());
+		}
+		GLES20LinesRenderer renderer = new GLES20LinesRenderer(null);
+		renderer.setSharedPreferences(preferences);
+		renderer.onSurfaceCreated(null, null);
+		renderer.onSurfaceChanged(null, width, height);
+		for (int i = 0; i < warmup_; ++i) {
+			renderer.onDrawFrame(null);
+		}
+		GLES20.glFinish();
+
+		GpuProfiler profiler = renderer.getProfiler();
+		for (int i = 0; i < GpuProfiler.SECTION_COUNT; ++i) {
+			profiler.getHistogram(i).clear();
+		}
+		long[] frameNanos = new long[frames_];
+		long start = System.nanoTime();
+		for (int i = 0; i < frames_; ++i) {
+			long frameStart = System.nanoTime();
+			renderer.onDrawFrame(null);
+			GLES20.glFinish();
+			frameNanos[i] = System.nanoTime() - frameStart;
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		StringBuilder row = new StringBuilder();
+		row.append(quote(glRenderer)).append(',').append(width).append(',')
+				.append(height).append(',').append(frames_).append(',')
+				.append(format(frames_ / seconds));
+		Arrays.sort(frameNanos);
+		long sum = 0;
+		for (int i = 0; i < frameNanos.length; ++i) {
+			sum += frameNanos[i];
+		}
+		row.append(',').append(format(sum / 1e6 / frames_));
+		row.append(',').append(format(percentile(frameNanos, 0.5) / 1e6));
+		row.append(',').append(format(percentile(frameNanos, 0.95) / 1e6));
+		for (int i = 0; i < GpuProfiler.SECTION_COUNT; ++i) {
+			TimingHistogram histogram = profiler.getHistogram(i);
+			row.append(',').append(format(histogram.getMean()));
+			row.append(',').append(format(histogram.getMax()));
+		}
+		row.append(',').append(quote(describeSettings()));
+
+		renderer.onRelease(null);
+		renderer.release();
+		EGL10.eglMakeCurrent(display_, EGL10.EGL_NO_SURFACE,
+				EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_CONTEXT);
+		EGL10.eglDestroySurface(display_, surface);
+		EGL10.eglDestroyContext(display_, context);
+		Log.i(TAG, width + "x" + height + ": " + profiler);
+		return row.toString();
+	}
+
+	private static void put(MemoryPreferences preferences, String key,
+			Object value) {
+		if (value instanceof Boolean) {
+			preferences.edit().putBoolean(key, (Boolean) value).apply();
+		} else if (value instanceof Integer) {
+			preferences.edit().putInt(key, (Integer) value).apply();
+		} else {
+			preferences.edit().putString(key, (String) value).apply();
+		}
+	}
+
+	private static String csvHeader() {
+		StringBuilder header = new StringBuilder(
+				"renderer,width,height,frames,fps,frame_ms_mean,frame_ms_p50,frame_ms_p95");
+		for (int i = 0; i < GpuProfiler.SECTION_COUNT; ++i) {
+			String name = GpuProfiler.getSectionName(i);
+			header.append(',').append(name).append("_ms_mean,").append(name)
+					.append("_ms_max");
+		}
+		return header.append(",settings").toString();
+	}
+
+	private String describeSettings() {
+		StringBuilder builder = new StringBuilder();
+		for (Map.Entry<String, Object> entry : settings_.entrySet()) {
+			if (builder.length() > 0) {
+				builder.append(' ');
+			}
+			builder.append(entry.getKey()).append('=')
+					.append(entry.getValue());
+		}
+		return builder.toString();
+	}
+
+	private static long percentile(long[] sorted, double fraction) {
+		int index = (int) Math.ceil(fraction * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+	}
+
+	private static String format(double value) {
+		return String.format(Locale.ROOT, "%.3f", value);
+	}
+
+	private static String quote(String value) {
+		return "\"" + value.replace("\"", "\"\"") + "\"";
+	}
+}
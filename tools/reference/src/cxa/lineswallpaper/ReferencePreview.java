@@ -0,0 +1,156 @@
+package cxa.lineswallpaper;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.imageio.ImageIO;
+
+import android.util.Log;
+import cxa.lineswallpaper.tools.MemoryPreferences;
+
+/**
+ * Renders the wallpaper with ReferenceRenderer and writes the last frame as
+ * a PNG. The trails need a few seconds of frames to build up, so by default
+ * 600 frames 16 ms apart are drawn before the one that is written.
+ *
+ * Usage: ReferencePreview [--size WxH] [--frames N] [--start ms]
+ * [--step ms] [--threads N] [--seed N] [--set key=value]... [--out file.png]
+ *
+ * --set takes the preference keys of res/xml/settings.xml, as in the GPU
+ * harness, e.g. feedback_format=rgb565, line_count_max=255, blur=0. Only
+ * the maximum line count is used, the adaptive line count and the dynamic
+ * resolution are not modelled. --start is the SystemClock.uptimeMillis()
+ * value of the first frame, so the same arguments give the same image.
+ */
+public class ReferencePreview {
+	private static String TAG = "ReferencePreview";
+
+	private int width_ = 1080;
+	private int height_ = 1920;
+	private int frames_ = 600;
+	private long start_ = 0;
+	private long step_ = 16;
+	private int threads_ = Runtime.getRuntime().availableProcessors();
+	private long seed_ = 0;
+	private final LinkedHashMap<String, Object> settings_ = new LinkedHashMap<String, Object>();
+	private File out_ = new File("preview.png");
+
+	public static void main(String[] args) throws IOException {
+		ReferencePreview preview = new ReferencePreview();
+		preview.parseArguments(args);
+		preview.run();
+	}
+
+	private void parseArguments(String[] args) {
+		for (int i = 0; i < args.length; ++i) {
+			String arg = args[i];
+			if (i + 1 >= args.length) {
+				usage("missing value for " + arg);
+			}
+			String value = args[++i];
+			if (arg.equals("--size")) {
+				int separator = value.indexOf('x');
+				if (separator < 1) {
+					usage("expected WxH: " + value);
+				}
+				width_ = Integer.parseInt(value.substring(0, separator));
+				height_ = Integer.parseInt(value.substring(separator + 1));
+			} else if (arg.equals("--frames")) {
+				frames_ = Math.max(1, Integer.parseInt(value));
+			} else if (arg.equals("--start")) {
+				start_ = Long.parseLong(value);
+			} else if (arg.equals("--step")) {
+				step_ = Long.parseLong(value);
+			} else if (arg.equals("--threads")) {
+				threads_ = Math.max(1, Integer.parseInt(value));
+			} else if (arg.equals("--seed")) {
+				seed_ = Long.parseLong(value);
+			} else if (arg.equals("--out")) {
+				out_ = new File(value);
+			} else if (arg.equals("--set")) {
+				int separator = value.indexOf('=');
+				if (separator < 1) {
+					usage("expected key=value: " + value);
+				}
+				settings_.put(value.substring(0, separator),
+						parseValue(value.substring(separator + 1)));
+			} else {
+				usage("unknown option " + arg);
+			}
+		}
+	}
+
+	private static void usage(String error) {
+		System.err.println(error);
+		System.err.println("usage: ReferencePreview [--size WxH] [--frames N] "
+				+ "[--start ms] [--step ms] [--threads N] [--seed N] "
+				+ "[--set key=value]... [--out file.png]");
+		System.exit(2);
+	}
+
+	/*
+	 * Preferences are typed, the renderer reads booleans, ints and strings.
+	 */
+	private static Object parseValue(String value) {
+		if (value.equals("true") || value.equals("false")) {
+			return Boolean.valueOf(value);
+		}
+		try {
+			return Integer.valueOf(value);
+		} catch (NumberFormatException e) {
+			return value;
+		}
+	}
+
+	private void run() throws IOException {
+		MemoryPreferences preferences = new MemoryPreferences();
+		for (Map.Entry<String, Object> entry : settings_.entrySet()) {
+			Object value = entry.getValue();
+			if (value instanceof Boolean) {
+				preferences.edit().putBoolean(entry.getKey(), (Boolean) value)
+						.apply();
+			} else if (value instanceof Integer) {
+				preferences.edit().putInt(entry.getKey(), (Integer) value)
+						.apply();
+			} else {
+				preferences.edit().putString(entry.getKey(), (String) value)
+						.apply();
+			}
+		}
+		RendererSettings settings = RendererSettings.DEFAULTS.update(
+				preferences, null);
+
+		ForkJoinPool pool = new ForkJoinPool(threads_);
+		try {
+			ReferenceRenderer renderer = new ReferenceRenderer(seed_, pool);
+			renderer.setSettings(settings);
+			renderer.setSurfaceSize(width_, height_);
+			Log.i(TAG, width_ + "x" + height_ + ", framebuffer "
+					+ renderer.getFramebufferWidth() + "x"
+					+ renderer.getFramebufferHeight() + ", " + threads_
+					+ " threads");
+
+			int[] pixels = null;
+			long begin = System.nanoTime();
+			for (int i = 0; i < frames_; ++i) {
+				pixels = renderer.renderFrame(start_ + i * step_);
+			}
+			float ms = (System.nanoTime() - begin) / 1000000.0f / frames_;
+			Log.i(TAG, frames_ + " frames, " + ms + " ms per frame");
+
+			BufferedImage image = new BufferedImage(width_, height_,
+					BufferedImage.TYPE_INT_RGB);
+			image.setRGB(0, 0, width_, height_, pixels, 0, width_);
+			if (!ImageIO.write(image, "png", out_)) {
+				throw new RuntimeException("no PNG writer");
+			}
+			Log.i(TAG, "wrote " + out_);
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
@@ -0,0 +1,787 @@
+package cxa.lineswallpaper;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import android.graphics.Color;
+import android.opengl.Matrix;
+
+/**
+ * Draws what GLES20LinesRenderer draws, in plain Java, into an int[] ARGB
+ * framebuffer: the same projection and rotation, the depth wrapped line
+ * brightness, additive lines, the blur chain and the faded feedback, at the
+ * same framebuffer size and feedback format precision. Every pass is split
+ * into tiles which run on a fork-join pool. Each tile writes its own pixels
+ * only and draws its lines in vertex order, so the result does not depend
+ * on the number of threads.
+ *
+ * The time is passed in instead of read from the clock, so a frame sequence
+ * can be reproduced exactly. It is meant for previews on the desktop and as
+ * the expected image for the GPU path. It is close to the GPU, not equal:
+ * shader precision qualifiers, the sub-texel precision of the bilinear
+ * filter and the exact pixels of wide lines are left to the driver by the
+ * spec.
+ *
+ * Feedback targets are kept as rgb floats, rounded to the channel bits of
+ * the feedback format after every write like a fixed point target. Their
+ * alpha is always 1: the first clear, the quad passes and the blended lines
+ * all write 1, so the alpha scaled feedback reduces to the blur factor.
+ * Rows are stored bottom up, as in GL, and flipped for the output.
+ */
+class ReferenceRenderer {
+	private static final int TILE_SIZE = 64;
+
+	// The same as in GLES20LinesRenderer
+	private static final int MAX_LINE_COUNT = 3000;
+	private static final int MAX_BLUR_LEVELS = 2;
+	private static final int LINE_VERTEX_FORMAT = LineGeometry.FORMAT_SHORT;
+
+	// Passes run by TileRange
+	private static final int PASS_BLUR_DOWN = 0;
+	private static final int PASS_BLUR_UP = 1;
+	private static final int PASS_FEEDBACK = 2;
+	private static final int PASS_SCREEN = 3;
+
+	// Window x, y of both ends, then 1/w and brightness/w of both ends
+	private static final int SEGMENT_FLOATS = 8;
+
+	private final ForkJoinPool pool_;
+	private final LineGeometry geometry_;
+	private final float[] vertices_;
+
+	private float backgroundColorRed_ = 0.0f;
+	private float backgroundColorGreen_ = 0.0f;
+	private float backgroundColorBlue_ = 0.0f;
+	private float linesColorRed_ = 1.0f;
+	private float linesColorGreen_ = 1.0f;
+	private float linesColorBlue_ = 1.0f;
+
+	private float blur_ = 0.86f;
+	private float blurFactor_ = 1.0f;
+	private int blurLevels_ = 0;
+	private float brightness_ = 0.15f;
+	private float brightnessFactor_ = 1.0f;
+	private float lineWidth_ = 1.0f;
+	private float lineWidthFactor_ = 1.0f;
+	private float speedFactor_ = 1.0f;
+	private float rotationSpeedFactor_ = 1.0f;
+	private int lineCount_ = 2;
+
+	private boolean useSmallerTextures_ = false;
+	private boolean useNonPowerOfTwoTextures_ = false;
+	private boolean useNonSquareTextures_ = false;
+	private boolean useOneFramebuffer_ = false;
+	private int feedbackFormat_ = FeedbackFormat.RGBA8888;
+
+	// 0 for targets which are neither rounded nor clamped (half float)
+	private final float[] channelMax_ = new float[3];
+	private float dither_ = 0.0f;
+
+	private int surface_width_ = 0;
+	private int surface_height_ = 0;
+	private int framebuffer_width_ = 0;
+	private int framebuffer_height_ = 0;
+	private final float[][] feedback_targets_ = new float[2][];
+	private final float[][] blur_targets_ = new float[MAX_BLUR_LEVELS][];
+	private final int[] blur_widths_ = new int[MAX_BLUR_LEVELS];
+	private final int[] blur_heights_ = new int[MAX_BLUR_LEVELS];
+	private int target_index_ = 0;
+	private boolean resetFramebuffers_ = true;
+	private int[] pixels_;
+
+	private final float[] proj_matrix_ = new float[16];
+	private final float[] V_matrix_ = new float[16];
+	private final float[] M_matrix_ = new float[16];
+	private final float[] MVP_matrix_ = new float[16];
+	private float delta_ = 0.0f;
+
+	private final float[] segments_ = new float[MAX_LINE_COUNT / 2
+			* SEGMENT_FLOATS];
+	private int segmentCount_ = 0;
+	private int lineWidthPixels_ = 1;
+	private int tilesX_ = 0;
+	private int[][] tileSegments_ = new int[0][];
+	private int[] tileSegmentCounts_ = new int[0];
+
+	/**
+	 * @param seed
+	 *            the "line_seed" preference of the wallpaper to draw.
+	 */
+	public ReferenceRenderer(long seed, ForkJoinPool pool) {
+		pool_ = pool;
+		geometry_ = new LineGeometry(seed, MAX_LINE_COUNT, LINE_VERTEX_FORMAT);
+		vertices_ = decodeVertices(geometry_);
+		Matrix.setLookAtM(V_matrix_, 0, 0, 0, 1.0f, 0f, 0f, 0f, 0f, -1.0f,
+				0.0f);
+		setSettings(RendererSettings.DEFAULTS);
+	}
+
+	/*
+	 * Positions as the vertex shader sees them, before uPositionZ is
+	 * applied. Normalized integers map c to c / max, as in GLES 3.0.
+	 */
+	private static float[] decodeVertices(LineGeometry geometry) {
+		ByteBuffer data = geometry.getData();
+		float[] vertices = new float[geometry.count * 3];
+		for (int i = 0; i < geometry.count; ++i) {
+			data.position(i * geometry.getStride());
+			for (int j = 0; j < 3; ++j) {
+				float value;
+				switch (geometry.format) {
+				case LineGeometry.FORMAT_FLOAT:
+					value = data.getFloat();
+					break;
+				case LineGeometry.FORMAT_SHORT:
+					value = data.getShort() / (float) Short.MAX_VALUE;
+					break;
+				default:
+					value = data.get() / (float) Byte.MAX_VALUE;
+					break;
+				}
+				vertices[i * 3 + j] = Math.max(-1.0f, value);
+			}
+		}
+		return vertices;
+	}
+
+	/**
+	 * Takes the values the same way GLES20LinesRenderer.applySettings()
+	 * does. The adaptive line count and the dynamic resolution are not
+	 * modelled: the maximum line count is drawn at full resolution.
+	 */
+	public void setSettings(RendererSettings settings) {
+		float scale = 1.0f / 255.0f;
+		float scaleBackground = scale * 0.05f;
+		backgroundColorRed_ = scaleBackground
+				* Color.red(settings.backgroundColor);
+		backgroundColorGreen_ = scaleBackground
+				* Color.green(settings.backgroundColor);
+		backgroundColorBlue_ = scaleBackground
+				* Color.blue(settings.backgroundColor);
+		linesColorRed_ = scale * Color.red(settings.linesColor);
+		linesColorGreen_ = scale * Color.green(settings.linesColor);
+		linesColorBlue_ = scale * Color.blue(settings.linesColor);
+
+		blurFactor_ = getScaledFactor(settings.blur, 0.125f);
+		blurLevels_ = Math.min(MAX_BLUR_LEVELS, settings.blur
+				* (MAX_BLUR_LEVELS + 1) / 256);
+		brightnessFactor_ = getScaledFactor(settings.brightness, 1.0f);
+		lineWidthFactor_ = Math.max(0.01f,
+				getScaledFactor(settings.lineWidth, 1.0f));
+		rotationSpeedFactor_ = getScaledFactor(settings.rotationSpeed, 1.0f);
+		speedFactor_ = getScaledFactor(settings.speed, 1.0f);
+		lineCount_ = Math.max(2, (settings.maxLineCount * MAX_LINE_COUNT / 255)
+				& ~1);
+		// GL rounds the width of aliased lines to whole pixels
+		lineWidthPixels_ = Math.max(1,
+				Math.round(lineWidth_ * lineWidthFactor_));
+
+		boolean targetsChanged = settings.useSmallerTextures != useSmallerTextures_
+				|| settings.useNonPowerOfTwoTextures != useNonPowerOfTwoTextures_
+				|| settings.useNonSquareTextures != useNonSquareTextures_
+				|| settings.useOneFramebuffer != useOneFramebuffer_
+				|| settings.feedbackFormat != feedbackFormat_;
+		useSmallerTextures_ = settings.useSmallerTextures;
+		useNonPowerOfTwoTextures_ = settings.useNonPowerOfTwoTextures;
+		useNonSquareTextures_ = settings.useNonSquareTextures;
+		useOneFramebuffer_ = settings.useOneFramebuffer;
+		feedbackFormat_ = settings.feedbackFormat;
+		setChannelBits(feedbackFormat_);
+		if (targetsChanged && surface_width_ > 0) {
+			updateRenderTargets();
+		}
+	}
+
+	private static float getScaledFactor(int value, float multiplier) {
+		float scale = 1.0f / 127.0f;
+		float scaledValue = scale * (value - 127) * multiplier;
+		return (float) Math.exp(scaledValue);
+	}
+
+	private void setChannelBits(int format) {
+		int bits = FeedbackFormat.getColorBits(format);
+		if (format == FeedbackFormat.HALF_FLOAT) {
+			Arrays.fill(channelMax_, 0.0f);
+		} else if (format == FeedbackFormat.RGB565) {
+			channelMax_[0] = 31.0f;
+			channelMax_[1] = 63.0f;
+			channelMax_[2] = 31.0f;
+		} else {
+			Arrays.fill(channelMax_, (1 << bits) - 1);
+		}
+		// the output is taken to be an 8 bit surface
+		dither_ = 1.0f / ((1 << Math.min(bits, 8)) - 1);
+	}
+
+	public void setSurfaceSize(int width, int height) {
+		float scale = 0.1f;
+		float ratio = scale * width / height;
+		Matrix.frustumM(proj_matrix_, 0, -ratio, ratio, -scale, scale, 0.1f,
+				100.0f);
+		surface_width_ = width;
+		surface_height_ = height;
+		pixels_ = new int[width * height];
+		updateRenderTargets();
+	}
+
+	public int getFramebufferWidth() {
+		return framebuffer_width_;
+	}
+
+	public int getFramebufferHeight() {
+		return framebuffer_height_;
+	}
+
+	/*
+	 * The framebuffer size rules of GLES20LinesRenderer.updateFramebufferSize().
+	 * Starts a new trail.
+	 */
+	private void updateRenderTargets() {
+		if (!useNonPowerOfTwoTextures_) {
+			framebuffer_width_ = 1 << (int) (Math.log(surface_width_) / Math
+					.log(2));
+			if (framebuffer_width_ == surface_width_)
+				framebuffer_width_ >>= 1;
+			framebuffer_height_ = 1 << (int) (Math.log(surface_height_) / Math
+					.log(2));
+			if (framebuffer_height_ == surface_height_)
+				framebuffer_height_ >>= 1;
+		} else {
+			framebuffer_width_ = surface_width_;
+			framebuffer_height_ = surface_height_;
+		}
+		if (!useNonSquareTextures_) {
+			int size = Math.max(framebuffer_width_, framebuffer_height_);
+			framebuffer_width_ = size;
+			framebuffer_height_ = size;
+		}
+		if (useSmallerTextures_) {
+			framebuffer_width_ >>= 1;
+			framebuffer_height_ >>= 1;
+		}
+
+		int pixels = framebuffer_width_ * framebuffer_height_;
+		feedback_targets_[0] = new float[pixels * 3];
+		feedback_targets_[1] = useOneFramebuffer_ ? null
+				: new float[pixels * 3];
+		for (int i = 0; i < MAX_BLUR_LEVELS; ++i) {
+			blur_widths_[i] = Math.max(1, framebuffer_width_ >> (i + 1));
+			blur_heights_[i] = Math.max(1, framebuffer_height_ >> (i + 1));
+			blur_targets_[i] = new float[blur_widths_[i] * blur_heights_[i]
+					* 3];
+		}
+
+		tilesX_ = (framebuffer_width_ + TILE_SIZE - 1) / TILE_SIZE;
+		int tiles = tilesX_
+				* ((framebuffer_height_ + TILE_SIZE - 1) / TILE_SIZE);
+		tileSegments_ = new int[tiles][];
+		for (int i = 0; i < tiles; ++i) {
+			tileSegments_[i] = new int[16];
+		}
+		tileSegmentCounts_ = new int[tiles];
+		target_index_ = 0;
+		resetFramebuffers_ = true;
+	}
+
+	/**
+	 * Draws the frame at the given SystemClock.uptimeMillis() value.
+	 *
+	 * @return the surface pixels as ARGB, top row first. The array is reused
+	 *         by the next frame.
+	 */
+	public int[] renderFrame(long uptimeMillis) {
+		int previousIndex = useOneFramebuffer_ ? target_index_
+				: 1 - target_index_;
+		if (resetFramebuffers_) {
+			resetFramebuffers_ = false;
+			float[] target = feedback_targets_[previousIndex];
+			float red = quantize(backgroundColorRed_, 0);
+			float green = quantize(backgroundColorGreen_, 1);
+			float blue = quantize(backgroundColorBlue_, 2);
+			for (int i = 0; i < target.length; i += 3) {
+				target[i] = red;
+				target[i + 1] = green;
+				target[i + 2] = blue;
+			}
+		}
+
+		for (int i = 0; i < blurLevels_; ++i) {
+			runTiled(PASS_BLUR_DOWN, i, blur_widths_[i], blur_heights_[i]);
+		}
+		for (int i = blurLevels_ - 2; i >= 0; --i) {
+			runTiled(PASS_BLUR_UP, i, blur_widths_[i], blur_heights_[i]);
+		}
+
+		updateLineTransform(uptimeMillis);
+		transformLines();
+		binLines();
+		runTiled(PASS_FEEDBACK, 0, framebuffer_width_, framebuffer_height_);
+		runTiled(PASS_SCREEN, 0, surface_width_, surface_height_);
+
+		if (!useOneFramebuffer_) {
+			target_index_ = 1 - target_index_;
+		}
+		return pixels_;
+	}
+
+	private static float getTimeDeltaByScale(long uptimeMillis, long scale) {
+		if (scale < 1)
+			return 0.0f;
+		long time = uptimeMillis % scale;
+		return (float) ((int) time) / (float) scale;
+	}
+
+	private void updateLineTransform(long uptimeMillis) {
+		float angle2 = 360.0f * getTimeDeltaByScale(uptimeMillis,
+				(long) (1 * 50000L / speedFactor_ / rotationSpeedFactor_));
+		Matrix.setRotateM(M_matrix_, 0, angle2, 0, 0, 1.0f);
+		Matrix.multiplyMM(MVP_matrix_, 0, V_matrix_, 0, M_matrix_, 0);
+		Matrix.multiplyMM(MVP_matrix_, 0, proj_matrix_, 0, MVP_matrix_, 0);
+
+		delta_ = getTimeDeltaByScale(uptimeMillis,
+				(long) (1 * 25000L / speedFactor_));
+	}
+
+	/*
+	 * Runs the line vertex shader, clips the lines against the near plane
+	 * and maps them to framebuffer pixels. The brightness is kept divided by
+	 * w for perspective correct interpolation.
+	 */
+	private void transformLines() {
+		float[] m = MVP_matrix_;
+		float brightness = brightness_ * brightnessFactor_;
+		float scaleZ = geometry_.getScaleZ();
+		float biasZ = geometry_.getBiasZ();
+		float halfWidth = 0.5f * framebuffer_width_;
+		float halfHeight = 0.5f * framebuffer_height_;
+		float[] clip = new float[10];
+		segmentCount_ = 0;
+		for (int v = 0; v < lineCount_; v += 2) {
+			for (int e = 0; e < 2; ++e) {
+				int i = (v + e) * 3;
+				float x = vertices_[i];
+				float y = vertices_[i + 1];
+				float z = vertices_[i + 2] * scaleZ + biasZ + delta_;
+				if (z > 1.0f)
+					z = z - 1.0f;
+				int c = e * 5;
+				clip[c] = m[0] * x + m[4] * y + m[8] * z + m[12];
+				clip[c + 1] = m[1] * x + m[5] * y + m[9] * z + m[13];
+				clip[c + 2] = m[2] * x + m[6] * y + m[10] * z + m[14];
+				clip[c + 3] = m[3] * x + m[7] * y + m[11] * z + m[15];
+				clip[c + 4] = brightness * z;
+			}
+
+			// distances to the near plane, z = -w
+			float d0 = clip[2] + clip[3];
+			float d1 = clip[7] + clip[8];
+			if (d0 < 0 && d1 < 0) {
+				continue;
+			}
+			if (d0 < 0 || d1 < 0) {
+				float t = d0 / (d0 - d1);
+				int out = d0 < 0 ? 0 : 5;
+				for (int j = 0; j < 5; ++j) {
+					clip[out + j] = clip[j] + t * (clip[5 + j] - clip[j]);
+				}
+			}
+
+			int s = segmentCount_ * SEGMENT_FLOATS;
+			for (int e = 0; e < 2; ++e) {
+				int c = e * 5;
+				float invW = 1.0f / clip[c + 3];
+				segments_[s + e * 2] = (clip[c] * invW + 1.0f) * halfWidth;
+				segments_[s + e * 2 + 1] = (clip[c + 1] * invW + 1.0f)
+						* halfHeight;
+				segments_[s + 4 + e] = invW;
+				segments_[s + 6 + e] = clip[c + 4] * invW;
+			}
+			++segmentCount_;
+		}
+	}
+
+	/*
+	 * Lists the lines whose bounds, widened by the line width, touch each
+	 * tile, in drawing order.
+	 */
+	private void binLines() {
+		Arrays.fill(tileSegmentCounts_, 0);
+		int tilesY = tileSegments_.length / tilesX_;
+		float reach = lineWidthPixels_ * 0.5f + 1.0f;
+		for (int i = 0; i < segmentCount_; ++i) {
+			int s = i * SEGMENT_FLOATS;
+			float x0 = segments_[s];
+			float y0 = segments_[s + 1];
+			float x1 = segments_[s + 2];
+			float y1 = segments_[s + 3];
+			float minX = Math.min(x0, x1) - reach;
+			float maxX = Math.max(x0, x1) + reach;
+			float minY = Math.min(y0, y1) - reach;
+			float maxY = Math.max(y0, y1) + reach;
+			if (maxX < 0 || maxY < 0 || minX >= framebuffer_width_
+					|| minY >= framebuffer_height_) {
+				continue;
+			}
+			int tx0 = Math.max(0, (int) minX / TILE_SIZE);
+			int tx1 = Math.min(tilesX_ - 1, (int) Math.min(maxX,
+					framebuffer_width_ - 1) / TILE_SIZE);
+			int ty0 = Math.max(0, (int) minY / TILE_SIZE);
+			int ty1 = Math.min(tilesY - 1, (int) Math.min(maxY,
+					framebuffer_height_ - 1) / TILE_SIZE);
+			for (int ty = ty0; ty <= ty1; ++ty) {
+				for (int tx = tx0; tx <= tx1; ++tx) {
+					int tile = ty * tilesX_ + tx;
+					int count = tileSegmentCounts_[tile];
+					if (count == tileSegments_[tile].length) {
+						tileSegments_[tile] = Arrays.copyOf(
+								tileSegments_[tile], count * 2);
+					}
+					tileSegments_[tile][count] = i;
+					tileSegmentCounts_[tile] = count + 1;
+				}
+			}
+		}
+	}
+
+	private void runTiled(int pass, int level, int width, int height) {
+		int tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+		int tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+		pool_.invoke(new TileRange(pass, level, width, height, tilesX, 0,
+				tilesX * tilesY));
+	}
+
+	/*
+	 * A range of tiles of one pass, halved until single tiles are left.
+	 */
+	private class TileRange extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int pass_;
+		private final int level_;
+		private final int width_;
+		private final int height_;
+		private final int tilesX_;
+		private final int first_;
+		private final int count_;
+
+		TileRange(int pass, int level, int width, int height, int tilesX,
+				int first, int count) {
+			pass_ = pass;
+			level_ = level;
+			width_ = width;
+			height_ = height;
+			tilesX_ = tilesX;
+			first_ = first;
+			count_ = count;
+		}
+
+		@Override
+		protected void compute() {
+			if (count_ > 1) {
+				int half = count_ / 2;
+				invokeAll(new TileRange(pass_, level_, width_, height_,
+						tilesX_, first_, half), new TileRange(pass_, level_,
+						width_, height_, tilesX_, first_ + half, count_ - half));
+				return;
+			}
+			int x0 = (first_ % tilesX_) * TILE_SIZE;
+			int y0 = (first_ / tilesX_) * TILE_SIZE;
+			int x1 = Math.min(width_, x0 + TILE_SIZE);
+			int y1 = Math.min(height_, y0 + TILE_SIZE);
+			switch (pass_) {
+			case PASS_BLUR_DOWN:
+				renderBlurDown(level_, x0, y0, x1, y1);
+				break;
+			case PASS_BLUR_UP:
+				renderBlurUp(level_, x0, y0, x1, y1);
+				break;
+			case PASS_FEEDBACK:
+				renderFeedback(x0, y0, x1, y1);
+				renderLines(first_, x0, y0, x1, y1);
+				break;
+			default:
+				renderScreen(x0, y0, x1, y1);
+				break;
+			}
+		}
+	}
+
+	/*
+	 * blur_down_fragment_shader_ of GLES20LinesRenderer, level 0 reads the
+	 * previous feedback target.
+	 */
+	private void renderBlurDown(int level, int x0, int y0, int x1, int y1) {
+		float[] source;
+		int sourceWidth;
+		int sourceHeight;
+		if (level == 0) {
+			source = feedback_targets_[useOneFramebuffer_ ? target_index_
+					: 1 - target_index_];
+			sourceWidth = framebuffer_width_;
+			sourceHeight = framebuffer_height_;
+		} else {
+			source = blur_targets_[level - 1];
+			sourceWidth = blur_widths_[level - 1];
+			sourceHeight = blur_heights_[level - 1];
+		}
+		float[] target = blur_targets_[level];
+		int width = blur_widths_[level];
+		int height = blur_heights_[level];
+		float ox = 2.0f * 0.5f / sourceWidth;
+		float oy = 2.0f * 0.5f / sourceHeight;
+		float[] sum = new float[3];
+		for (int y = y0; y < y1; ++y) {
+			float v = (y + 0.5f) / height;
+			for (int x = x0; x < x1; ++x) {
+				float u = (x + 0.5f) / width;
+				Arrays.fill(sum, 0.0f);
+				sample(source, sourceWidth, sourceHeight, u, v, 4.0f, sum);
+				sample(source, sourceWidth, sourceHeight, u - ox, v - oy,
+						1.0f, sum);
+				sample(source, sourceWidth, sourceHeight, u + ox, v + oy,
+						1.0f, sum);
+				sample(source, sourceWidth, sourceHeight, u + ox, v - oy,
+						1.0f, sum);
+				sample(source, sourceWidth, sourceHeight, u - ox, v + oy,
+						1.0f, sum);
+				store(target, (y * width + x) * 3, sum, 0.125f);
+			}
+		}
+	}
+
+	/* blur_up_fragment_shader_ of GLES20LinesRenderer */
+	private void renderBlurUp(int level, int x0, int y0, int x1, int y1) {
+		float[] source = blur_targets_[level + 1];
+		int sourceWidth = blur_widths_[level + 1];
+		int sourceHeight = blur_heights_[level + 1];
+		float[] target = blur_targets_[level];
+		int width = blur_widths_[level];
+		int height = blur_heights_[level];
+		float ox = 0.5f / sourceWidth;
+		float oy = 0.5f / sourceHeight;
+		float[] sum = new float[3];
+		for (int y = y0; y < y1; ++y) {
+			float v = (y + 0.5f) / height;
+			for (int x = x0; x < x1; ++x) {
+				float u = (x + 0.5f) / width;
+				Arrays.fill(sum, 0.0f);
+				sample(source, sourceWidth, sourceHeight, u - 2.0f * ox, v,
+						1.0f, sum);
+				sample(source, sourceWidth, sourceHeight, u + 2.0f * ox, v,
+						1.0f, sum);
+				sample(source, sourceWidth, sourceHeight, u, v - 2.0f * oy,
+						1.0f, sum);
+				sample(source, sourceWidth, sourceHeight, u, v + 2.0f * oy,
+						1.0f, sum);
+				sample(source, sourceWidth, sourceHeight, u + ox, v + oy,
+						2.0f, sum);
+				sample(source, sourceWidth, sourceHeight, u - ox, v - oy,
+						2.0f, sum);
+				sample(source, sourceWidth, sourceHeight, u + ox, v - oy,
+						2.0f, sum);
+				sample(source, sourceWidth, sourceHeight, u - ox, v + oy,
+						2.0f, sum);
+				store(target, (y * width + x) * 3, sum, 1.0f / 12.0f);
+			}
+		}
+	}
+
+	/*
+	 * The faded previous frame, or the bilinear upscale of the first blur
+	 * level. Without blur the texels are read at their centers, which is a
+	 * plain copy.
+	 */
+	private void renderFeedback(int x0, int y0, int x1, int y1) {
+		float[] previous = feedback_targets_[useOneFramebuffer_ ? target_index_
+				: 1 - target_index_];
+		float[] target = feedback_targets_[target_index_];
+		float fade = blur_ * blurFactor_;
+		float[] color = new float[3];
+		for (int y = y0; y < y1; ++y) {
+			float v = (y + 0.5f) / framebuffer_height_;
+			for (int x = x0; x < x1; ++x) {
+				int i = (y * framebuffer_width_ + x) * 3;
+				if (blurLevels_ > 0) {
+					Arrays.fill(color, 0.0f);
+					sample(blur_targets_[0], blur_widths_[0], blur_heights_[0],
+							(x + 0.5f) / framebuffer_width_, v, 1.0f, color);
+				} else {
+					color[0] = previous[i];
+					color[1] = previous[i + 1];
+					color[2] = previous[i + 2];
+				}
+				target[i] = quantize(color[0] * fade + backgroundColorRed_, 0);
+				target[i + 1] = quantize(color[1] * fade
+						+ backgroundColorGreen_, 1);
+				target[i + 2] = quantize(color[2] * fade
+						+ backgroundColorBlue_, 2);
+			}
+		}
+	}
+
+	/*
+	 * Draws the lines binned to a tile with GL's aliased wide line rule:
+	 * one pixel per column (row for y-major lines) whose center the line
+	 * crosses, widened to lineWidthPixels_ along the minor axis.
+	 */
+	private void renderLines(int tile, int x0, int y0, int x1, int y1) {
+		float[] target = feedback_targets_[target_index_];
+		int[] segments = tileSegments_[tile];
+		int count = tileSegmentCounts_[tile];
+		int offset = (lineWidthPixels_ - 1) / 2;
+		for (int n = 0; n < count; ++n) {
+			int s = segments[n] * SEGMENT_FLOATS;
+			float ax = segments_[s];
+			float ay = segments_[s + 1];
+			float bx = segments_[s + 2];
+			float by = segments_[s + 3];
+			float dx = bx - ax;
+			float dy = by - ay;
+			boolean xMajor = Math.abs(dx) >= Math.abs(dy);
+			if (!xMajor) {
+				// walk rows instead of columns
+				float t = ax;
+				ax = ay;
+				ay = t;
+				t = bx;
+				bx = by;
+				by = t;
+				t = dx;
+				dx = dy;
+				dy = t;
+			}
+			if (dx == 0.0f) {
+				continue;
+			}
+			int majorMin = xMajor ? x0 : y0;
+			int majorMax = xMajor ? x1 : y1;
+			int minorMin = xMajor ? y0 : x0;
+			int minorMax = xMajor ? y1 : x1;
+			float start = Math.min(ax, bx);
+			float end = Math.max(ax, bx);
+			int first = Math.max(majorMin, (int) Math.ceil(start - 0.5f));
+			int last = Math.min(majorMax - 1,
+					(int) Math.ceil(end - 0.5f) - 1);
+			for (int major = first; major <= last; ++major) {
+				float t = (major + 0.5f - ax) / dx;
+				int minor = (int) Math.floor(ay + t * dy) - offset;
+				int minorFirst = Math.max(minorMin, minor);
+				int minorLast = Math.min(minorMax - 1, minor
+						+ lineWidthPixels_ - 1);
+				if (minorFirst > minorLast) {
+					continue;
+				}
+				float invW = segments_[s + 4] + t
+						* (segments_[s + 5] - segments_[s + 4]);
+				float brightness = (segments_[s + 6] + t
+						* (segments_[s + 7] - segments_[s + 6]))
+						/ invW;
+				float red = brightness * linesColorRed_;
+				float green = brightness * linesColorGreen_;
+				float blue = brightness * linesColorBlue_;
+				for (int m = minorFirst; m <= minorLast; ++m) {
+					int i = xMajor ? (m * framebuffer_width_ + major) * 3
+							: (major * framebuffer_width_ + m) * 3;
+					target[i] = quantize(target[i] + red, 0);
+					target[i + 1] = quantize(target[i + 1] + green, 1);
+					target[i + 2] = quantize(target[i + 2] + blue, 2);
+				}
+			}
+		}
+	}
+
+	/*
+	 * fragment_shader_ with dithering, into an 8 bit surface. y0 and y1 are
+	 * GL rows, counted from the bottom.
+	 */
+	private void renderScreen(int x0, int y0, int x1, int y1) {
+		float[] source = feedback_targets_[target_index_];
+		float fade = blur_ * blurFactor_;
+		float[] color = new float[3];
+		for (int y = y0; y < y1; ++y) {
+			float v = (y + 0.5f) / surface_height_;
+			int row = (surface_height_ - 1 - y) * surface_width_;
+			for (int x = x0; x < x1; ++x) {
+				Arrays.fill(color, 0.0f);
+				sample(source, framebuffer_width_, framebuffer_height_,
+						(x + 0.5f) / surface_width_, v, 1.0f, color);
+				float dither = (bayer(x, y) - 0.46875f) * dither_;
+				int red = toByte((color[0] + dither) * fade
+						+ backgroundColorRed_);
+				int green = toByte((color[1] + dither) * fade
+						+ backgroundColorGreen_);
+				int blue = toByte((color[2] + dither) * fade
+						+ backgroundColorBlue_);
+				pixels_[row + x] = 0xFF000000 | (red << 16) | (green << 8)
+						| blue;
+			}
+		}
+	}
+
+	/*
+	 * The 4x4 ordered dither of fragment_shader_, from two 2x2 Bayer
+	 * matrices.
+	 */
+	private static float bayer(int x, int y) {
+		return bayer2(x, y) + bayer2(x >> 1, y >> 1) * 0.25f;
+	}
+
+	private static float bayer2(int x, int y) {
+		float value = (x & 1) * 0.5f + (y & 1) * 0.75f;
+		return value - (float) Math.floor(value);
+	}
+
+	/*
+	 * Adds weight times the bilinear, clamp to edge sample at (u, v) to sum.
+	 */
+	private static void sample(float[] texture, int width, int height,
+			float u, float v, float weight, float[] sum) {
+		float x = u * width - 0.5f;
+		float y = v * height - 0.5f;
+		int xa = (int) Math.floor(x);
+		int ya = (int) Math.floor(y);
+		float fx = x - xa;
+		float fy = y - ya;
+		int xb = Math.max(0, Math.min(width - 1, xa + 1));
+		int yb = Math.max(0, Math.min(height - 1, ya + 1));
+		xa = Math.max(0, Math.min(width - 1, xa));
+		ya = Math.max(0, Math.min(height - 1, ya));
+		int i00 = (ya * width + xa) * 3;
+		int i10 = (ya * width + xb) * 3;
+		int i01 = (yb * width + xa) * 3;
+		int i11 = (yb * width + xb) * 3;
+		float w00 = (1 - fx) * (1 - fy) * weight;
+		float w10 = fx * (1 - fy) * weight;
+		float w01 = (1 - fx) * fy * weight;
+		float w11 = fx * fy * weight;
+		for (int c = 0; c < 3; ++c) {
+			sum[c] += texture[i00 + c] * w00 + texture[i10 + c] * w10
+					+ texture[i01 + c] * w01 + texture[i11 + c] * w11;
+		}
+	}
+
+	private void store(float[] target, int i, float[] sum, float scale) {
+		for (int c = 0; c < 3; ++c) {
+			target[i + c] = quantize(sum[c] * scale, c);
+		}
+	}
+
+	/*
+	 * What a write to the feedback format keeps of a color channel.
+	 */
+	private float quantize(float value, int channel) {
+		float max = channelMax_[channel];
+		if (max == 0.0f) {
+			return value;
+		}
+		value = Math.max(0.0f, Math.min(1.0f, value));
+		return Math.round(value * max) / max;
+	}
+
+	private static int toByte(float value) {
+		value = Math.max(0.0f, Math.min(1.0f, value));
+		return Math.round(value * 255.0f);
+	}
+}
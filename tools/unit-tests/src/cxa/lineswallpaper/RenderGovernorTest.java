@@ -0,0 +1,124 @@
+package cxa.lineswallpaper;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Transitions of the render governor's policy, stepped through states the
+ * way onPowerStateChanged() does.
+ */
+public class RenderGovernorTest {
+	private static final int FULL = RenderGovernor.LEVEL_FULL;
+	private static final int REDUCED = RenderGovernor.LEVEL_REDUCED;
+	private static final int LOW = RenderGovernor.LEVEL_LOW;
+	private static final int MINIMAL = RenderGovernor.LEVEL_MINIMAL;
+
+	// battery hysteresis state carried from one step to the next
+	private int batteryLevel_ = FULL;
+
+	private int step(PowerState state) {
+		int level = RenderGovernor.evaluate(state, batteryLevel_);
+		batteryLevel_ = RenderGovernor.evaluateBattery(state, batteryLevel_);
+		return level;
+	}
+
+	private static PowerState battery(int percent) {
+		return new PowerState(percent, false, false,
+				PowerState.THERMAL_NONE);
+	}
+
+	@Test
+	public void chargingIsFullQuality() {
+		assertEquals(FULL, step(new PowerState(3, true, false,
+				PowerState.THERMAL_NONE)));
+	}
+
+	@Test
+	public void batteryThresholds() {
+		assertEquals(FULL, step(battery(31)));
+		assertEquals(REDUCED, step(battery(30)));
+		assertEquals(LOW, step(battery(15)));
+		assertEquals(MINIMAL, step(battery(5)));
+	}
+
+	@Test
+	public void batteryHysteresis() {
+		assertEquals(LOW, step(battery(14)));
+		// back above the threshold, but not by enough
+		assertEquals(LOW, step(battery(17)));
+		assertEquals(LOW, step(battery(20)));
+		assertEquals(REDUCED, step(battery(21)));
+		assertEquals(REDUCED, step(battery(35)));
+		assertEquals(FULL, step(battery(36)));
+	}
+
+	@Test
+	public void chargingResetsHysteresis() {
+		assertEquals(LOW, step(battery(14)));
+		assertEquals(FULL, step(new PowerState(17, true, false,
+				PowerState.THERMAL_NONE)));
+		// unplugged again above the threshold
+		assertEquals(REDUCED, step(battery(17)));
+	}
+
+	@Test
+	public void powerSaveDoesNotStickOnBatteryThresholds() {
+		PowerState state = battery(19).withPowerSaveMode(true);
+		assertEquals(LOW, step(state));
+		// the battery never dropped to 15%
+		assertEquals(REDUCED, step(state.withPowerSaveMode(false)));
+	}
+
+	@Test
+	public void thermalDoesNotStickOnBatteryThresholds() {
+		PowerState state = battery(33).withThermalStatus(
+				PowerState.THERMAL_MODERATE);
+		assertEquals(REDUCED, step(state));
+		assertEquals(FULL,
+				step(state.withThermalStatus(PowerState.THERMAL_NONE)));
+
+		state = battery(17).withThermalStatus(PowerState.THERMAL_SEVERE);
+		assertEquals(LOW, step(state));
+		assertEquals(REDUCED,
+				step(state.withThermalStatus(PowerState.THERMAL_NONE)));
+	}
+
+	@Test
+	public void thermalLevels() {
+		assertEquals(REDUCED, step(battery(100).withThermalStatus(
+				PowerState.THERMAL_MODERATE)));
+		assertEquals(LOW, step(battery(100).withThermalStatus(
+				PowerState.THERMAL_SEVERE)));
+		assertEquals(MINIMAL, step(battery(100).withThermalStatus(
+				PowerState.THERMAL_SHUTDOWN)));
+	}
+
+	@Test
+	public void governorNotifiesOnChangeOnly() {
+		final PowerSignalSource.Listener[] source = new PowerSignalSource.Listener[1];
+		final int[] changes = new int[1];
+		RenderGovernor governor = new RenderGovernor(new PowerSignalSource() {
+			public void start(Listener listener) {
+				source[0] = listener;
+			}
+
+			public void stop() {
+			}
+		}, new RenderGovernor.Listener() {
+			public void onRenderQualityChanged(RenderQuality quality) {
+				++changes[0];
+			}
+		});
+		governor.start();
+
+		PowerState state = battery(19).withPowerSaveMode(true);
+		source[0].onPowerStateChanged(state);
+		assertEquals(LOW, governor.getLevel());
+		source[0].onPowerStateChanged(state);
+		assertEquals(1, changes[0]);
+		source[0].onPowerStateChanged(state.withPowerSaveMode(false));
+		assertEquals(REDUCED, governor.getLevel());
+		assertEquals(2, changes[0]);
+	}
+}